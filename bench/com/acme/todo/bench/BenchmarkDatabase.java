@@ -0,0 +1,136 @@
+
+package com.acme.todo.bench;
+
+import java.io.IOException;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import java.util.List;
+
+/**
+ * Embedded H2 database running in MySQL mode and loaded with the
+ * plugin install schema. The H2 driver must be on the classpath.
+ */
+public class BenchmarkDatabase {
+
+    /**
+     * The install schema loaded into the database, relative to the plugin directory.
+     */
+    private static final String SCHEMA = "db/install/install.mysql";
+
+    /**
+     * System property naming a directory to keep the database files in. Large
+     * datasets should use a file database rather than the default in memory one.
+     */
+    private static final String PROPERTY_DB_DIR = "bench.db.dir";
+
+    /**
+     * The JDBC url.
+     */
+    private String url;
+
+    /**
+     * Connection held open so an in memory database survives between connections.
+     */
+    private Connection keepAlive;
+
+    /**
+     * Constructor.
+     *
+     * @param url The JDBC url.
+     */
+    private BenchmarkDatabase(String url) {
+        this.url = url;
+    }
+
+    /**
+     * Creates a new empty database and loads the install schema into it.
+     *
+     * @param name The database name.
+     * @return The database.
+     * @throws SQLException
+     * @throws IOException If the schema could not be read.
+     */
+    public static BenchmarkDatabase create(String name) throws SQLException, IOException {
+        String dbDir = System.getProperty(PROPERTY_DB_DIR);
+        String location = dbDir == null ? "mem:" + name : "file:" + Paths.get(dbDir, name).toAbsolutePath();
+
+        BenchmarkDatabase database = new BenchmarkDatabase("jdbc:h2:" + location + ";MODE=MySQL");
+        database.keepAlive = database.getConnection();
+
+        database.execute("DROP ALL OBJECTS");
+        database.loadSchema();
+
+        return database;
+    }
+
+    /**
+     * Opens a new connection to the database.
+     *
+     * @return The connection.
+     * @throws SQLException
+     */
+    public Connection getConnection() throws SQLException {
+        return DriverManager.getConnection(url, "sa", "");
+    }
+
+    /**
+     * Executes a statement in its own connection.
+     *
+     * @param sql The statement.
+     * @return The number of rows affected.
+     * @throws SQLException
+     */
+    public int execute(String sql) throws SQLException {
+        try (Connection connection = getConnection(); Statement statement = connection.createStatement()) {
+            statement.execute(sql);
+
+            return statement.getUpdateCount();
+        }
+    }
+
+    /**
+     * Drops everything in the database and releases it.
+     *
+     * @throws SQLException
+     */
+    public void close() throws SQLException {
+        try {
+            execute("DROP ALL OBJECTS");
+        } finally {
+            keepAlive.close();
+        }
+    }
+
+    /**
+     * Executes each statement of the install schema, skipping comment lines.
+     *
+     * @throws SQLException
+     * @throws IOException If the schema could not be read.
+     */
+    private void loadSchema() throws SQLException, IOException {
+        List<String> lines = Files.readAllLines(Paths.get(SCHEMA), StandardCharsets.UTF_8);
+
+        StringBuilder sql = new StringBuilder();
+        for (String line : lines) {
+            if (!line.trim().startsWith("--")) {
+                sql.append(line).append('\n');
+            }
+        }
+
+        for (String statement : sql.toString().split(";")) {
+            if (!statement.trim().isEmpty()) {
+                execute(statement);
+            }
+        }
+    }
+
+}
+
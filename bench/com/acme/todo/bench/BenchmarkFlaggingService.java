@@ -0,0 +1,63 @@
+
+package com.acme.todo.bench;
+
+import com.acme.todo.server.TodoFlaggingService;
+
+import sailpoint.tools.GeneralException;
+
+import java.sql.Connection;
+
+/**
+ * Flagging service which takes its connections and settings from
+ * a benchmark plugin context instead of IdentityIQ.
+ */
+public class BenchmarkFlaggingService extends TodoFlaggingService {
+
+    /**
+     * The plugin context.
+     */
+    private BenchmarkPluginContext pluginContext;
+
+    /**
+     * Constructor.
+     *
+     * @param pluginContext The plugin context.
+     */
+    public BenchmarkFlaggingService(BenchmarkPluginContext pluginContext) {
+        this.pluginContext = pluginContext;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Connection getConnection() throws GeneralException {
+        return pluginContext.getConnection();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getSettingString(String name) {
+        return pluginContext.getSettingString(name);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getSettingInt(String name) {
+        return pluginContext.getSettingInt(name);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean getSettingBool(String name) {
+        return pluginContext.getSettingBool(name);
+    }
+
+}
+
@@ -0,0 +1,119 @@
+
+package com.acme.todo.bench;
+
+import com.acme.todo.util.TodoUtil;
+
+import sailpoint.plugin.PluginContext;
+import sailpoint.tools.GeneralException;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Plugin context backed by the benchmark database and an in memory
+ * map of plugin settings.
+ */
+public class BenchmarkPluginContext implements PluginContext {
+
+    /**
+     * The database.
+     */
+    private BenchmarkDatabase database;
+
+    /**
+     * The plugin settings.
+     */
+    private Map<String, String> settings = new HashMap<>();
+
+    /**
+     * The number of connections handed out.
+     */
+    private AtomicLong numConnections = new AtomicLong();
+
+    /**
+     * Constructor.
+     *
+     * @param database The database.
+     */
+    public BenchmarkPluginContext(BenchmarkDatabase database) {
+        this.database = database;
+
+        settings.put("defaultName", "Benchmark Todo");
+        settings.put("defaultTime", "30");
+        settings.put("maxUntilFlagged", "10");
+    }
+
+    /**
+     * Sets a plugin setting.
+     *
+     * @param name The setting name.
+     * @param value The value.
+     */
+    public void setSetting(String name, Object value) {
+        settings.put(name, value == null ? null : value.toString());
+    }
+
+    /**
+     * Gets the number of connections handed out, which for the single
+     * mutations of the todo service is also the number of commits.
+     *
+     * @return The count.
+     */
+    public long getNumConnections() {
+        return numConnections.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getPluginName() {
+        return TodoUtil.PLUGIN_NAME;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Connection getConnection() throws GeneralException {
+        numConnections.incrementAndGet();
+
+        try {
+            return database.getConnection();
+        } catch (SQLException e) {
+            throw new GeneralException(e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getSettingString(String name) {
+        return settings.get(name);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getSettingInt(String name) {
+        String value = settings.get(name);
+
+        return value == null ? 0 : Integer.parseInt(value);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean getSettingBool(String name) {
+        return Boolean.parseBoolean(settings.get(name));
+    }
+
+}
+
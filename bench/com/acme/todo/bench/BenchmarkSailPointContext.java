@@ -0,0 +1,65 @@
+
+package com.acme.todo.bench;
+
+import sailpoint.api.SailPointContext;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import java.util.Collections;
+import java.util.Iterator;
+
+/**
+ * Factory for a SailPointContext stub. No objects exist in the stub
+ * context so lookups return null and searches return nothing, which
+ * keeps the benchmarks focused on the plugin tables.
+ */
+public class BenchmarkSailPointContext {
+
+    /**
+     * Creates the stub context.
+     *
+     * @return The context.
+     */
+    public static SailPointContext create() {
+        return (SailPointContext) Proxy.newProxyInstance(
+            BenchmarkSailPointContext.class.getClassLoader(), new Class<?>[] { SailPointContext.class }, new EmptyHandler()
+        );
+    }
+
+    /**
+     * Private constructor.
+     */
+    private BenchmarkSailPointContext() {}
+
+    /**
+     * Handler which answers every call with an empty value of the return type.
+     */
+    private static class EmptyHandler implements InvocationHandler {
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            Class<?> returnType = method.getReturnType();
+            if ("toString".equals(method.getName())) {
+                return BenchmarkSailPointContext.class.getSimpleName();
+            } else if (Iterator.class.equals(returnType)) {
+                return Collections.emptyIterator();
+            } else if (boolean.class.equals(returnType)) {
+                return false;
+            } else if (int.class.equals(returnType)) {
+                return 0;
+            } else if (long.class.equals(returnType)) {
+                return 0L;
+            }
+
+            return null;
+        }
+
+    }
+
+}
+
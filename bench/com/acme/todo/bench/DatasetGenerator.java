@@ -0,0 +1,252 @@
+
+package com.acme.todo.bench;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Generates a synthetic set of todos whose distribution across users is
+ * skewed the way real usage is: a few users own a large share of the
+ * todos while most users own only a handful. Users are ranked and the
+ * owner of each todo is drawn from a Zipf distribution over the ranks,
+ * so the user at rank zero always owns the most todos.
+ */
+public class DatasetGenerator {
+
+    /**
+     * The number of rows inserted per JDBC batch.
+     */
+    private static final int BATCH_SIZE = 1000;
+
+    /**
+     * The number of rows inserted per transaction.
+     */
+    private static final int COMMIT_SIZE = 50000;
+
+    /**
+     * The average number of todos per user used to size the user population.
+     */
+    private static final int TODOS_PER_USER = 50;
+
+    /**
+     * Query to insert a generated todo.
+     */
+    private static final String INSERT_TODO = "INSERT INTO tp_todo_list (id, user_id, name, estimate, notes, complete, created, completed_on) " +
+                                              "VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+
+    /**
+     * Query to build the per user counts from the generated todos.
+     */
+    private static final String INSERT_USER_STATS = "INSERT INTO tp_todo_user_stats (user_id, open_count, total_count, open_estimate) " +
+                                                    "SELECT user_id, SUM(CASE WHEN complete=0 THEN 1 ELSE 0 END), COUNT(*), " +
+                                                    "SUM(CASE WHEN complete=0 THEN COALESCE(estimate, 0) ELSE 0 END) " +
+                                                    "FROM tp_todo_list GROUP BY user_id";
+
+    /**
+     * Class describing a generated dataset.
+     */
+    public static class Dataset {
+
+        /**
+         * The open todo count of each user by rank.
+         */
+        private int[] openCounts;
+
+        /**
+         * The total todo count of each user by rank.
+         */
+        private int[] totalCounts;
+
+        /**
+         * Constructor.
+         *
+         * @param numUsers The number of users.
+         */
+        private Dataset(int numUsers) {
+            openCounts = new int[numUsers];
+            totalCounts = new int[numUsers];
+        }
+
+        /**
+         * Gets the number of users.
+         *
+         * @return The number of users.
+         */
+        public int getNumUsers() {
+            return totalCounts.length;
+        }
+
+        /**
+         * Gets the id of the user at the specified rank.
+         *
+         * @param rank The rank, zero being the user with the most todos.
+         * @return The user id.
+         */
+        public String getUserId(int rank) {
+            return userId(rank);
+        }
+
+        /**
+         * Gets the total todo count of the user at the specified rank.
+         *
+         * @param rank The rank.
+         * @return The count.
+         */
+        public int getTotalCount(int rank) {
+            return totalCounts[rank];
+        }
+
+        /**
+         * Gets the open todo count below which the specified fraction of users fall.
+         *
+         * @param fraction The fraction of users, between zero and one.
+         * @return The open todo count.
+         */
+        public int getOpenCountPercentile(double fraction) {
+            int[] sorted = Arrays.copyOf(openCounts, openCounts.length);
+            Arrays.sort(sorted);
+
+            int index = (int) Math.min(sorted.length - 1, Math.floor(fraction * sorted.length));
+
+            return sorted[index];
+        }
+
+    }
+
+    /**
+     * The random source, seeded so runs are repeatable.
+     */
+    private Random random;
+
+    /**
+     * The Zipf exponent, larger values concentrate more todos on the top users.
+     */
+    private double skew;
+
+    /**
+     * The fraction of todos which are complete.
+     */
+    private double completedRatio;
+
+    /**
+     * Constructor.
+     *
+     * @param seed The random seed.
+     * @param skew The Zipf exponent.
+     * @param completedRatio The fraction of todos which are complete.
+     */
+    public DatasetGenerator(long seed, double skew, double completedRatio) {
+        this.random = new Random(seed);
+        this.skew = skew;
+        this.completedRatio = completedRatio;
+    }
+
+    /**
+     * Gets the id of the user at the specified rank.
+     *
+     * @param rank The rank.
+     * @return The user id.
+     */
+    public static String userId(int rank) {
+        return String.format("u%031d", rank);
+    }
+
+    /**
+     * Generates the todos and the matching per user counts.
+     *
+     * @param connection The connection.
+     * @param numTodos The number of todos to generate.
+     * @return The dataset.
+     * @throws SQLException
+     */
+    public Dataset generate(Connection connection, int numTodos) throws SQLException {
+        int numUsers = Math.max(10, numTodos / TODOS_PER_USER);
+        double[] cumulative = getCumulativeWeights(numUsers);
+
+        Dataset dataset = new Dataset(numUsers);
+        long now = System.currentTimeMillis();
+
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+
+        try (PreparedStatement statement = connection.prepareStatement(INSERT_TODO)) {
+            for (int i = 0; i < numTodos; i++) {
+                int rank = Arrays.binarySearch(cumulative, random.nextDouble());
+                rank = Math.min(rank < 0 ? -rank - 1 : rank, numUsers - 1);
+
+                boolean complete = random.nextDouble() < completedRatio;
+                long created = now - random.nextInt(Integer.MAX_VALUE);
+                int estimate = 5 + random.nextInt(120);
+
+                statement.setString(1, String.format("t%031d", i));
+                statement.setString(2, userId(rank));
+                statement.setString(3, "Todo " + i);
+                statement.setInt(4, estimate);
+                statement.setString(5, random.nextInt(4) == 0 ? "Notes for todo " + i : null);
+                statement.setBoolean(6, complete);
+                statement.setLong(7, created);
+
+                if (complete) {
+                    statement.setLong(8, created + random.nextInt(Integer.MAX_VALUE));
+                } else {
+                    statement.setNull(8, Types.BIGINT);
+                    dataset.openCounts[rank]++;
+                }
+
+                dataset.totalCounts[rank]++;
+
+                statement.addBatch();
+
+                if ((i + 1) % BATCH_SIZE == 0) {
+                    statement.executeBatch();
+                }
+
+                if ((i + 1) % COMMIT_SIZE == 0) {
+                    connection.commit();
+                }
+            }
+
+            statement.executeBatch();
+
+            try (Statement stats = connection.createStatement()) {
+                stats.executeUpdate(INSERT_USER_STATS);
+            }
+
+            connection.commit();
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+
+        return dataset;
+    }
+
+    /**
+     * Computes the cumulative Zipf probabilities of the user ranks.
+     *
+     * @param numUsers The number of users.
+     * @return The cumulative probability of each rank.
+     */
+    private double[] getCumulativeWeights(int numUsers) {
+        double[] cumulative = new double[numUsers];
+
+        double total = 0;
+        for (int i = 0; i < numUsers; i++) {
+            total += 1.0 / Math.pow(i + 1, skew);
+            cumulative[i] = total;
+        }
+
+        for (int i = 0; i < numUsers; i++) {
+            cumulative[i] /= total;
+        }
+
+        return cumulative;
+    }
+
+}
+
@@ -0,0 +1,228 @@
+
+package com.acme.todo.bench;
+
+import com.acme.todo.bench.DatasetGenerator.Dataset;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import sailpoint.api.SailPointContext;
+
+import java.sql.Connection;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for a flagging service pass against a generated dataset.
+ * Each invocation starts from the same flagged user table so the
+ * amount of work done per pass does not drift between invocations.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FlaggingServiceBenchmark {
+
+    /**
+     * The number of todos in the dataset.
+     */
+    @Param({ "1000", "100000", "1000000" })
+    public int numTodos;
+
+    /**
+     * The Zipf exponent of the todos per user distribution.
+     */
+    @Param({ "1.1" })
+    public double skew;
+
+    /**
+     * The database.
+     */
+    private BenchmarkDatabase database;
+
+    /**
+     * The stub context.
+     */
+    private SailPointContext context;
+
+    /**
+     * Service configured to flag the top ten percent of users.
+     */
+    private BenchmarkFlaggingService flagger;
+
+    /**
+     * Service configured to keep only the top one percent of users flagged.
+     */
+    private BenchmarkFlaggingService pruner;
+
+    /**
+     * Two services splitting the flagging work between them through bucket leases.
+     */
+    private BenchmarkFlaggingService[] hosts;
+
+    /**
+     * Creates the database, generates the dataset and configures the services.
+     *
+     * @throws Exception
+     */
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        database = BenchmarkDatabase.create("flagging");
+
+        Dataset dataset;
+        try (Connection connection = database.getConnection()) {
+            dataset = new DatasetGenerator(42, skew, 0.5).generate(connection, numTodos);
+        }
+
+        context = BenchmarkSailPointContext.create();
+        flagger = createService(dataset.getOpenCountPercentile(0.9));
+        pruner = createService(dataset.getOpenCountPercentile(0.99));
+
+        hosts = new BenchmarkFlaggingService[2];
+        for (int i = 0; i < hosts.length; i++) {
+            hosts[i] = createService(dataset.getOpenCountPercentile(0.9), 16);
+        }
+    }
+
+    /**
+     * Releases the database.
+     *
+     * @throws Exception
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        database.close();
+    }
+
+    /**
+     * State which clears the flagged users before each invocation.
+     */
+    @State(Scope.Thread)
+    public static class NoneFlagged {
+
+        /**
+         * Removes all flagged users.
+         *
+         * @param benchmark The benchmark state.
+         * @throws Exception
+         */
+        @Setup(Level.Invocation)
+        public void setup(FlaggingServiceBenchmark benchmark) throws Exception {
+            benchmark.database.execute("DELETE FROM tp_flagged_user");
+        }
+
+    }
+
+    /**
+     * State which flags the top ten percent of users before each invocation.
+     */
+    @State(Scope.Thread)
+    public static class TopTenPercentFlagged {
+
+        /**
+         * Flags the users.
+         *
+         * @param benchmark The benchmark state.
+         * @throws Exception
+         */
+        @Setup(Level.Invocation)
+        public void setup(FlaggingServiceBenchmark benchmark) throws Exception {
+            benchmark.database.execute("DELETE FROM tp_flagged_user");
+            benchmark.flagger.flagUsers(benchmark.context);
+        }
+
+    }
+
+    /**
+     * State which clears the flagged users and records a hundred users
+     * as changed before each invocation.
+     */
+    @State(Scope.Thread)
+    public static class HundredDirty {
+
+        /**
+         * Marks the users as changed.
+         *
+         * @param benchmark The benchmark state.
+         * @throws Exception
+         */
+        @Setup(Level.Invocation)
+        public void setup(FlaggingServiceBenchmark benchmark) throws Exception {
+            benchmark.database.execute("DELETE FROM tp_flagged_user");
+            benchmark.database.execute("DELETE FROM tp_todo_dirty_user");
+            benchmark.database.execute(
+                "INSERT INTO tp_todo_dirty_user (user_id, dirty_version) " +
+                "SELECT user_id, 1 FROM tp_todo_user_stats ORDER BY open_count DESC LIMIT 100"
+            );
+        }
+
+    }
+
+    @Benchmark
+    public void flagUsers(NoneFlagged state) throws Exception {
+        flagger.flagUsers(context);
+    }
+
+    @Benchmark
+    public int pruneFlagged(TopTenPercentFlagged state) throws Exception {
+        return pruner.pruneFlagged();
+    }
+
+    @Benchmark
+    public int flagDirtyUsers(HundredDirty state) throws Exception {
+        return flagger.flagDirtyUsers(context);
+    }
+
+    @Benchmark
+    public void partitionedExecute(HundredDirty state) throws Exception {
+        for (BenchmarkFlaggingService host : hosts) {
+            host.execute(context);
+        }
+    }
+
+    /**
+     * Creates a flagging service with the specified threshold.
+     *
+     * @param maxUntilFlagged The open todo threshold.
+     * @return The service.
+     * @throws Exception
+     */
+    private BenchmarkFlaggingService createService(int maxUntilFlagged) throws Exception {
+        return createService(maxUntilFlagged, 0);
+    }
+
+    /**
+     * Creates a flagging service with the specified threshold which splits
+     * the work with the other services configured with the same buckets.
+     *
+     * @param maxUntilFlagged The open todo threshold.
+     * @param numBuckets The number of buckets or zero to look at all users.
+     * @return The service.
+     * @throws Exception
+     */
+    private BenchmarkFlaggingService createService(int maxUntilFlagged, int numBuckets) throws Exception {
+        BenchmarkPluginContext pluginContext = new BenchmarkPluginContext(database);
+        pluginContext.setSetting("maxUntilFlagged", Math.max(1, maxUntilFlagged));
+        pluginContext.setSetting("flaggingBuckets", numBuckets);
+
+        BenchmarkFlaggingService service = new BenchmarkFlaggingService(pluginContext);
+        service.configure(context);
+
+        return service;
+    }
+
+}
+
@@ -0,0 +1,156 @@
+package com.acme.todo.bench;
+
+import com.acme.todo.service.Todo;
+import com.acme.todo.service.TodoService;
+import com.acme.todo.service.TodoService.CreateTodoData;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.sql.Connection;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Benchmark of concurrent single completes, the way the REST resource
+ * issues them, with and without group commit. The completes go through
+ * a service created with the plugin context while the todos they
+ * complete are created through a separate context, so the connections
+ * counted after each iteration are the commits of the completes alone.
+ * With a window set the completes per commit printed after an iteration
+ * is well above one.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(16)
+@Fork(1)
+public class GroupCommitBenchmark {
+
+    /**
+     * The group commit window in milliseconds, zero to commit each complete on its own.
+     */
+    @Param({ "0", "5" })
+    public int groupCommitWindow;
+
+    /**
+     * The database.
+     */
+    private BenchmarkDatabase database;
+
+    /**
+     * The context of the completes, which counts their connections.
+     */
+    private BenchmarkPluginContext context;
+
+    /**
+     * The service the completes are made through.
+     */
+    private TodoService todoService;
+
+    /**
+     * The service the todos to complete are created through.
+     */
+    private TodoService setupService;
+
+    /**
+     * The number of completes made.
+     */
+    private AtomicLong numCompletes = new AtomicLong();
+
+    /**
+     * Creates the database and a small dataset.
+     *
+     * @throws Exception
+     */
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        database = BenchmarkDatabase.create("groupcommit");
+
+        try (Connection connection = database.getConnection()) {
+            new DatasetGenerator(42, 1.1, 0.5).generate(connection, 1000);
+        }
+
+        context = new BenchmarkPluginContext(database);
+        context.setSetting("groupCommitWindow", groupCommitWindow);
+
+        todoService = new TodoService(context);
+        setupService = new TodoService(new BenchmarkPluginContext(database));
+    }
+
+    /**
+     * Prints the number of completes that shared each commit so far.
+     */
+    @TearDown(Level.Iteration)
+    public void printCompletesPerCommit() {
+        long numCommits = context.getNumConnections();
+        if (numCommits > 0) {
+            System.out.printf("%n%d completes in %d commits, %.1f completes per commit%n",
+                numCompletes.get(), numCommits, (double) numCompletes.get() / numCommits);
+        }
+    }
+
+    /**
+     * Releases the database.
+     *
+     * @throws Exception
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        database.close();
+    }
+
+    /**
+     * Todo created before each invocation for the complete to work on.
+     */
+    @State(Scope.Thread)
+    public static class OpenTodo {
+
+        /**
+         * The todo.
+         */
+        private Todo todo;
+
+        /**
+         * Creates the todo.
+         *
+         * @param benchmark The benchmark state.
+         * @throws Exception
+         */
+        @Setup(Level.Invocation)
+        public void setup(GroupCommitBenchmark benchmark) throws Exception {
+            CreateTodoData data = new CreateTodoData();
+            data.setId(UUID.randomUUID().toString().replace("-", ""));
+            data.setUserId(DatasetGenerator.userId(0));
+            data.setName("Benchmark");
+            data.setEstimate(15);
+
+            todo = benchmark.setupService.createTodo(data);
+        }
+
+    }
+
+    @Benchmark
+    public void completeTodo(OpenTodo openTodo) throws Exception {
+        todoService.completeTodo(openTodo.todo);
+        numCompletes.incrementAndGet();
+    }
+
+}
+
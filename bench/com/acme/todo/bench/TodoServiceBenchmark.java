@@ -0,0 +1,228 @@
+
+package com.acme.todo.bench;
+
+import com.acme.todo.bench.DatasetGenerator.Dataset;
+import com.acme.todo.service.Todo;
+import com.acme.todo.service.TodoService;
+import com.acme.todo.service.TodoService.CreateTodoData;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for the TodoService against a generated dataset. Larger
+ * datasets can be selected with -p numTodos=10000000, which should be
+ * combined with -Dbench.db.dir so the data is kept on disk.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TodoServiceBenchmark {
+
+    /**
+     * The number of completed todos removed per purge chunk.
+     */
+    private static final int PURGE_CHUNK_SIZE = 100;
+
+    /**
+     * The number of todos in the dataset.
+     */
+    @Param({ "1000", "100000", "1000000" })
+    public int numTodos;
+
+    /**
+     * The Zipf exponent of the todos per user distribution.
+     */
+    @Param({ "1.1" })
+    public double skew;
+
+    /**
+     * The database.
+     */
+    private BenchmarkDatabase database;
+
+    /**
+     * The service under test.
+     */
+    private TodoService todoService;
+
+    /**
+     * The user who owns the most todos.
+     */
+    private String heavyUserId;
+
+    /**
+     * A user with the median number of todos.
+     */
+    private String typicalUserId;
+
+    /**
+     * Creates the database and generates the dataset.
+     *
+     * @throws Exception
+     */
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        database = BenchmarkDatabase.create("todo");
+
+        Dataset dataset;
+        try (Connection connection = database.getConnection()) {
+            dataset = new DatasetGenerator(42, skew, 0.5).generate(connection, numTodos);
+        }
+
+        heavyUserId = dataset.getUserId(0);
+        typicalUserId = dataset.getUserId(dataset.getNumUsers() / 2);
+
+        todoService = new TodoService(new BenchmarkPluginContext(database));
+    }
+
+    /**
+     * Releases the database.
+     *
+     * @throws Exception
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        database.close();
+    }
+
+    /**
+     * Todo created before each invocation for benchmarks that need an open todo.
+     */
+    @State(Scope.Thread)
+    public static class OpenTodo {
+
+        /**
+         * The todo.
+         */
+        private Todo todo;
+
+        /**
+         * Creates the todo. Invocation level setup adds timing overhead but
+         * it is small next to a database round trip.
+         *
+         * @param benchmark The benchmark state.
+         * @throws Exception
+         */
+        @Setup(Level.Invocation)
+        public void setup(TodoServiceBenchmark benchmark) throws Exception {
+            todo = benchmark.todoService.createTodo(benchmark.newTodoData(benchmark.typicalUserId));
+        }
+
+    }
+
+    /**
+     * Completed todos created before each invocation so every purge
+     * deletes a full chunk and the dataset size stays constant.
+     */
+    @State(Scope.Thread)
+    public static class CompletedChunk {
+
+        /**
+         * Inserts a chunk of completed todos.
+         *
+         * @param benchmark The benchmark state.
+         * @throws Exception
+         */
+        @Setup(Level.Invocation)
+        public void setup(TodoServiceBenchmark benchmark) throws Exception {
+            try (Connection connection = benchmark.database.getConnection();
+                 PreparedStatement statement = connection.prepareStatement(
+                     "INSERT INTO tp_todo_list (id, user_id, name, estimate, complete, created, completed_on) " +
+                     "VALUES (?, ?, ?, ?, 1, ?, ?)")) {
+
+                long now = System.currentTimeMillis();
+                for (int i = 0; i < PURGE_CHUNK_SIZE; i++) {
+                    statement.setString(1, newId());
+                    statement.setString(2, benchmark.typicalUserId);
+                    statement.setString(3, "Completed");
+                    statement.setInt(4, 30);
+                    statement.setLong(5, now);
+                    statement.setLong(6, now);
+                    statement.addBatch();
+                }
+
+                statement.executeBatch();
+            }
+        }
+
+    }
+
+    @Benchmark
+    public List<Todo> getTodosForHeavyUser() throws Exception {
+        return todoService.getTodosForUser(heavyUserId);
+    }
+
+    @Benchmark
+    public List<Todo> getTodosForTypicalUser() throws Exception {
+        return todoService.getTodosForUser(typicalUserId);
+    }
+
+    @Benchmark
+    public int getActiveTodosForUser() throws Exception {
+        return todoService.getActiveTodosForUser(heavyUserId);
+    }
+
+    @Benchmark
+    public Todo createTodo() throws Exception {
+        return todoService.createTodo(newTodoData(typicalUserId));
+    }
+
+    @Benchmark
+    public void completeTodo(OpenTodo openTodo) throws Exception {
+        todoService.completeTodo(openTodo.todo);
+    }
+
+    @Benchmark
+    public int deleteCompletedTodos(CompletedChunk chunk) throws Exception {
+        return todoService.deleteCompletedTodos(PURGE_CHUNK_SIZE);
+    }
+
+    /**
+     * Creates the data for a new todo.
+     *
+     * @param userId The user id.
+     * @return The data.
+     */
+    private CreateTodoData newTodoData(String userId) {
+        CreateTodoData data = new CreateTodoData();
+        data.setId(newId());
+        data.setUserId(userId);
+        data.setName("Benchmark");
+        data.setEstimate(15);
+
+        return data;
+    }
+
+    /**
+     * Creates a new todo id.
+     *
+     * @return The id.
+     */
+    private static String newId() {
+        return UUID.randomUUID().toString().replace("-", "");
+    }
+
+}
+
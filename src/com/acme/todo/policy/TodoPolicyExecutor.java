@@ -21,6 +21,8 @@ import java.sql.SQLException;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Policy executor implementation that checks to see if any
@@ -41,11 +43,85 @@ public class TodoPolicyExecutor extends BasePluginPolicyExecutor {
      */
     private static final String ARG_NUM_ACTIVE = "numActive";
 
+    /**
+     * The argument key for the number of seconds the open todo counts are cached.
+     */
+    private static final String ARG_COUNT_CACHE_SECONDS = "countCacheSeconds";
+
+    /**
+     * The number of seconds the open todo counts are cached when not configured.
+     */
+    private static final int DEFAULT_COUNT_CACHE_SECONDS = 60;
+
     /**
      * The policy violation renderer.
      */
     private static final String RENDERER = "ui/policy/renderer.xhtml";
 
+    /**
+     * Class holding the open todo counts of the users over a threshold as
+     * they were when loaded. Identities missing from the counts were at or
+     * below the threshold.
+     */
+    private static class OpenCountSnapshot {
+
+        /**
+         * The threshold the counts were loaded for.
+         */
+        private final int threshold;
+
+        /**
+         * The time after which the counts must be reloaded.
+         */
+        private final long expires;
+
+        /**
+         * The open todo counts keyed by user id.
+         */
+        private final Map<String, Integer> counts;
+
+        /**
+         * Constructor.
+         *
+         * @param threshold The threshold.
+         * @param expires The expiration timestamp.
+         * @param counts The open todo counts.
+         */
+        public OpenCountSnapshot(int threshold, long expires, Map<String, Integer> counts) {
+            this.threshold = threshold;
+            this.expires = expires;
+            this.counts = counts;
+        }
+
+        /**
+         * Determines if the snapshot can answer for the threshold.
+         *
+         * @param threshold The threshold.
+         * @return True if usable, false otherwise.
+         */
+        public boolean isValid(int threshold) {
+            return this.threshold == threshold && TodoUtil.now() < expires;
+        }
+
+        /**
+         * Gets the open todo count of the user.
+         *
+         * @param userId The user id.
+         * @return The count or zero if the user was at or below the threshold.
+         */
+        public int getCount(String userId) {
+            Integer count = counts.get(userId);
+
+            return count == null ? 0 : count;
+        }
+
+    }
+
+    /**
+     * The open todo counts shared by every evaluation in this JVM until they expire.
+     */
+    private static volatile OpenCountSnapshot snapshot;
+
     /**
      * {@inheritDoc}
      */
@@ -69,9 +145,7 @@ public class TodoPolicyExecutor extends BasePluginPolicyExecutor {
             return violations;
         }
 
-        TodoService todoService = new TodoService(this);
-
-        int numActive = todoService.getActiveTodosForUser(id.getId());
+        int numActive = getOpenCounts(policy, maxActiveTodos).getCount(id.getId());
         if (numActive > maxActiveTodos) {
             violations.add(createViolation(context, policy, id, numActive));
         }
@@ -79,6 +153,41 @@ public class TodoPolicyExecutor extends BasePluginPolicyExecutor {
         return violations;
     }
 
+    /**
+     * Gets the open todo counts, loading all users over the threshold in a
+     * single query when the cached counts have expired. This keeps a policy
+     * scan from running a query for every identity it evaluates.
+     *
+     * @param policy The policy.
+     * @param maxActiveTodos The maximum active todos.
+     * @return The counts.
+     * @throws GeneralException
+     */
+    private OpenCountSnapshot getOpenCounts(Policy policy, int maxActiveTodos) throws GeneralException {
+        OpenCountSnapshot current = snapshot;
+        if (current != null && current.isValid(maxActiveTodos)) {
+            return current;
+        }
+
+        synchronized (TodoPolicyExecutor.class) {
+            current = snapshot;
+            if (current == null || !current.isValid(maxActiveTodos)) {
+                int cacheSeconds = policy.getInt(ARG_COUNT_CACHE_SECONDS);
+                if (cacheSeconds <= 0) {
+                    cacheSeconds = DEFAULT_COUNT_CACHE_SECONDS;
+                }
+
+                Map<String, Integer> counts = new TodoService(this).getUsersOverOpenThreshold(maxActiveTodos);
+                long expires = TodoUtil.now() + TimeUnit.SECONDS.toMillis(cacheSeconds);
+
+                current = new OpenCountSnapshot(maxActiveTodos, expires, counts);
+                snapshot = current;
+            }
+
+            return current;
+        }
+    }
+
     /**
      * Creates a policy violation for the identity.
      *
@@ -3,9 +3,10 @@ package com.acme.todo.rest;
 
 import com.acme.todo.service.FlaggedUser;
 import com.acme.todo.service.FlaggedUserService;
+import com.acme.todo.service.Page;
+import com.acme.todo.util.JsonWriter;
 import com.acme.todo.util.TodoUtil;
 
-import sailpoint.integration.ListResult;
 import sailpoint.rest.plugin.BasePluginResource;
 import sailpoint.rest.plugin.RequiredRight;
 import sailpoint.tools.GeneralException;
@@ -14,8 +15,10 @@ import javax.ws.rs.Consumes;
 import javax.ws.rs.GET;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.Response;
 
-import java.util.List;
+import java.io.IOException;
 
 /**
  * The REST resource used for interacting with flagged users.
@@ -26,8 +29,14 @@ import java.util.List;
 @Produces("application/json")
 @Consumes("application/json")
 @RequiredRight("ViewFlaggedUsers")
+@TodoMetered
 public class FlaggedUserResource extends BasePluginResource {
 
+    /**
+     * The largest page of flagged users that can be requested.
+     */
+    private static final int MAX_PAGE_SIZE = 1000;
+
     /**
      * {@inheritDoc}
      */
@@ -37,17 +46,35 @@ public class FlaggedUserResource extends BasePluginResource {
     }
 
     /**
-     * Gets all flagged users.
+     * Gets the flagged users. If a limit is specified a single page of
+     * flagged users is returned along with the cursor to pass as after
+     * to get the next page, otherwise all flagged users are streamed to
+     * the client as they are read from the database. A stream that fails
+     * part way ends with an error property instead of the count.
      *
-     * @return The ListResult containing flagged users.
+     * @param limit The maximum number of flagged users to return.
+     * @param after The cursor returned with the previous page.
+     * @return The response containing the page of flagged users.
      * @throws GeneralException
      */
     @GET
     @Path("flaggedUsers")
-    public ListResult getFlaggedUsers() throws GeneralException {
-        List<FlaggedUser> flaggedUsers = getFlaggedUserService().getFlaggedUsers();
+    public Response getFlaggedUsers(@QueryParam("limit") int limit, @QueryParam("after") String after)
+        throws GeneralException {
+
+        final FlaggedUserService flaggedUserService = getFlaggedUserService();
+        if (limit <= 0) {
+            return Response.ok(new StreamingPageOutput() {
+                @Override
+                protected int writeObjects(JsonWriter json) throws GeneralException, IOException {
+                    return flaggedUserService.writeFlaggedUsers(json);
+                }
+            }).build();
+        }
+
+        Page<FlaggedUser> page = flaggedUserService.getFlaggedUsers(Math.min(limit, MAX_PAGE_SIZE), after);
 
-        return new ListResult(flaggedUsers, flaggedUsers.size());
+        return Response.ok(page).build();
     }
 
     /**
@@ -0,0 +1,86 @@
+
+package com.acme.todo.rest;
+
+import com.acme.todo.util.JsonWriter;
+import com.acme.todo.util.TodoMetrics;
+import com.acme.todo.util.TodoUtil;
+
+import sailpoint.rest.plugin.BasePluginResource;
+import sailpoint.rest.plugin.SystemAdmin;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The REST resource which exposes the latency histograms and counters
+ * recorded for the plugin services and endpoints.
+ */
+@Path("TodoPlugin")
+@Produces("application/json")
+public class MetricsResource extends BasePluginResource {
+
+    /**
+     * The format parameter value selecting the Prometheus text format.
+     */
+    private static final String FORMAT_PROMETHEUS = "prometheus";
+
+    /**
+     * The content type of the Prometheus text format.
+     */
+    private static final String PROMETHEUS_CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getPluginName() {
+        return TodoUtil.PLUGIN_NAME;
+    }
+
+    /**
+     * Gets the metrics recorded since the plugin was loaded, as JSON
+     * or in the Prometheus text format if the format is prometheus.
+     *
+     * @param format The format.
+     * @return The response containing the metrics.
+     */
+    @GET
+    @Path("metrics")
+    @Produces({ "application/json", "text/plain" })
+    @SystemAdmin
+    public Response getMetrics(@QueryParam("format") String format) {
+        if (FORMAT_PROMETHEUS.equals(format)) {
+            return Response.ok(new StreamingOutput() {
+                @Override
+                public void write(OutputStream outputStream) throws IOException {
+                    Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+                    TodoMetrics.writePrometheus(writer);
+                    writer.flush();
+                }
+            }, PROMETHEUS_CONTENT_TYPE).build();
+        }
+
+        return Response.ok(new StreamingOutput() {
+            @Override
+            public void write(OutputStream outputStream) throws IOException {
+                JsonWriter json = new JsonWriter(outputStream);
+                TodoMetrics.writeJson(json);
+                json.flush();
+            }
+        }, "application/json").build();
+    }
+
+}
+
@@ -0,0 +1,101 @@
+
+package com.acme.todo.rest;
+
+import com.acme.todo.service.TodoRollup;
+import com.acme.todo.service.TodoStatsService;
+import com.acme.todo.util.TodoUtil;
+
+import sailpoint.rest.plugin.BasePluginResource;
+import sailpoint.rest.plugin.SystemAdmin;
+import sailpoint.tools.GeneralException;
+import sailpoint.tools.Util;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+
+import java.util.List;
+
+/**
+ * The REST resource which exposes the todo activity over time, read
+ * from the hourly rollups rather than from the todo table.
+ */
+@Path("TodoPlugin")
+@Produces("application/json")
+@TodoMetered
+public class StatsResource extends BasePluginResource {
+
+    /**
+     * The period parameter value selecting daily activity.
+     */
+    private static final String PERIOD_DAY = "day";
+
+    /**
+     * The number of hours returned when no count is specified.
+     */
+    private static final int DEFAULT_HOURS = 24;
+
+    /**
+     * The number of days returned when no count is specified.
+     */
+    private static final int DEFAULT_DAYS = 30;
+
+    /**
+     * The largest number of hours that can be requested.
+     */
+    private static final int MAX_HOURS = 31 * 24;
+
+    /**
+     * The largest number of days that can be requested.
+     */
+    private static final int MAX_DAYS = 366;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getPluginName() {
+        return TodoUtil.PLUGIN_NAME;
+    }
+
+    /**
+     * Gets the todo activity of the whole system, or of a single user, for
+     * the most recent hours or days, oldest first. Days are UTC days.
+     *
+     * @param period The period, day or hour.
+     * @param count The number of periods.
+     * @param userId The id of the user or null for the whole system.
+     * @return The activity of each period.
+     * @throws GeneralException
+     */
+    @GET
+    @Path("stats")
+    @SystemAdmin
+    public List<TodoRollup> getStats(@QueryParam("period") String period, @QueryParam("count") int count,
+                                     @QueryParam("userId") String userId) throws GeneralException {
+
+        boolean daily = PERIOD_DAY.equals(period);
+
+        if (count <= 0) {
+            count = daily ? DEFAULT_DAYS : DEFAULT_HOURS;
+        }
+
+        count = Math.min(count, daily ? MAX_DAYS : MAX_HOURS);
+
+        long periodMillis = daily ? TodoStatsService.DAY_MILLIS : TodoStatsService.HOUR_MILLIS;
+
+        return getStatsService().getRollups(Util.isNullOrEmpty(userId) ? null : userId, count, periodMillis);
+    }
+
+    /**
+     * Gets an instance of the TodoStatsService.
+     *
+     * @return The service.
+     */
+    private TodoStatsService getStatsService() {
+        return new TodoStatsService(this);
+    }
+
+}
+
@@ -0,0 +1,77 @@
+
+package com.acme.todo.rest;
+
+import com.acme.todo.util.JsonWriter;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import sailpoint.tools.GeneralException;
+
+import javax.ws.rs.core.StreamingOutput;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Streaming output which writes a complete, unpaged listing in the same
+ * shape as a serialized Page. Subclasses write the objects straight from
+ * the database so the response never exists in memory as a whole.
+ *
+ * The status has been sent by the time the objects are read, so a
+ * failure to read them cannot turn into an error status. The listing is
+ * ended with an error property instead of the count, which clients have
+ * to check before using the objects.
+ */
+abstract class StreamingPageOutput implements StreamingOutput {
+
+    /**
+     * The log.
+     */
+    private static final Log LOG = LogFactory.getLog(StreamingPageOutput.class);
+
+    /**
+     * The error written when the objects could not be read.
+     */
+    private static final String READ_ERROR = "The listing could not be read completely";
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void write(OutputStream outputStream) throws IOException {
+        JsonWriter json = new JsonWriter(outputStream);
+        json.beginObject().name("objects").beginArray();
+
+        try {
+            int count = writeObjects(json);
+
+            json.endArray()
+                .name("count").value(count)
+                .name("next").nullValue()
+                .endObject();
+        } catch (GeneralException e) {
+            LOG.error("Unable to stream the listing", e);
+
+            // the objects are written whole so the array can still be closed
+            json.endArray()
+                .name("error").value(READ_ERROR)
+                .name("next").nullValue()
+                .endObject();
+        }
+
+        json.flush();
+    }
+
+    /**
+     * Writes the objects in the listing.
+     *
+     * @param json The writer, positioned inside the objects array.
+     * @return The number of objects written.
+     * @throws GeneralException
+     * @throws IOException
+     */
+    protected abstract int writeObjects(JsonWriter json) throws GeneralException, IOException;
+
+}
+
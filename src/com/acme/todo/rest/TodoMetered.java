@@ -0,0 +1,18 @@
+package com.acme.todo.rest;
+
+import javax.ws.rs.NameBinding;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Binds the metrics filter to the plugin resources it is placed on, so
+ * the other REST endpoints of the application are not timed.
+ */
+@NameBinding
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ ElementType.TYPE, ElementType.METHOD })
+public @interface TodoMetered {
+}
@@ -0,0 +1,146 @@
+
+package com.acme.todo.rest;
+
+import com.acme.todo.util.TodoMetrics;
+
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.container.ResourceInfo;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.ext.Provider;
+import javax.ws.rs.ext.WriterInterceptor;
+import javax.ws.rs.ext.WriterInterceptorContext;
+
+import java.io.IOException;
+
+import java.lang.reflect.Method;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Records the latency of the plugin endpoints marked with TodoMetered
+ * under the resource class and method they were served by. A response with an entity is recorded once
+ * the entity has been written, so streamed responses include the time
+ * spent writing them. Responses without one are recorded when they leave
+ * the resource, including those of requests the resource rejected.
+ */
+@Provider
+@TodoMetered
+public class TodoMetricsFilter implements ContainerRequestFilter, ContainerResponseFilter, WriterInterceptor {
+
+    /**
+     * The request property holding the timer of the request.
+     */
+    private static final String TIMER_PROPERTY = TodoMetricsFilter.class.getName() + ".timer";
+
+    /**
+     * The operations of the resource methods timed so far.
+     */
+    private static final ConcurrentMap<Method, TodoMetrics.Operation> OPERATIONS = new ConcurrentHashMap<>();
+
+    /**
+     * The resource method matched to the request.
+     */
+    @Context
+    private ResourceInfo resourceInfo;
+
+    /**
+     * Starts timing a request matched to a plugin resource.
+     *
+     * @param requestContext The request context.
+     */
+    @Override
+    public void filter(ContainerRequestContext requestContext) {
+        Method method = resourceInfo.getResourceMethod();
+        if (method == null) {
+            return;
+        }
+
+        TodoMetrics.Operation operation = OPERATIONS.get(method);
+        if (operation == null) {
+            operation = TodoMetrics.operation(resourceInfo.getResourceClass().getSimpleName(), method.getName());
+            OPERATIONS.putIfAbsent(method, operation);
+        }
+
+        requestContext.setProperty(TIMER_PROPERTY, new Timer(operation));
+    }
+
+    /**
+     * Records a request whose response has no entity to write.
+     *
+     * @param requestContext The request context.
+     * @param responseContext The response context.
+     */
+    @Override
+    public void filter(ContainerRequestContext requestContext, ContainerResponseContext responseContext) {
+        if (!responseContext.hasEntity()) {
+            record(requestContext.getProperty(TIMER_PROPERTY));
+            requestContext.removeProperty(TIMER_PROPERTY);
+        }
+    }
+
+    /**
+     * Writes the response entity and records the request.
+     *
+     * @param context The writer context.
+     * @throws IOException
+     */
+    @Override
+    public void aroundWriteTo(WriterInterceptorContext context) throws IOException {
+        try {
+            context.proceed();
+        } finally {
+            record(context.getProperty(TIMER_PROPERTY));
+            context.removeProperty(TIMER_PROPERTY);
+        }
+    }
+
+    /**
+     * Records a request if it was timed.
+     *
+     * @param timer The timer of the request or null.
+     */
+    private void record(Object timer) {
+        if (timer instanceof Timer) {
+            ((Timer) timer).record();
+        }
+    }
+
+    /**
+     * The start of a request and the operation it is recorded under.
+     */
+    private static class Timer {
+
+        /**
+         * The operation.
+         */
+        private final TodoMetrics.Operation operation;
+
+        /**
+         * The System.nanoTime() the request started at.
+         */
+        private final long start = System.nanoTime();
+
+        /**
+         * Constructor.
+         *
+         * @param operation The operation.
+         */
+        private Timer(TodoMetrics.Operation operation) {
+            this.operation = operation;
+        }
+
+        /**
+         * Records the request.
+         */
+        private void record() {
+            operation.record(start);
+        }
+
+    }
+
+}
+
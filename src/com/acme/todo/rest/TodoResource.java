@@ -1,13 +1,20 @@
 
 package com.acme.todo.rest;
 
+import com.acme.todo.service.Page;
 import com.acme.todo.service.Todo;
+import com.acme.todo.service.TodoChange;
+import com.acme.todo.service.TodoFilter;
+import com.acme.todo.service.TodoOperation;
+import com.acme.todo.service.TodoOperationResult;
 import com.acme.todo.service.TodoService;
 import com.acme.todo.service.TodoService.CreateTodoData;
+import com.acme.todo.service.TodoSession;
+import com.acme.todo.util.JsonWriter;
 import com.acme.todo.util.TodoUtil;
 
 import sailpoint.authorization.AllowAllAuthorizer;
-import sailpoint.integration.ListResult;
+import sailpoint.authorization.UnauthorizedAccessException;
 import sailpoint.rest.plugin.BasePluginResource;
 import sailpoint.rest.plugin.AllowAll;
 import sailpoint.rest.plugin.Deferred;
@@ -23,9 +30,23 @@ import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.POST;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.CacheControl;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.ResponseBuilder;
+import javax.ws.rs.core.UriInfo;
 
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * The REST resource for CRUD operations on todos.
@@ -35,8 +56,59 @@ import java.util.Map;
 @Path("TodoPlugin")
 @Produces("application/json")
 @Consumes("application/json")
+@TodoMetered
 public class TodoResource extends BasePluginResource {
 
+    /**
+     * The largest page of todos that can be requested.
+     */
+    private static final int MAX_PAGE_SIZE = 1000;
+
+    /**
+     * The maximum number of changes returned in one response.
+     */
+    private static final int MAX_CHANGES = 1000;
+
+    /**
+     * The order parameter value sorting in ascending order.
+     */
+    private static final String ORDER_ASC = "asc";
+
+    /**
+     * The order parameter value sorting in descending order.
+     */
+    private static final String ORDER_DESC = "desc";
+
+    /**
+     * The number of search results returned when no limit is specified.
+     */
+    private static final int DEFAULT_SEARCH_RESULTS = 20;
+
+    /**
+     * The largest number of search results that can be requested.
+     */
+    private static final int MAX_SEARCH_RESULTS = 100;
+
+    /**
+     * The batch operation which creates a todo.
+     */
+    private static final String OP_CREATE = "create";
+
+    /**
+     * The batch operation which completes a todo.
+     */
+    private static final String OP_COMPLETE = "complete";
+
+    /**
+     * The batch operation which deletes a todo.
+     */
+    private static final String OP_DELETE = "delete";
+
+    /**
+     * The largest number of operations accepted in one batch.
+     */
+    private static final int MAX_BATCH_SIZE = TodoService.MAX_IN_LIST_SIZE;
+
     /**
      * {@inheritDoc}
      */
@@ -46,19 +118,164 @@ public class TodoResource extends BasePluginResource {
     }
 
     /**
-     * Gets all todos for the currently logged in user.
+     * Gets the todos for the currently logged in user. If a limit is
+     * specified a single page of todos is returned along with the cursor
+     * to pass as after to get the next page, otherwise all todos are
+     * streamed to the client as they are read from the database. A stream
+     * that fails part way ends with an error property instead of the count.
+     *
+     * The todos can be filtered with the complete, createdFrom,
+     * createdBefore, completedFrom, completedBefore, minEstimate,
+     * maxEstimate and name parameters and ordered with the sort parameter,
+     * one of created, completedOn or name, and the order parameter, asc or
+     * desc. Ranges include their from value and exclude their before value
+     * and name matches todos whose name starts with the value. Filtered
+     * todos are always returned a page at a time.
+     *
+     * The response is tagged with the version of the todo list of the user.
+     * When the client sends the tag back in If-None-Match and the list has
+     * not changed since, not modified is returned without reading any todos.
      *
-     * @return The ListResult containing the todos.
+     * @param request The request.
+     * @param uriInfo The request URI, holding the filter parameters.
+     * @param limit The maximum number of todos to return.
+     * @param after The cursor returned with the previous page.
+     * @return The response containing the page of todos.
      * @throws GeneralException
      */
     @GET
     @Path("todos")
     @AllowAll
-    public ListResult getTodos() throws GeneralException {
+    public Response getTodos(@Context Request request, @Context UriInfo uriInfo, @QueryParam("limit") int limit,
+                             @QueryParam("after") String after) throws GeneralException {
+
+        final TodoService todoService = getTodoService();
+        final String userId = getLoggedInUserId();
+
+        TodoFilter filter = getTodoFilter(uriInfo.getQueryParameters());
+
+        // the version is read before the todos so a change made in between
+        // leaves the client with a stale tag rather than stale todos
+        EntityTag tag = getTodoListTag(todoService, userId);
+        CacheControl cacheControl = getTodoListCacheControl();
+
+        ResponseBuilder notModified = request.evaluatePreconditions(tag);
+        if (notModified != null) {
+            return notModified.tag(tag).cacheControl(cacheControl).build();
+        }
+
+        if (!filter.isEmpty()) {
+            if (limit <= 0 || limit > MAX_PAGE_SIZE) {
+                limit = MAX_PAGE_SIZE;
+            }
+
+            Page<Todo> page = todoService.getTodosForUser(userId, filter, limit, after);
+
+            return Response.ok(page).tag(tag).cacheControl(cacheControl).build();
+        }
+
+        if (limit <= 0) {
+            return Response.ok(new StreamingPageOutput() {
+                @Override
+                protected int writeObjects(JsonWriter json) throws GeneralException, IOException {
+                    return todoService.writeTodosForUser(userId, json);
+                }
+            }).tag(tag).cacheControl(cacheControl).build();
+        }
+
+        Page<Todo> page = todoService.getTodosForUser(userId, Math.min(limit, MAX_PAGE_SIZE), after);
+
+        return Response.ok(page).tag(tag).cacheControl(cacheControl).build();
+    }
+
+    /**
+     * Gets the changes made to the todos of the currently logged in user
+     * after a position in the change log, oldest first. The next value of
+     * the response is the position to pass as since in the following call.
+     * Without since no changes are returned, only the current position,
+     * which should be read before reading the full todo list.
+     *
+     * If changes after the position have already been removed from the log
+     * the response is gone and the client has to read the full list again.
+     *
+     * @param since The position of the last change seen by the client.
+     * @param limit The maximum number of changes to return.
+     * @return The response containing the page of changes.
+     * @throws GeneralException
+     */
+    @GET
+    @Path("todos/changes")
+    @AllowAll
+    public Response getChanges(@QueryParam("since") Long since, @QueryParam("limit") int limit)
+        throws GeneralException {
+
         TodoService todoService = getTodoService();
-        List<Todo> todos = todoService.getTodosForUser(getLoggedInUserId());
+        String userId = getLoggedInUserId();
+
+        if (since == null) {
+            long position = todoService.getChangePosition(userId);
+
+            return Response.ok(new Page<>(new ArrayList<TodoChange>(), String.valueOf(position))).build();
+        }
+
+        if (limit <= 0 || limit > MAX_CHANGES) {
+            limit = MAX_CHANGES;
+        }
+
+        Page<TodoChange> changes = todoService.getChanges(userId, since, limit);
+        if (changes == null) {
+            return Response.status(Response.Status.GONE).build();
+        }
+
+        return Response.ok(changes).build();
+    }
+
+    /**
+     * Gets a page of the archived todos of the currently logged in user,
+     * most recently completed first. The archive is read only, todos end
+     * up in it when the cleanup task archives old completed todos.
+     *
+     * @param limit The maximum number of todos to return.
+     * @param after The cursor returned with the previous page.
+     * @return The response containing the page of todos.
+     * @throws GeneralException
+     */
+    @GET
+    @Path("todos/archive")
+    @AllowAll
+    public Response getArchivedTodos(@QueryParam("limit") int limit, @QueryParam("after") String after)
+        throws GeneralException {
+
+        if (limit <= 0 || limit > MAX_PAGE_SIZE) {
+            limit = MAX_PAGE_SIZE;
+        }
+
+        Page<Todo> page = getTodoService().getArchivedTodos(getLoggedInUserId(), limit, after);
+
+        return Response.ok(page).build();
+    }
+
+    /**
+     * Searches the todos of the currently logged in user by the words in
+     * their name and notes. The last word of the query also matches the
+     * words it is the start of.
+     *
+     * @param query The query.
+     * @param limit The maximum number of todos to return.
+     * @return The matching todos, best match first.
+     * @throws GeneralException
+     */
+    @GET
+    @Path("todos/search")
+    @AllowAll
+    public List<Todo> searchTodos(@QueryParam("q") String query, @QueryParam("limit") int limit)
+        throws GeneralException {
+
+        if (limit <= 0) {
+            limit = DEFAULT_SEARCH_RESULTS;
+        }
 
-        return new ListResult(todos, todos.size());
+        return getTodoService().searchTodos(getLoggedInUserId(), query, Math.min(limit, MAX_SEARCH_RESULTS));
     }
 
     /**
@@ -93,6 +310,89 @@ public class TodoResource extends BasePluginResource {
         return getTodoService().createTodo(getCreateTodoData(data));
     }
 
+    /**
+     * Executes a batch of create, complete and delete operations for the
+     * logged in user in a single transaction. Each operation is a map with
+     * an op of create, complete or delete. Complete and delete operations
+     * take the todo id, create operations take the same data as adding a
+     * single todo. Operations on todos that do not exist or that the user
+     * does not have access to fail without failing the rest of the batch.
+     *
+     * @param data The operations.
+     * @return The result of each operation in the same order as the operations.
+     * @throws GeneralException
+     */
+    @POST
+    @Path("todos/batch")
+    @AllowAll
+    public List<TodoOperationResult> batchTodos(List<Map<String, String>> data) throws GeneralException {
+        if (data == null || data.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        if (data.size() > MAX_BATCH_SIZE) {
+            throw new GeneralException("A batch cannot contain more than " + MAX_BATCH_SIZE + " operations");
+        }
+
+        Set<String> todoIds = new HashSet<>();
+        for (Map<String, String> item : data) {
+            if (!OP_CREATE.equals(item.get("op")) && item.get("id") != null) {
+                todoIds.add(item.get("id"));
+            }
+        }
+
+        TodoSession session = TodoSession.open(this);
+
+        try {
+            TodoService todoService = new TodoService(session);
+            Map<String, Todo> todos = todoService.getTodos(todoIds);
+
+            TodoOperationResult[] results = new TodoOperationResult[data.size()];
+            List<TodoOperation> operations = new ArrayList<>();
+            List<Integer> indexes = new ArrayList<>();
+
+            for (int i = 0; i < data.size(); i++) {
+                Map<String, String> item = data.get(i);
+                String op = item.get("op");
+                String id = item.get("id");
+
+                if (OP_CREATE.equals(op)) {
+                    operations.add(TodoOperation.create(getCreateTodoData(item)));
+                    indexes.add(i);
+                } else if (OP_COMPLETE.equals(op) || OP_DELETE.equals(op)) {
+                    Todo todo = todos.get(id);
+                    if (todo == null || !isAuthorized(todo)) {
+                        results[i] = TodoOperationResult.failure(op, id, "Todo not found");
+                        continue;
+                    }
+
+                    operations.add(OP_COMPLETE.equals(op) ? TodoOperation.complete(todo) : TodoOperation.delete(todo));
+                    indexes.add(i);
+                } else {
+                    results[i] = TodoOperationResult.failure(op, id, "Unknown operation");
+                }
+            }
+
+            if (!operations.isEmpty()) {
+                List<TodoOperationResult> operationResults = todoService.executeOperations(operations);
+                for (int i = 0; i < indexes.size(); i++) {
+                    results[indexes.get(i)] = operationResults.get(i);
+                }
+            }
+
+            session.commit();
+
+            List<TodoOperationResult> resultList = new ArrayList<>(results.length);
+            for (TodoOperationResult result : results) {
+                resultList.add(result);
+            }
+
+            return resultList;
+        } finally {
+            session.close();
+        }
+    }
+
     /**
      * Completes the specified todo.
      *
@@ -104,11 +404,23 @@ public class TodoResource extends BasePluginResource {
     @Deferred
     public void completeTodo(@PathParam("id") String id) throws GeneralException {
         TodoService todoService = getTodoService();
-        Todo todo = todoService.getTodo(id);
+        if (todoService.isGroupCommitEnabled()) {
+            // the write is committed along with those of other requests
+            // so it is made outside of a session
+            todoService.completeTodo(getAuthorizedTodo(todoService, id));
+            return;
+        }
 
-        authorize(new TodoAuthorizer(todo));
+        TodoSession session = TodoSession.open(this);
+
+        try {
+            todoService = new TodoService(session);
+            todoService.completeTodo(getAuthorizedTodo(todoService, id));
 
-        todoService.completeTodo(todo);
+            session.commit();
+        } finally {
+            session.close();
+        }
     }
 
     /**
@@ -122,11 +434,23 @@ public class TodoResource extends BasePluginResource {
     @Deferred
     public void deleteTodo(@PathParam("id") String id) throws GeneralException {
         TodoService todoService = getTodoService();
-        Todo todo = todoService.getTodo(id);
+        if (todoService.isGroupCommitEnabled()) {
+            // the write is committed along with those of other requests
+            // so it is made outside of a session
+            todoService.deleteTodo(getAuthorizedTodo(todoService, id));
+            return;
+        }
 
-        authorize(new TodoAuthorizer(todo));
+        TodoSession session = TodoSession.open(this);
 
-        todoService.deleteTodo(todo);
+        try {
+            todoService = new TodoService(session);
+            todoService.deleteTodo(getAuthorizedTodo(todoService, id));
+
+            session.commit();
+        } finally {
+            session.close();
+        }
     }
 
     /**
@@ -151,7 +475,69 @@ public class TodoResource extends BasePluginResource {
     @Path("todos")
     @SystemAdmin
     public void deleteAllTodos() throws GeneralException {
-        getTodoService().deleteAllTodos(); 
+        getTodoService().deleteAllTodos();
+    }
+
+    /**
+     * Builds the todo filter from the query parameters.
+     *
+     * @param params The query parameters.
+     * @return The filter.
+     * @throws GeneralException If a parameter has an invalid value.
+     */
+    private TodoFilter getTodoFilter(MultivaluedMap<String, String> params) throws GeneralException {
+        TodoFilter filter = new TodoFilter();
+
+        String complete = params.getFirst("complete");
+        if (!Util.isNullOrEmpty(complete)) {
+            if (!"true".equals(complete) && !"false".equals(complete)) {
+                throw new GeneralException("Invalid value for complete: " + complete);
+            }
+
+            filter.setComplete(Boolean.valueOf(complete));
+        }
+
+        filter.setCreatedRange(getLongParam(params, "createdFrom"), getLongParam(params, "createdBefore"));
+        filter.setCompletedRange(getLongParam(params, "completedFrom"), getLongParam(params, "completedBefore"));
+        filter.setEstimateRange(getLongParam(params, "minEstimate"), getLongParam(params, "maxEstimate"));
+
+        String name = params.getFirst("name");
+        if (!Util.isNullOrEmpty(name)) {
+            filter.setNamePrefix(name);
+        }
+
+        String sort = params.getFirst("sort");
+        String order = params.getFirst("order");
+        if (!Util.isNullOrEmpty(sort)) {
+            if (!Util.isNullOrEmpty(order) && !ORDER_ASC.equals(order) && !ORDER_DESC.equals(order)) {
+                throw new GeneralException("Invalid value for order: " + order);
+            }
+
+            filter.setSort(sort, ORDER_DESC.equals(order));
+        }
+
+        return filter;
+    }
+
+    /**
+     * Gets a numeric query parameter.
+     *
+     * @param params The query parameters.
+     * @param name The parameter name.
+     * @return The value or null if the parameter was not specified.
+     * @throws GeneralException If the value is not a number.
+     */
+    private Long getLongParam(MultivaluedMap<String, String> params, String name) throws GeneralException {
+        String value = params.getFirst(name);
+        if (Util.isNullOrEmpty(value)) {
+            return null;
+        }
+
+        try {
+            return Long.valueOf(value);
+        } catch (NumberFormatException e) {
+            throw new GeneralException("Invalid value for " + name + ": " + value);
+        }
     }
 
     /**
@@ -178,6 +564,39 @@ public class TodoResource extends BasePluginResource {
         return todoData;
     }
 
+    /**
+     * Gets a todo and authorizes the logged in user against it.
+     *
+     * @param todoService The todo service.
+     * @param id The todo id.
+     * @return The todo.
+     * @throws GeneralException
+     */
+    private Todo getAuthorizedTodo(TodoService todoService, String id) throws GeneralException {
+        Todo todo = todoService.getTodo(id);
+
+        authorize(new TodoAuthorizer(todo));
+
+        return todo;
+    }
+
+    /**
+     * Determines if the logged in user has access to the todo.
+     *
+     * @param todo The todo.
+     * @return True if authorized, false otherwise.
+     * @throws GeneralException
+     */
+    private boolean isAuthorized(Todo todo) throws GeneralException {
+        try {
+            authorize(new TodoAuthorizer(todo));
+
+            return true;
+        } catch (UnauthorizedAccessException e) {
+            return false;
+        }
+    }
+
     /**
      * Gets the id of the currently logged in user.
      *
@@ -188,6 +607,33 @@ public class TodoResource extends BasePluginResource {
         return getLoggedInUser().getId();
     }
 
+    /**
+     * Gets the entity tag for the current version of the todo list of a user.
+     * The user id is part of the tag since every user lists todos at the same url.
+     *
+     * @param todoService The todo service.
+     * @param userId The user id.
+     * @return The entity tag.
+     * @throws GeneralException
+     */
+    private EntityTag getTodoListTag(TodoService todoService, String userId) throws GeneralException {
+        return new EntityTag(userId + "-" + todoService.getTodoListVersion(userId));
+    }
+
+    /**
+     * Gets the cache control for todo listings, which may only be cached by
+     * the browser of the user and must be revalidated before every use.
+     *
+     * @return The cache control.
+     */
+    private CacheControl getTodoListCacheControl() {
+        CacheControl cacheControl = new CacheControl();
+        cacheControl.setPrivate(true);
+        cacheControl.setNoCache(true);
+
+        return cacheControl;
+    }
+
     /**
      * Gets an instance of the TodoService.
      *
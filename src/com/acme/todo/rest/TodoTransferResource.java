@@ -0,0 +1,133 @@
+
+package com.acme.todo.rest;
+
+import com.acme.todo.service.TodoFormat;
+import com.acme.todo.service.TodoImportReport;
+import com.acme.todo.service.TodoService;
+import com.acme.todo.util.TodoUtil;
+
+import sailpoint.rest.plugin.BasePluginResource;
+import sailpoint.rest.plugin.SystemAdmin;
+import sailpoint.tools.GeneralException;
+import sailpoint.tools.Util;
+
+import javax.ws.rs.Consumes;
+import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * The REST resource used to move todos in and out of the system in bulk,
+ * as newline delimited JSON or CSV. Both directions stream, neither the
+ * export nor the upload is ever held in memory as a whole.
+ */
+@Path("TodoPlugin")
+@Produces("application/json")
+@TodoMetered
+public class TodoTransferResource extends BasePluginResource {
+
+    /**
+     * The media type which selects the CSV format of an upload.
+     */
+    private static final String CSV_MEDIA_TYPE = "text/csv";
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getPluginName() {
+        return TodoUtil.PLUGIN_NAME;
+    }
+
+    /**
+     * Exports all todos, or the todos of a single user, as a download.
+     *
+     * @param format The format, ndjson or csv, ndjson if not specified.
+     * @param userId The id of the user or null for all users.
+     * @return The response streaming the todos.
+     * @throws GeneralException If the format is not supported.
+     */
+    @GET
+    @Path("todos/export")
+    @Produces({ "application/x-ndjson", "text/csv" })
+    @SystemAdmin
+    public Response exportTodos(@QueryParam("format") String format, @QueryParam("userId") final String userId)
+        throws GeneralException {
+
+        final TodoFormat todoFormat = Util.isNullOrEmpty(format) ? TodoFormat.NDJSON : TodoFormat.forName(format);
+        final TodoService todoService = getTodoService();
+
+        return Response.ok(new StreamingOutput() {
+            @Override
+            public void write(OutputStream outputStream) throws IOException {
+                try {
+                    todoService.exportTodos(Util.isNullOrEmpty(userId) ? null : userId, todoFormat, outputStream);
+                } catch (GeneralException e) {
+                    throw new IOException(e);
+                }
+            }
+        }, todoFormat.getMediaType())
+            .header("Content-Disposition", "attachment; filename=\"todos." + todoFormat.getName() + "\"")
+            .build();
+    }
+
+    /**
+     * Imports todos from the request body, which is read as it arrives and
+     * inserted in batches, each committed on its own. Todos whose id is
+     * already taken are skipped so a failed import can be run again.
+     *
+     * @param inputStream The request body.
+     * @param contentType The content type of the request body.
+     * @param format The format, ndjson or csv, taken from the content type if not specified.
+     * @param batchSize The number of todos inserted per transaction.
+     * @return The report of the import.
+     * @throws GeneralException
+     */
+    @POST
+    @Path("todos/import")
+    @Consumes({ "application/x-ndjson", "text/csv", "text/plain", "application/octet-stream" })
+    @SystemAdmin
+    public TodoImportReport importTodos(InputStream inputStream, @HeaderParam("Content-Type") String contentType,
+                                       @QueryParam("format") String format, @QueryParam("batchSize") int batchSize)
+        throws GeneralException {
+
+        TodoFormat todoFormat;
+        if (!Util.isNullOrEmpty(format)) {
+            todoFormat = TodoFormat.forName(format);
+        } else if (contentType != null && contentType.startsWith(CSV_MEDIA_TYPE)) {
+            todoFormat = TodoFormat.CSV;
+        } else {
+            todoFormat = TodoFormat.NDJSON;
+        }
+
+        if (batchSize <= 0) {
+            batchSize = TodoService.DEFAULT_IMPORT_BATCH_SIZE;
+        }
+
+        try {
+            return getTodoService().importTodos(todoFormat, inputStream, batchSize);
+        } catch (IOException e) {
+            throw new GeneralException(e);
+        }
+    }
+
+    /**
+     * Gets an instance of the TodoService.
+     *
+     * @return The service.
+     */
+    private TodoService getTodoService() {
+        return new TodoService(this);
+    }
+
+}
+
@@ -0,0 +1,105 @@
+package com.acme.todo.server;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded least recently used cache of identity display names keyed
+ * by identity id. Instances are meant to be held statically so the
+ * names survive from one service run to the next. Names older than the
+ * time to live are treated as not cached so renames are picked up.
+ */
+class IdentityNameCache {
+
+    /**
+     * The cached names in access order.
+     */
+    private final Map<String, CachedName> names;
+
+    /**
+     * The milliseconds a name is used for after it was cached.
+     */
+    private final long ttlMillis;
+
+    /**
+     * Constructor.
+     *
+     * @param maxSize The maximum number of names held.
+     * @param ttlMillis The milliseconds a name is used for after it was cached.
+     */
+    IdentityNameCache(final int maxSize, long ttlMillis) {
+        this.ttlMillis = ttlMillis;
+
+        names = new LinkedHashMap<String, CachedName>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedName> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * Gets the cached names of the specified identities.
+     *
+     * @param ids The identity ids.
+     * @return The names keyed by id, identities that are not cached or whose
+     *         name has outlived the time to live are left out.
+     */
+    synchronized Map<String, String> getAll(Collection<String> ids) {
+        long now = System.currentTimeMillis();
+
+        Map<String, String> found = new HashMap<>();
+        for (String id : ids) {
+            CachedName name = names.get(id);
+            if (name != null && now - name.cachedAt < ttlMillis) {
+                found.put(id, name.name);
+            }
+        }
+
+        return found;
+    }
+
+    /**
+     * Caches the specified names.
+     *
+     * @param resolved The names keyed by identity id.
+     */
+    synchronized void putAll(Map<String, String> resolved) {
+        long now = System.currentTimeMillis();
+
+        for (Map.Entry<String, String> name : resolved.entrySet()) {
+            names.put(name.getKey(), new CachedName(name.getValue(), now));
+        }
+    }
+
+    /**
+     * A cached name and the time it was cached.
+     */
+    private static class CachedName {
+
+        /**
+         * The display name.
+         */
+        private final String name;
+
+        /**
+         * The time the name was cached.
+         */
+        private final long cachedAt;
+
+        /**
+         * Constructor.
+         *
+         * @param name The display name.
+         * @param cachedAt The time the name was cached.
+         */
+        private CachedName(String name, long cachedAt) {
+            this.name = name;
+            this.cachedAt = cachedAt;
+        }
+
+    }
+
+}
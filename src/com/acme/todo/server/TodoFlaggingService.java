@@ -1,27 +1,52 @@
 
 package com.acme.todo.server;
 
-import com.acme.todo.service.FlaggedUser;
 import com.acme.todo.service.FlaggedUserService;
+import com.acme.todo.service.FlaggingLeaseService;
 import com.acme.todo.service.FlaggedUserService.CreateFlagData;
 import com.acme.todo.service.TodoService;
+import com.acme.todo.service.TodoStatsService;
+import com.acme.todo.util.TodoUtil;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 import sailpoint.api.SailPointContext;
+import sailpoint.object.Filter;
 import sailpoint.object.Identity;
+import sailpoint.object.QueryOptions;
 import sailpoint.server.BasePluginService;
 import sailpoint.tools.GeneralException;
 import sailpoint.tools.Util;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * Service executor implementation that periodically checks to see if
  * any users have exceeded the configurable threshold for open todos
  * and if so flags them.
  *
+ * Each run only looks at the users whose open todo count changed since
+ * the previous run. All users are reconciled on the first run, when the
+ * threshold changes and otherwise on a slower configurable interval, which
+ * also picks up identity renames and anything the changed users missed.
+ * Display names are cached for a day, so a rename shows up on the first
+ * full reconciliation after the cached name has expired.
+ *
+ * The work can optionally be split between several hosts by configuring
+ * a number of buckets and running the service on each of those hosts.
+ * Each host then leases a share of the buckets and only looks at the
+ * users in its buckets. The set based statements that cover all users
+ * are run by the host that holds the first bucket, which also folds the
+ * hourly todo activity of the users into that of the whole system.
+ *
  * @author Dustin Dobervich <dustin.dobervich@sailpoint.com>
  */
 public class TodoFlaggingService extends BasePluginService {
@@ -36,11 +61,123 @@ public class TodoFlaggingService extends BasePluginService {
      */
     private static final String SETTING_MAX_UNTIL_FLAGGED = "maxUntilFlagged";
 
+    /**
+     * The configurable plugin setting for the seconds between full reconciliations.
+     */
+    private static final String SETTING_FULL_RECONCILE_INTERVAL = "fullReconcileInterval";
+
+    /**
+     * The number of seconds between full reconciliations when not configured.
+     */
+    private static final int DEFAULT_FULL_RECONCILE_INTERVAL = 3600;
+
+    /**
+     * The milliseconds between folds of the todo activity rollups.
+     */
+    private static final long ROLLUP_FOLD_INTERVAL = 5 * 60 * 1000L;
+
+    /**
+     * The maximum number of changed users looked at together.
+     */
+    private static final int DIRTY_CHUNK_SIZE = TodoService.MAX_IN_LIST_SIZE;
+
+    /**
+     * The configurable plugin setting for the number of buckets the users are split
+     * into between hosts, zero to have a single host do all the work.
+     */
+    private static final String SETTING_BUCKETS = "flaggingBuckets";
+
+    /**
+     * The configurable plugin setting for the seconds a bucket lease lasts without being renewed.
+     */
+    private static final String SETTING_LEASE_SECONDS = "flaggingLeaseSeconds";
+
+    /**
+     * The number of seconds a bucket lease lasts when not configured, three
+     * times the interval the service is defined with.
+     */
+    private static final int DEFAULT_LEASE_SECONDS = 180;
+
+    /**
+     * The maximum number of flagged users pruned in a single transaction.
+     */
+    private static final int PRUNE_CHUNK_SIZE = 500;
+
+    /**
+     * The maximum number of identity ids in a single projection search.
+     */
+    private static final int IDENTITY_SEARCH_SIZE = 500;
+
+    /**
+     * The identity properties read by the projection search.
+     */
+    private static final String IDENTITY_PROPERTIES = "id, displayName, name";
+
+    /**
+     * The maximum number of identity names cached between runs.
+     */
+    private static final int NAME_CACHE_SIZE = 10000;
+
+    /**
+     * The milliseconds an identity name is cached for.
+     */
+    private static final long NAME_CACHE_TTL = 24 * 60 * 60 * 1000L;
+
+    /**
+     * Display names of the identities seen by earlier runs.
+     */
+    private static final IdentityNameCache NAME_CACHE = new IdentityNameCache(NAME_CACHE_SIZE, NAME_CACHE_TTL);
+
     /**
      * The configured maximum open todo value.
      */
     private int maxUntilFlagged;
 
+    /**
+     * The configured milliseconds between full reconciliations.
+     */
+    private long fullReconcileInterval;
+
+    /**
+     * The time of the last full reconciliation or zero if none has run yet.
+     */
+    private long lastFullReconcile;
+
+    /**
+     * The time of the last fold of the todo activity rollups or zero if none has run yet.
+     */
+    private long lastRollupFold;
+
+    /**
+     * The maximum open todo value the last full reconciliation ran with.
+     */
+    private int reconciledMaxUntilFlagged;
+
+    /**
+     * The configured number of buckets or zero if the work is not split.
+     */
+    private int numBuckets;
+
+    /**
+     * The configured milliseconds a bucket lease lasts.
+     */
+    private long leaseMillis;
+
+    /**
+     * The id this service instance takes part in the split work with.
+     */
+    private String memberId;
+
+    /**
+     * The buckets leased by this instance or null if it looks at all users.
+     */
+    private Set<Integer> ownedBuckets;
+
+    /**
+     * The flagging lease service.
+     */
+    private FlaggingLeaseService leaseService;
+
     /**
      * The flagged user service.
      */
@@ -51,12 +188,20 @@ public class TodoFlaggingService extends BasePluginService {
      */
     private TodoService todoService;
 
+    /**
+     * The todo stats service.
+     */
+    private TodoStatsService statsService;
+
     /**
      * Constructor.
      */
     public TodoFlaggingService() {
         todoService = new TodoService(this);
         flaggedUserService = new FlaggedUserService(this);
+        leaseService = new FlaggingLeaseService(this);
+        statsService = new TodoStatsService(this);
+        memberId = Util.getHostName() + "-" + Util.uuid();
     }
 
     /**
@@ -73,6 +218,14 @@ public class TodoFlaggingService extends BasePluginService {
     @Override
     public void configure(SailPointContext context) throws GeneralException {
         maxUntilFlagged = getSettingInt(SETTING_MAX_UNTIL_FLAGGED);
+
+        int interval = getSettingInt(SETTING_FULL_RECONCILE_INTERVAL);
+        fullReconcileInterval = (interval > 0 ? interval : DEFAULT_FULL_RECONCILE_INTERVAL) * 1000L;
+
+        numBuckets = Math.max(0, getSettingInt(SETTING_BUCKETS));
+
+        int leaseSeconds = getSettingInt(SETTING_LEASE_SECONDS);
+        leaseMillis = (leaseSeconds > 0 ? leaseSeconds : DEFAULT_LEASE_SECONDS) * 1000L;
     }
 
     /**
@@ -80,27 +233,143 @@ public class TodoFlaggingService extends BasePluginService {
      */
     @Override
     public void execute(SailPointContext context) throws GeneralException {
-        pruneFlagged();
-        flagUsers(context);
+        long now = System.currentTimeMillis();
+
+        if (numBuckets > 0) {
+            ownedBuckets = leaseService.acquireBuckets(memberId, numBuckets, leaseMillis);
+            if (ownedBuckets.isEmpty()) {
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("No flagging buckets leased by " + memberId + ", skipping run");
+                }
+
+                return;
+            }
+        } else {
+            ownedBuckets = null;
+        }
+
+        if (isCoordinator() && now - lastRollupFold >= ROLLUP_FOLD_INTERVAL) {
+            foldRollups();
+
+            lastRollupFold = now;
+        }
+
+        // users changed during the full reconciliation are looked at again right after it
+        if (isFullReconcileDue(now)) {
+            if (isCoordinator()) {
+                pruneFlagged();
+            }
+
+            flagUsers(context);
+
+            lastFullReconcile = now;
+            reconciledMaxUntilFlagged = maxUntilFlagged;
+        }
+
+        flagDirtyUsers(context);
     }
 
     /**
-     * Prunes any flagged users who should no longer be flagged.
+     * Flags and prunes only the users whose open todo count changed since
+     * they were last looked at, walking the changed users in chunks.
      *
+     * @param context The context.
+     * @return The number of changed users looked at.
      * @throws GeneralException
      */
-    public void pruneFlagged() throws GeneralException {
-        List<FlaggedUser> flaggedUsers = flaggedUserService.getFlaggedUsers();
-        for (FlaggedUser flaggedUser : Util.iterate(flaggedUsers)) {
-            int activeTodos = todoService.getActiveTodosForUser(flaggedUser.getUserId());
-            if (activeTodos <= maxUntilFlagged) {
-                flaggedUserService.pruneFlaggedUser(flaggedUser);
+    public int flagDirtyUsers(SailPointContext context) throws GeneralException {
+        long start = System.currentTimeMillis();
+
+        int numUsers = 0;
+        int numPruned = 0;
+        int numFlagged = 0;
+
+        String after = null;
+        while (true) {
+            Map<String, Long> page = flaggedUserService.getDirtyUsers(after, DIRTY_CHUNK_SIZE);
+            if (page.isEmpty()) {
+                break;
+            }
+
+            for (String userId : page.keySet()) {
+                after = userId;
+            }
+
+            // users in buckets leased by other hosts are left for them to clear
+            Map<String, Long> dirtyUsers = filterOwned(page);
+            if (!dirtyUsers.isEmpty()) {
+                Set<String> userIds = dirtyUsers.keySet();
+
+                numPruned += flaggedUserService.pruneFlaggedUsers(userIds, maxUntilFlagged);
+
+                if (maxUntilFlagged > 0) {
+                    flaggedUserService.refreshFlaggedUserCounts(userIds);
+                    numFlagged += flagCandidates(context, flaggedUserService.getFlagCandidates(userIds, maxUntilFlagged));
+                }
+
+                flaggedUserService.clearDirtyUsers(dirtyUsers);
+
+                numUsers += dirtyUsers.size();
+            }
+
+            if (page.size() < DIRTY_CHUNK_SIZE) {
+                break;
             }
         }
+
+        if (numUsers > 0 && LOG.isDebugEnabled()) {
+            long elapsed = System.currentTimeMillis() - start;
+            LOG.debug("Checked " + numUsers + " changed users in " + elapsed + " ms, flagged " +
+                      numFlagged + " and pruned " + numPruned);
+        }
+
+        return numUsers;
+    }
+
+    /**
+     * Prunes any flagged users who should no longer be flagged.
+     *
+     * @return The number of flagged users pruned.
+     * @throws GeneralException
+     */
+    public int pruneFlagged() throws GeneralException {
+        long start = System.currentTimeMillis();
+
+        int numPruned = flaggedUserService.pruneFlaggedUsers(maxUntilFlagged, PRUNE_CHUNK_SIZE);
+
+        long elapsed = System.currentTimeMillis() - start;
+        if (numPruned > 0) {
+            LOG.info("Pruned " + numPruned + " flagged users in " + elapsed + " ms");
+        } else if (LOG.isDebugEnabled()) {
+            LOG.debug("No flagged users to prune, check took " + elapsed + " ms");
+        }
+
+        return numPruned;
     }
 
     /**
-     * Flags any users that have exceeded the maximum open todo count.
+     * Folds the hourly todo activity of the users into that of the whole
+     * system, so the stats of the system are read from the folded hours.
+     *
+     * @return The number of hours folded.
+     * @throws GeneralException
+     */
+    public int foldRollups() throws GeneralException {
+        long start = System.currentTimeMillis();
+
+        int numFolded = statsService.foldRollups();
+
+        if (LOG.isDebugEnabled()) {
+            long elapsed = System.currentTimeMillis() - start;
+            LOG.debug("Folded " + numFolded + " hours of todo activity in " + elapsed + " ms");
+        }
+
+        return numFolded;
+    }
+
+    /**
+     * Flags any users that have exceeded the maximum open todo count. Users
+     * that are already flagged have their open todo count and username refreshed.
      *
      * @param context The context.
      * @throws GeneralException
@@ -110,28 +379,187 @@ public class TodoFlaggingService extends BasePluginService {
             return;
         }
 
-        List<String> userIds = todoService.getUsersWithOpenTodos();
-        for (String userId : Util.iterate(userIds)) {
-            int numTodos = todoService.getActiveTodosForUser(userId);
-            if (numTodos > maxUntilFlagged) {
-                String identityName = userId;
+        if (isCoordinator()) {
+            flaggedUserService.refreshFlaggedUserCounts();
+        }
 
-                Identity identity = context.getObjectById(Identity.class, userId);
-                if (identity != null) {
-                    identityName = identity.getDisplayableName();
-                }
+        refreshUsernames(context);
+
+        int numFlagged = flagCandidates(context, filterOwned(flaggedUserService.getFlagCandidates(maxUntilFlagged)));
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Flagged " + numFlagged + " users with more than " + maxUntilFlagged + " open todos");
+        }
+    }
+
+    /**
+     * Determines if all users should be reconciled on this run.
+     *
+     * @param now The current time.
+     * @return True if a full reconciliation is due.
+     */
+    private boolean isFullReconcileDue(long now) {
+        return lastFullReconcile == 0 || maxUntilFlagged != reconciledMaxUntilFlagged ||
+               now - lastFullReconcile >= fullReconcileInterval;
+    }
+
+    /**
+     * Determines if this instance runs the statements that cover all users,
+     * which is the case when the work is not split or it holds the first bucket.
+     *
+     * @return True if this instance coordinates the work.
+     */
+    private boolean isCoordinator() {
+        return ownedBuckets == null || ownedBuckets.contains(0);
+    }
+
+    /**
+     * Removes the users in buckets not leased by this instance.
+     *
+     * @param byUserId The values keyed by user id.
+     * @return The values of the users this instance looks at.
+     */
+    private <V> Map<String, V> filterOwned(Map<String, V> byUserId) {
+        if (ownedBuckets == null) {
+            return byUserId;
+        }
+
+        Map<String, V> owned = new LinkedHashMap<>();
+        for (Map.Entry<String, V> entry : byUserId.entrySet()) {
+            if (ownedBuckets.contains(TodoUtil.getBucket(entry.getKey(), numBuckets))) {
+                owned.put(entry.getKey(), entry.getValue());
+            }
+        }
+
+        return owned;
+    }
+
+    /**
+     * Flags the specified users.
+     *
+     * @param context The context.
+     * @param candidates The open todo count keyed by user id.
+     * @return The number of users flagged.
+     * @throws GeneralException
+     */
+    private int flagCandidates(SailPointContext context, Map<String, Integer> candidates) throws GeneralException {
+        if (candidates.isEmpty()) {
+            return 0;
+        }
+
+        Map<String, String> names = getDisplayNames(context, candidates.keySet());
+
+        List<CreateFlagData> flags = new ArrayList<>(candidates.size());
+        for (Map.Entry<String, Integer> candidate : candidates.entrySet()) {
+            String userId = candidate.getKey();
+            String identityName = names.get(userId);
+
+            CreateFlagData data = new CreateFlagData();
+            data.setId(Util.uuid());
+            data.setUserId(userId);
+            data.setUsername(identityName == null ? userId : identityName);
+            data.setNumTodos(candidate.getValue());
+
+            flags.add(data);
+        }
+
+        return flaggedUserService.flagUsers(flags);
+    }
+
+    /**
+     * Reads the display name of every flagged user and stores the ones that
+     * have changed since the user was flagged. Only the names which are not
+     * cached or have expired are searched for.
+     *
+     * @param context The context.
+     * @throws GeneralException
+     */
+    private void refreshUsernames(SailPointContext context) throws GeneralException {
+        Map<String, String> stored = filterOwned(flaggedUserService.getFlaggedUsernames());
+        if (stored.isEmpty()) {
+            return;
+        }
 
-                if (!flaggedUserService.isUserFlagged(userId)) {
-                    CreateFlagData data = new CreateFlagData();
-                    data.setId(Util.uuid());
-                    data.setUserId(userId);
-                    data.setUsername(identityName);
-                    data.setNumTodos(numTodos);
+        Map<String, String> current = getDisplayNames(context, stored.keySet());
+
+        Map<String, String> changed = new HashMap<>();
+        for (Map.Entry<String, String> name : current.entrySet()) {
+            if (!name.getValue().equals(stored.get(name.getKey()))) {
+                changed.put(name.getKey(), name.getValue());
+            }
+        }
+
+        int numChanged = flaggedUserService.updateFlaggedUsernames(changed);
+        if (numChanged > 0 && LOG.isDebugEnabled()) {
+            LOG.debug("Updated the username of " + numChanged + " flagged users");
+        }
+    }
 
-                    flaggedUserService.flagUser(data);
+    /**
+     * Gets the display names of the specified identities, searching only
+     * for the ones which are not cached or have expired.
+     *
+     * @param context The context.
+     * @param ids The identity ids.
+     * @return The display names keyed by id, identities that do not exist are left out.
+     * @throws GeneralException
+     */
+    private Map<String, String> getDisplayNames(SailPointContext context, Collection<String> ids)
+        throws GeneralException {
+
+        Map<String, String> names = NAME_CACHE.getAll(ids);
+
+        List<String> missing = new ArrayList<>();
+        for (String id : ids) {
+            if (!names.containsKey(id)) {
+                missing.add(id);
+            }
+        }
+
+        if (!missing.isEmpty()) {
+            Map<String, String> found = searchDisplayNames(context, missing);
+            NAME_CACHE.putAll(found);
+            names.putAll(found);
+        }
+
+        return names;
+    }
+
+    /**
+     * Searches for the display names of the specified identities in batches.
+     * Only the id and name columns are projected so no identity is loaded.
+     *
+     * @param context The context.
+     * @param ids The identity ids.
+     * @return The display names keyed by id, identities that do not exist are left out.
+     * @throws GeneralException
+     */
+    private Map<String, String> searchDisplayNames(SailPointContext context, Collection<String> ids)
+        throws GeneralException {
+
+        Map<String, String> names = new HashMap<>();
+
+        List<String> idList = new ArrayList<>(ids);
+        for (int i = 0; i < idList.size(); i += IDENTITY_SEARCH_SIZE) {
+            List<String> chunk = idList.subList(i, Math.min(i + IDENTITY_SEARCH_SIZE, idList.size()));
+
+            QueryOptions options = new QueryOptions();
+            options.addFilter(Filter.in("id", chunk));
+
+            Iterator<Object[]> results = context.search(Identity.class, options, IDENTITY_PROPERTIES);
+            try {
+                while (results.hasNext()) {
+                    Object[] row = results.next();
+
+                    // same fallback as Identity.getDisplayableName()
+                    String displayName = (String) row[1];
+                    names.put((String) row[0], Util.isNullOrEmpty(displayName) ? (String) row[2] : displayName);
                 }
+            } finally {
+                Util.flushIterator(results);
             }
         }
+
+        return names;
     }
 
 }
@@ -1,6 +1,9 @@
 
 package com.acme.todo.service;
 
+import com.acme.todo.util.JsonWriter;
+import com.acme.todo.util.PageCursor;
+import com.acme.todo.util.TodoMetrics;
 import com.acme.todo.util.TodoQuery;
 import com.acme.todo.util.TodoUtil;
 
@@ -9,14 +12,20 @@ import sailpoint.plugin.PluginContext;
 import sailpoint.tools.GeneralException;
 import sailpoint.tools.IOUtil;
 
+import java.io.IOException;
+
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Service containing logic for flagged users.
@@ -25,6 +34,16 @@ import java.util.List;
  */
 public class FlaggedUserService {
 
+    /**
+     * The number of rows sent to the database in a single batch.
+     */
+    private static final int BATCH_SIZE = 500;
+
+    /**
+     * The metrics of the service methods, recorded from where each method gets its connection to where it closes it.
+     */
+    private static final TodoMetrics.Component METRICS = TodoMetrics.component("FlaggedUserService");
+
     /**
      * Class containing data needed to flag a user.
      */
@@ -124,6 +143,84 @@ public class FlaggedUserService {
 
     }
 
+    /**
+     * Class reading flagged users from the rows of a result set. The columns
+     * are looked up once per result set rather than by label on every row.
+     */
+    private static class FlaggedUserRowReader {
+
+        /**
+         * The result set.
+         */
+        private final ResultSet resultSet;
+
+        /**
+         * The flagged user filled from every row or null to create one per row.
+         */
+        private final FlaggedUser flyweight;
+
+        /**
+         * The index of the id column.
+         */
+        private final int id;
+
+        /**
+         * The index of the user id column.
+         */
+        private final int userId;
+
+        /**
+         * The index of the username column.
+         */
+        private final int username;
+
+        /**
+         * The index of the number of todos column.
+         */
+        private final int numTodos;
+
+        /**
+         * The index of the created column.
+         */
+        private final int created;
+
+        /**
+         * Constructor.
+         *
+         * @param resultSet The result set.
+         * @param reuse True to fill the same flagged user from every row.
+         * @throws SQLException
+         */
+        private FlaggedUserRowReader(ResultSet resultSet, boolean reuse) throws SQLException {
+            this.resultSet = resultSet;
+            this.flyweight = reuse ? new FlaggedUser() : null;
+
+            id = resultSet.findColumn("id");
+            userId = resultSet.findColumn("user_id");
+            username = resultSet.findColumn("username");
+            numTodos = resultSet.findColumn("num_todos");
+            created = resultSet.findColumn("created");
+        }
+
+        /**
+         * Reads the flagged user in the current row.
+         *
+         * @return The flagged user.
+         * @throws SQLException
+         */
+        private FlaggedUser read() throws SQLException {
+            FlaggedUser flaggedUser = flyweight != null ? flyweight : new FlaggedUser();
+            flaggedUser.setId(resultSet.getString(id));
+            flaggedUser.setUserId(resultSet.getString(userId));
+            flaggedUser.setUsername(resultSet.getString(username));
+            flaggedUser.setNumTodos(resultSet.getInt(numTodos));
+            flaggedUser.setCreated(resultSet.getLong(created));
+
+            return flaggedUser;
+        }
+
+    }
+
     /**
      * The plugin context.
      */
@@ -145,26 +242,165 @@ public class FlaggedUserService {
      * @throws GeneralException
      */
     public List<FlaggedUser> getFlaggedUsers() throws GeneralException {
+        long rows = 0;
+
+        Connection connection = null;
+
+        try {
+            final List<FlaggedUser> flaggedUsers = new ArrayList<>();
+
+            connection = METRICS.getConnection(pluginContext, "getFlaggedUsers");
+
+            streamFlaggedUsers(connection, TodoService.STREAM_FETCH_SIZE, false, new RowVisitor<FlaggedUser>() {
+                @Override
+                public boolean visit(FlaggedUser flaggedUser) {
+                    flaggedUsers.add(flaggedUser);
+
+                    return true;
+                }
+            });
+
+            rows = flaggedUsers.size();
+
+            return flaggedUsers;
+        } catch (SQLException e) {
+            throw new GeneralException(e);
+        } catch (IOException e) {
+            throw new GeneralException(e);
+        } finally {
+            METRICS.close(connection, rows);
+        }
+    }
+
+    /**
+     * Streams all flagged users to a visitor straight from a forward only
+     * result set, so the memory used does not depend on the number of
+     * flagged users. The connection is held until the visitor has seen the
+     * last flagged user or asked to stop.
+     *
+     * @param fetchSize The number of rows fetched from the database at a time.
+     * @param reuse True to pass the same flagged user for every row, which is then only valid during the visit.
+     * @param visitor The visitor.
+     * @return The number of flagged users visited.
+     * @throws GeneralException
+     * @throws IOException If the visitor failed to write a flagged user.
+     */
+    public int visitFlaggedUsers(int fetchSize, boolean reuse, RowVisitor<FlaggedUser> visitor)
+        throws GeneralException, IOException {
+        long rows = 0;
+
+        Connection connection = null;
+
+        try {
+            connection = METRICS.getConnection(pluginContext, "visitFlaggedUsers");
+
+            rows = streamFlaggedUsers(connection, fetchSize, reuse, visitor);
+
+            return (int) rows;
+        } catch (SQLException e) {
+            throw new GeneralException(e);
+        } finally {
+            METRICS.close(connection, rows);
+        }
+    }
+
+    /**
+     * Writes all flagged users as JSON objects directly from the result
+     * set so the memory used does not grow with the number of flagged
+     * users. The connection is held until the last row has been written.
+     *
+     * @param json The writer, positioned inside an array.
+     * @return The number of flagged users written.
+     * @throws GeneralException
+     * @throws IOException If the output could not be written.
+     */
+    public int writeFlaggedUsers(final JsonWriter json) throws GeneralException, IOException {
+        long rows = 0;
+
+        Connection connection = null;
+
+        try {
+            connection = METRICS.getConnection(pluginContext, "writeFlaggedUsers");
+
+            int count = streamFlaggedUsers(connection, TodoService.STREAM_FETCH_SIZE, true, new RowVisitor<FlaggedUser>() {
+                @Override
+                public boolean visit(FlaggedUser flaggedUser) throws IOException {
+                    json.beginObject()
+                        .name("id").value(flaggedUser.getId())
+                        .name("userId").value(flaggedUser.getUserId())
+                        .name("username").value(flaggedUser.getUsername())
+                        .name("numTodos").value(flaggedUser.getNumTodos())
+                        .name("created").value(flaggedUser.getCreated())
+                        .endObject();
+
+                    return true;
+                }
+            });
+
+            rows = count;
+
+            return count;
+        } catch (SQLException e) {
+            throw new GeneralException(e);
+        } finally {
+            METRICS.close(connection, rows);
+        }
+    }
+
+    /**
+     * Gets a page of flagged users ordered by id.
+     *
+     * @param limit The maximum number of flagged users in the page.
+     * @param after The cursor returned with the previous page or null for the first page.
+     * @return The page.
+     * @throws GeneralException
+     */
+    public Page<FlaggedUser> getFlaggedUsers(int limit, String after) throws GeneralException {
+        long rows = 0;
+
         Connection connection = null;
         PreparedStatement statement = null;
 
         try {
             List<FlaggedUser> flaggedUsers = new ArrayList<>();
 
-            connection = pluginContext.getConnection();
-            statement = PluginBaseHelper.prepareStatement(connection, TodoQuery.FLAGGED_USERS);
+            connection = METRICS.getConnection(pluginContext, "getFlaggedUsersPage");
+            if (after == null) {
+                statement = PluginBaseHelper.prepareStatement(connection, TodoQuery.FLAGGED_USERS_FIRST_PAGE);
+            } else {
+                String[] cursor = PageCursor.decode(after, 1);
+                statement = PluginBaseHelper.prepareStatement(connection, TodoQuery.FLAGGED_USERS_PAGE, cursor[0]);
+            }
+
+            statement.setMaxRows(limit + 1);
+
+            boolean hasMore = false;
 
             ResultSet resultSet = statement.executeQuery();
+            FlaggedUserRowReader reader = new FlaggedUserRowReader(resultSet, false);
+
             while (resultSet.next()) {
-                flaggedUsers.add(flaggedUserFromResult(resultSet));
+                if (flaggedUsers.size() == limit) {
+                    hasMore = true;
+                    break;
+                }
+
+                flaggedUsers.add(reader.read());
             }
 
-            return flaggedUsers;
+            String next = null;
+            if (hasMore) {
+                next = PageCursor.encode(flaggedUsers.get(flaggedUsers.size() - 1).getId());
+            }
+
+            rows = flaggedUsers.size();
+
+            return new Page<>(flaggedUsers, next);
         } catch (SQLException e) {
             throw new GeneralException(e);
         } finally {
             IOUtil.closeQuietly(statement);
-            IOUtil.closeQuietly(connection);
+            METRICS.close(connection, rows);
         }
     }
 
@@ -176,13 +412,15 @@ public class FlaggedUserService {
      * @throws GeneralException
      */
     public FlaggedUser getFlaggedUser(String id) throws GeneralException {
+        long rows = 0;
+
         Connection connection = null;
         PreparedStatement statement = null;
 
         try {
             FlaggedUser flaggedUser = null;
 
-            connection = pluginContext.getConnection();
+            connection = METRICS.getConnection(pluginContext, "getFlaggedUser");
             statement = PluginBaseHelper.prepareStatement(connection, TodoQuery.FLAGGED_USER, id);
 
             ResultSet resultSet = statement.executeQuery();
@@ -190,12 +428,14 @@ public class FlaggedUserService {
                 flaggedUser = flaggedUserFromResult(resultSet);
             }
 
+            rows = flaggedUser == null ? 0 : 1;
+
             return flaggedUser;
         } catch (SQLException e) {
             throw new GeneralException(e);
         } finally {
             IOUtil.closeQuietly(statement);
-            IOUtil.closeQuietly(connection);
+            METRICS.close(connection, rows);
         }
     }
 
@@ -207,13 +447,15 @@ public class FlaggedUserService {
      * @throws GeneralException
      */
     public boolean isUserFlagged(String userId) throws GeneralException {
+        long rows = 0;
+
         Connection connection = null;
         PreparedStatement statement = null;
 
         try {
             int count = 0;
 
-            connection = pluginContext.getConnection();
+            connection = METRICS.getConnection(pluginContext, "isUserFlagged");
             statement = PluginBaseHelper.prepareStatement(connection, TodoQuery.IS_USER_FLAGGED, userId);
 
             ResultSet resultSet = statement.executeQuery();
@@ -221,12 +463,14 @@ public class FlaggedUserService {
                 count = resultSet.getInt("total");
             }
 
+            rows = 1;
+
             return count > 0;
         } catch (SQLException e) {
             throw new GeneralException(e);
         } finally {
             IOUtil.closeQuietly(statement);
-            IOUtil.closeQuietly(connection);
+            METRICS.close(connection, rows);
         }
 
     }
@@ -238,19 +482,64 @@ public class FlaggedUserService {
      * @throws GeneralException
      */
     public void pruneFlaggedUser(FlaggedUser flaggedUser) throws GeneralException {
+        long rows = 0;
+
         Connection connection = null;
         PreparedStatement statement = null;
 
         try {
-            connection = pluginContext.getConnection();
+            connection = METRICS.getConnection(pluginContext, "pruneFlaggedUser");
 
             statement = PluginBaseHelper.prepareStatement(connection, TodoQuery.PRUNE_FLAGGED_USER, flaggedUser.getId());
-            statement.executeUpdate();
+            rows = statement.executeUpdate();
         } catch (SQLException e) {
             throw new GeneralException(e);
         } finally {
             IOUtil.closeQuietly(statement);
-            IOUtil.closeQuietly(connection);
+            METRICS.close(connection, rows);
+        }
+    }
+
+    /**
+     * Deletes every flagged user who no longer has more open todos than the
+     * threshold. The deletes are done in chunks, each in its own transaction,
+     * so that a threshold change does not lock the whole table.
+     *
+     * @param maxUntilFlagged The maximum open todos before a user is flagged.
+     * @param chunkSize The maximum number of flagged users deleted per transaction.
+     * @return The number of flagged users pruned.
+     * @throws GeneralException
+     */
+    public int pruneFlaggedUsers(int maxUntilFlagged, int chunkSize) throws GeneralException {
+        long rows = 0;
+
+        Connection connection = null;
+
+        try {
+            connection = METRICS.getConnection(pluginContext, "pruneFlaggedUsers");
+
+            int numPruned = 0;
+            while (true) {
+                List<String> ids = getPruneCandidates(connection, maxUntilFlagged, chunkSize);
+                if (ids.isEmpty()) {
+                    break;
+                }
+
+                int numDeleted = pruneChunk(connection, ids, maxUntilFlagged);
+                numPruned += numDeleted;
+
+                if (ids.size() < chunkSize || numDeleted == 0) {
+                    break;
+                }
+            }
+
+            rows = numPruned;
+
+            return numPruned;
+        } catch (SQLException e) {
+            throw new GeneralException(e);
+        } finally {
+            METRICS.close(connection, rows);
         }
     }
 
@@ -262,30 +551,518 @@ public class FlaggedUserService {
      * @throws GeneralException
      */
     public FlaggedUser flagUser(CreateFlagData data) throws GeneralException {
+        long rows = 0;
+
         Connection connection = null;
         PreparedStatement statement = null;
 
         try {
-            connection = pluginContext.getConnection();
+            connection = METRICS.getConnection(pluginContext, "flagUser");
 
-            String id = data.getId();
-            String userId = data.getUserId();
-            String username = data.getUsername();
-            int numTodos = data.getNumTodos();
+            long created = TodoUtil.now();
 
             statement = PluginBaseHelper.prepareStatement(
-                connection, TodoQuery.FLAG_USER, id, userId, username, numTodos, TodoUtil.now()
+                connection, TodoQuery.FLAG_USER, data.getId(), data.getUserId(),
+                data.getUsername(), data.getNumTodos(), created
             );
 
-            statement.executeUpdate();
+            rows = statement.executeUpdate();
+
+            return flaggedUserFromData(data, created);
         } catch (SQLException e) {
             throw new GeneralException(e);
         } finally {
             IOUtil.closeQuietly(statement);
-            IOUtil.closeQuietly(connection);
+            METRICS.close(connection, rows);
+        }
+    }
+
+    /**
+     * Flags all of the specified users in a single transaction, sending
+     * the inserts to the database in batches.
+     *
+     * @param flags The data for each user to flag.
+     * @return The number of users flagged.
+     * @throws GeneralException
+     */
+    public int flagUsers(List<CreateFlagData> flags) throws GeneralException {
+        long rows = 0;
+
+        if (flags == null || flags.isEmpty()) {
+            return 0;
         }
 
-        return getFlaggedUser(data.getId());
+        Connection connection = null;
+        PreparedStatement statement = null;
+
+        try {
+            connection = METRICS.getConnection(pluginContext, "flagUsers");
+            connection.setAutoCommit(false);
+
+            long created = TodoUtil.now();
+
+            statement = connection.prepareStatement(TodoQuery.FLAG_USER);
+
+            int pending = 0;
+            for (CreateFlagData data : flags) {
+                statement.setString(1, data.getId());
+                statement.setString(2, data.getUserId());
+                statement.setString(3, data.getUsername());
+                statement.setInt(4, data.getNumTodos());
+                statement.setLong(5, created);
+                statement.addBatch();
+
+                if (++pending == BATCH_SIZE) {
+                    statement.executeBatch();
+                    pending = 0;
+                }
+            }
+
+            if (pending > 0) {
+                statement.executeBatch();
+            }
+
+            connection.commit();
+
+            rows = flags.size();
+
+            return flags.size();
+        } catch (SQLException e) {
+            TodoUtil.rollbackQuietly(connection);
+            throw new GeneralException(e);
+        } finally {
+            IOUtil.closeQuietly(statement);
+            TodoUtil.restoreAutoCommit(connection);
+            METRICS.close(connection, rows);
+        }
+    }
+
+    /**
+     * Gets the users who have more open todos than the threshold and
+     * have not already been flagged, along with their open todo count.
+     *
+     * @param maxUntilFlagged The maximum open todos before a user is flagged.
+     * @return The open todo count keyed by user id.
+     * @throws GeneralException
+     */
+    public Map<String, Integer> getFlagCandidates(int maxUntilFlagged) throws GeneralException {
+        long rows = 0;
+
+        Connection connection = null;
+        PreparedStatement statement = null;
+
+        try {
+            Map<String, Integer> candidates = new LinkedHashMap<>();
+
+            connection = METRICS.getConnection(pluginContext, "getFlagCandidates");
+            statement = PluginBaseHelper.prepareStatement(connection, TodoQuery.FLAG_CANDIDATES, maxUntilFlagged);
+
+            ResultSet resultSet = statement.executeQuery();
+            while (resultSet.next()) {
+                candidates.put(resultSet.getString("user_id"), resultSet.getInt("total"));
+            }
+
+            rows = candidates.size();
+
+            return candidates;
+        } catch (SQLException e) {
+            throw new GeneralException(e);
+        } finally {
+            IOUtil.closeQuietly(statement);
+            METRICS.close(connection, rows);
+        }
+    }
+
+    /**
+     * Brings the stored open todo count of every flagged user up to date.
+     *
+     * @return The number of flagged users whose count changed.
+     * @throws GeneralException
+     */
+    public int refreshFlaggedUserCounts() throws GeneralException {
+        long rows = 0;
+
+        Connection connection = null;
+        PreparedStatement statement = null;
+
+        try {
+            connection = METRICS.getConnection(pluginContext, "refreshFlaggedUserCounts");
+
+            statement = PluginBaseHelper.prepareStatement(connection, TodoQuery.REFRESH_FLAGGED_COUNTS);
+
+            rows = statement.executeUpdate();
+
+            return (int) rows;
+        } catch (SQLException e) {
+            throw new GeneralException(e);
+        } finally {
+            IOUtil.closeQuietly(statement);
+            METRICS.close(connection, rows);
+        }
+    }
+
+    /**
+     * Gets a page of the users whose open todo count changed since they were
+     * last cleared, along with the version of the change that was recorded.
+     *
+     * @param after The last user id of the previous page or null for the first page.
+     * @param maxResults The maximum number of users to return.
+     * @return The change version keyed by user id, ordered by user id.
+     * @throws GeneralException
+     */
+    public Map<String, Long> getDirtyUsers(String after, int maxResults) throws GeneralException {
+        long rows = 0;
+
+        Connection connection = null;
+        PreparedStatement statement = null;
+
+        try {
+            Map<String, Long> dirtyUsers = new LinkedHashMap<>();
+
+            connection = METRICS.getConnection(pluginContext, "getDirtyUsers");
+            statement = after == null ?
+                PluginBaseHelper.prepareStatement(connection, TodoQuery.DIRTY_USERS_FIRST_PAGE) :
+                PluginBaseHelper.prepareStatement(connection, TodoQuery.DIRTY_USERS_PAGE, after);
+
+            statement.setMaxRows(maxResults);
+
+            ResultSet resultSet = statement.executeQuery();
+            while (resultSet.next()) {
+                dirtyUsers.put(resultSet.getString("user_id"), resultSet.getLong("dirty_version"));
+            }
+
+            rows = dirtyUsers.size();
+
+            return dirtyUsers;
+        } catch (SQLException e) {
+            throw new GeneralException(e);
+        } finally {
+            IOUtil.closeQuietly(statement);
+            METRICS.close(connection, rows);
+        }
+    }
+
+    /**
+     * Clears the specified changed users in a single transaction. A user
+     * that changed again after it was read keeps its newer change.
+     *
+     * @param dirtyUsers The change version that was read keyed by user id.
+     * @return The number of users cleared.
+     * @throws GeneralException
+     */
+    public int clearDirtyUsers(Map<String, Long> dirtyUsers) throws GeneralException {
+        if (dirtyUsers == null || dirtyUsers.isEmpty()) {
+            return 0;
+        }
+        long rows = 0;
+
+        Connection connection = null;
+        PreparedStatement statement = null;
+
+        try {
+            connection = METRICS.getConnection(pluginContext, "clearDirtyUsers");
+            connection.setAutoCommit(false);
+
+            statement = connection.prepareStatement(TodoQuery.CLEAR_DIRTY_USER);
+            for (Map.Entry<String, Long> dirtyUser : dirtyUsers.entrySet()) {
+                statement.setString(1, dirtyUser.getKey());
+                statement.setLong(2, dirtyUser.getValue());
+                statement.addBatch();
+            }
+
+            for (int count : statement.executeBatch()) {
+                if (count > 0) {
+                    rows += count;
+                }
+            }
+
+            connection.commit();
+
+            return (int) rows;
+        } catch (SQLException e) {
+            TodoUtil.rollbackQuietly(connection);
+            throw new GeneralException(e);
+        } finally {
+            IOUtil.closeQuietly(statement);
+            TodoUtil.restoreAutoCommit(connection);
+            METRICS.close(connection, rows);
+        }
+    }
+
+    /**
+     * Deletes the flags of the specified users who no longer have more open
+     * todos than the threshold.
+     *
+     * @param userIds The user ids, no more than fit in a single IN list.
+     * @param maxUntilFlagged The maximum open todos before a user is flagged.
+     * @return The number of flagged users pruned.
+     * @throws GeneralException
+     */
+    public int pruneFlaggedUsers(Collection<String> userIds, int maxUntilFlagged) throws GeneralException {
+        if (userIds.isEmpty()) {
+            return 0;
+        }
+        long rows = 0;
+
+        Connection connection = null;
+        PreparedStatement statement = null;
+
+        try {
+            connection = METRICS.getConnection(pluginContext, "pruneFlaggedUserIds");
+
+            List<Object> params = new ArrayList<Object>(userIds);
+            params.add(maxUntilFlagged);
+
+            statement = PluginBaseHelper.prepareStatement(
+                connection, TodoQuery.withPlaceholders(TodoQuery.PRUNE_FLAGGED_USER_IDS, userIds.size()), params.toArray()
+            );
+
+            rows = statement.executeUpdate();
+
+            return (int) rows;
+        } catch (SQLException e) {
+            throw new GeneralException(e);
+        } finally {
+            IOUtil.closeQuietly(statement);
+            METRICS.close(connection, rows);
+        }
+    }
+
+    /**
+     * Brings the stored open todo count of the specified flagged users up to date.
+     *
+     * @param userIds The user ids, no more than fit in a single IN list.
+     * @return The number of flagged users whose count changed.
+     * @throws GeneralException
+     */
+    public int refreshFlaggedUserCounts(Collection<String> userIds) throws GeneralException {
+        if (userIds.isEmpty()) {
+            return 0;
+        }
+        long rows = 0;
+
+        Connection connection = null;
+        PreparedStatement statement = null;
+
+        try {
+            connection = METRICS.getConnection(pluginContext, "refreshFlaggedUserIdCounts");
+
+            statement = PluginBaseHelper.prepareStatement(
+                connection, TodoQuery.withPlaceholders(TodoQuery.REFRESH_FLAGGED_USER_ID_COUNTS, userIds.size()), userIds.toArray()
+            );
+
+            rows = statement.executeUpdate();
+
+            return (int) rows;
+        } catch (SQLException e) {
+            throw new GeneralException(e);
+        } finally {
+            IOUtil.closeQuietly(statement);
+            METRICS.close(connection, rows);
+        }
+    }
+
+    /**
+     * Gets those of the specified users who have more open todos than the
+     * threshold and have not already been flagged, along with their open todo count.
+     *
+     * @param userIds The user ids, no more than fit in a single IN list.
+     * @param maxUntilFlagged The maximum open todos before a user is flagged.
+     * @return The open todo count keyed by user id.
+     * @throws GeneralException
+     */
+    public Map<String, Integer> getFlagCandidates(Collection<String> userIds, int maxUntilFlagged) throws GeneralException {
+        Map<String, Integer> candidates = new LinkedHashMap<>();
+        if (userIds.isEmpty()) {
+            return candidates;
+        }
+        long rows = 0;
+
+        Connection connection = null;
+        PreparedStatement statement = null;
+
+        try {
+            connection = METRICS.getConnection(pluginContext, "getFlagCandidateIds");
+
+            List<Object> params = new ArrayList<>();
+            params.add(maxUntilFlagged);
+            params.addAll(userIds);
+
+            statement = PluginBaseHelper.prepareStatement(
+                connection, TodoQuery.withPlaceholders(TodoQuery.FLAG_CANDIDATE_IDS, userIds.size()), params.toArray()
+            );
+
+            ResultSet resultSet = statement.executeQuery();
+            while (resultSet.next()) {
+                candidates.put(resultSet.getString("user_id"), resultSet.getInt("total"));
+            }
+
+            rows = candidates.size();
+
+            return candidates;
+        } catch (SQLException e) {
+            throw new GeneralException(e);
+        } finally {
+            IOUtil.closeQuietly(statement);
+            METRICS.close(connection, rows);
+        }
+    }
+
+    /**
+     * Gets the stored username of every flagged user.
+     *
+     * @return The usernames keyed by user id.
+     * @throws GeneralException
+     */
+    public Map<String, String> getFlaggedUsernames() throws GeneralException {
+        long rows = 0;
+
+        Connection connection = null;
+        PreparedStatement statement = null;
+
+        try {
+            Map<String, String> usernames = new HashMap<>();
+
+            connection = METRICS.getConnection(pluginContext, "getFlaggedUsernames");
+            statement = PluginBaseHelper.prepareStatement(connection, TodoQuery.FLAGGED_USERNAMES);
+
+            ResultSet resultSet = statement.executeQuery();
+            while (resultSet.next()) {
+                usernames.put(resultSet.getString("user_id"), resultSet.getString("username"));
+            }
+
+            rows = usernames.size();
+
+            return usernames;
+        } catch (SQLException e) {
+            throw new GeneralException(e);
+        } finally {
+            IOUtil.closeQuietly(statement);
+            METRICS.close(connection, rows);
+        }
+    }
+
+    /**
+     * Updates the stored username of the specified flagged users in a
+     * single transaction, sending the updates to the database in batches.
+     *
+     * @param usernames The new usernames keyed by user id.
+     * @return The number of flagged users updated.
+     * @throws GeneralException
+     */
+    public int updateFlaggedUsernames(Map<String, String> usernames) throws GeneralException {
+        if (usernames == null || usernames.isEmpty()) {
+            return 0;
+        }
+        long rows = 0;
+
+        Connection connection = null;
+        PreparedStatement statement = null;
+
+        try {
+            connection = METRICS.getConnection(pluginContext, "updateFlaggedUsernames");
+            connection.setAutoCommit(false);
+
+            statement = connection.prepareStatement(TodoQuery.UPDATE_FLAGGED_USERNAME);
+
+            int pending = 0;
+            for (Map.Entry<String, String> username : usernames.entrySet()) {
+                statement.setString(1, username.getValue());
+                statement.setString(2, username.getKey());
+                statement.addBatch();
+
+                if (++pending == BATCH_SIZE) {
+                    statement.executeBatch();
+                    pending = 0;
+                }
+            }
+
+            if (pending > 0) {
+                statement.executeBatch();
+            }
+
+            connection.commit();
+
+            rows = usernames.size();
+
+            return usernames.size();
+        } catch (SQLException e) {
+            TodoUtil.rollbackQuietly(connection);
+            throw new GeneralException(e);
+        } finally {
+            IOUtil.closeQuietly(statement);
+            TodoUtil.restoreAutoCommit(connection);
+            METRICS.close(connection, rows);
+        }
+    }
+
+    /**
+     * Gets the ids of the next chunk of flagged users that can be pruned.
+     *
+     * @param connection The connection.
+     * @param maxUntilFlagged The maximum open todos before a user is flagged.
+     * @param chunkSize The maximum number of ids to return.
+     * @return The flagged user ids.
+     * @throws SQLException
+     */
+    private List<String> getPruneCandidates(Connection connection, int maxUntilFlagged, int chunkSize)
+        throws SQLException {
+
+        PreparedStatement statement = null;
+
+        try {
+            List<String> ids = new ArrayList<>();
+
+            statement = PluginBaseHelper.prepareStatement(connection, TodoQuery.PRUNE_CANDIDATES, maxUntilFlagged);
+            statement.setMaxRows(chunkSize);
+
+            ResultSet resultSet = statement.executeQuery();
+            while (resultSet.next()) {
+                ids.add(resultSet.getString("id"));
+            }
+
+            return ids;
+        } finally {
+            IOUtil.closeQuietly(statement);
+        }
+    }
+
+    /**
+     * Deletes a chunk of flagged users in a single transaction.
+     *
+     * @param connection The connection.
+     * @param ids The flagged user ids.
+     * @param maxUntilFlagged The maximum open todos before a user is flagged.
+     * @return The number of flagged users deleted.
+     * @throws SQLException
+     */
+    private int pruneChunk(Connection connection, List<String> ids, int maxUntilFlagged) throws SQLException {
+        PreparedStatement statement = null;
+
+        try {
+            connection.setAutoCommit(false);
+
+            statement = connection.prepareStatement(TodoQuery.withPlaceholders(TodoQuery.PRUNE_FLAGGED_USERS, ids.size()));
+
+            int index = 1;
+            for (String id : ids) {
+                statement.setString(index++, id);
+            }
+
+            statement.setInt(index, maxUntilFlagged);
+
+            int numDeleted = statement.executeUpdate();
+
+            connection.commit();
+
+            return numDeleted;
+        } catch (SQLException e) {
+            TodoUtil.rollbackQuietly(connection);
+            throw e;
+        } finally {
+            IOUtil.closeQuietly(statement);
+            TodoUtil.restoreAutoCommit(connection);
+        }
     }
 
     /**
@@ -296,12 +1073,61 @@ public class FlaggedUserService {
      * @throws SQLException
      */
     private FlaggedUser flaggedUserFromResult(ResultSet resultSet) throws SQLException {
+        return new FlaggedUserRowReader(resultSet, false).read();
+    }
+
+    /**
+     * Streams all flagged users to a visitor from a forward only, read only result set.
+     *
+     * @param connection The connection.
+     * @param fetchSize The number of rows fetched from the database at a time.
+     * @param reuse True to pass the same flagged user for every row.
+     * @param visitor The visitor.
+     * @return The number of flagged users visited.
+     * @throws SQLException
+     * @throws GeneralException
+     * @throws IOException
+     */
+    private int streamFlaggedUsers(Connection connection, int fetchSize, boolean reuse,
+                                   RowVisitor<FlaggedUser> visitor) throws SQLException, GeneralException, IOException {
+
+        PreparedStatement statement = null;
+
+        try {
+            statement = TodoUtil.prepareStreamingStatement(connection, TodoQuery.FLAGGED_USERS, fetchSize);
+
+            ResultSet resultSet = statement.executeQuery();
+            FlaggedUserRowReader reader = new FlaggedUserRowReader(resultSet, reuse);
+
+            int count = 0;
+            while (resultSet.next()) {
+                count++;
+
+                if (!visitor.visit(reader.read())) {
+                    break;
+                }
+            }
+
+            return count;
+        } finally {
+            IOUtil.closeQuietly(statement);
+        }
+    }
+
+    /**
+     * Creates a flagged user from the data used to insert it.
+     *
+     * @param data The data.
+     * @param created The created timestamp.
+     * @return The flagged user.
+     */
+    private FlaggedUser flaggedUserFromData(CreateFlagData data, long created) {
         FlaggedUser flaggedUser = new FlaggedUser();
-        flaggedUser.setId(resultSet.getString("id"));
-        flaggedUser.setUserId(resultSet.getString("user_id"));
-        flaggedUser.setUsername(resultSet.getString("username"));
-        flaggedUser.setNumTodos(resultSet.getInt("num_todos"));
-        flaggedUser.setCreated(resultSet.getLong("created"));
+        flaggedUser.setId(data.getId());
+        flaggedUser.setUserId(data.getUserId());
+        flaggedUser.setUsername(data.getUsername());
+        flaggedUser.setNumTodos(data.getNumTodos());
+        flaggedUser.setCreated(created);
 
         return flaggedUser;
     }
@@ -0,0 +1,239 @@
+
+package com.acme.todo.service;
+
+import com.acme.todo.util.TodoMetrics;
+import com.acme.todo.util.TodoQuery;
+import com.acme.todo.util.TodoUtil;
+
+import sailpoint.plugin.PluginBaseHelper;
+import sailpoint.plugin.PluginContext;
+import sailpoint.tools.GeneralException;
+import sailpoint.tools.IOUtil;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+/**
+ * Service containing the logic for splitting the flagging work between
+ * hosts. The users are split into buckets and every host taking part
+ * leases an even share of the buckets. A host renews its membership and
+ * its leases on every run, so the buckets of a host that stops running
+ * are picked up by the others once its leases expire.
+ */
+public class FlaggingLeaseService {
+
+    /**
+     * The metrics of the service methods, recorded from where each method gets its connection to where it closes it.
+     */
+    private static final TodoMetrics.Component METRICS = TodoMetrics.component("FlaggingLeaseService");
+
+    /**
+     * The plugin context.
+     */
+    private PluginContext pluginContext;
+
+    /**
+     * Constructor.
+     *
+     * @param pluginContext The plugin context.
+     */
+    public FlaggingLeaseService(PluginContext pluginContext) {
+        this.pluginContext = pluginContext;
+    }
+
+    /**
+     * Renews the membership and leases of a host and brings the number of
+     * buckets it holds to its share of the buckets, giving up the buckets
+     * over its share and claiming free or expired buckets under it. Hosts
+     * that just joined get their share as the others give buckets up on
+     * their following runs.
+     *
+     * @param memberId The id of the host.
+     * @param numBuckets The number of buckets the users are split into.
+     * @param leaseMillis The number of milliseconds a lease lasts without being renewed.
+     * @return The buckets leased by the host.
+     * @throws GeneralException
+     */
+    public SortedSet<Integer> acquireBuckets(String memberId, int numBuckets, long leaseMillis) throws GeneralException {
+        long rows = 0;
+
+        Connection connection = null;
+
+        try {
+            connection = METRICS.getConnection(pluginContext, "acquireBuckets");
+
+            long now = TodoUtil.now();
+            long expires = now + leaseMillis;
+
+            renewMember(connection, memberId, expires);
+            executeUpdate(connection, TodoQuery.DELETE_EXPIRED_MEMBERS, now);
+            executeUpdate(connection, TodoQuery.RENEW_LEASES, expires, memberId);
+
+            int numMembers = Math.max(1, getLiveMemberCount(connection, now));
+            int share = (numBuckets + numMembers - 1) / numMembers;
+
+            Map<Integer, String> holders = new HashMap<>();
+            SortedSet<Integer> free = new TreeSet<>();
+            readLeases(connection, now, holders, free);
+
+            SortedSet<Integer> owned = new TreeSet<>();
+            for (Map.Entry<Integer, String> holder : holders.entrySet()) {
+                if (memberId.equals(holder.getValue())) {
+                    owned.add(holder.getKey());
+                }
+            }
+
+            // buckets beyond the configured number are left over from an earlier setting
+            while (!owned.isEmpty() && (owned.size() > share || owned.last() >= numBuckets)) {
+                Integer bucket = owned.last();
+                executeUpdate(connection, TodoQuery.RELEASE_LEASE, bucket, memberId);
+                owned.remove(bucket);
+            }
+
+            for (int bucket = 0; bucket < numBuckets && owned.size() < share; bucket++) {
+                if (!holders.containsKey(bucket)) {
+                    insertLease(connection, bucket);
+                } else if (!free.contains(bucket)) {
+                    continue;
+                }
+
+                if (executeUpdate(connection, TodoQuery.CLAIM_LEASE, memberId, expires, bucket, now) > 0) {
+                    owned.add(bucket);
+                }
+            }
+
+            rows = owned.size();
+
+            return owned;
+        } catch (SQLException e) {
+            throw new GeneralException(e);
+        } finally {
+            METRICS.close(connection, rows);
+        }
+    }
+
+    /**
+     * Extends the membership of a host, adding it if it is not a member yet.
+     *
+     * @param connection The connection.
+     * @param memberId The id of the host.
+     * @param expires The time the membership expires.
+     * @throws SQLException
+     */
+    private void renewMember(Connection connection, String memberId, long expires) throws SQLException {
+        if (executeUpdate(connection, TodoQuery.RENEW_MEMBER, expires, memberId) > 0) {
+            return;
+        }
+
+        try {
+            executeUpdate(connection, TodoQuery.INSERT_MEMBER, memberId, expires);
+        } catch (SQLException e) {
+            if (!TodoUtil.isDuplicateKey(e)) {
+                throw e;
+            }
+
+            executeUpdate(connection, TodoQuery.RENEW_MEMBER, expires, memberId);
+        }
+    }
+
+    /**
+     * Adds an unleased bucket, ignoring the error if another host added it first.
+     *
+     * @param connection The connection.
+     * @param bucket The bucket.
+     * @throws SQLException
+     */
+    private void insertLease(Connection connection, int bucket) throws SQLException {
+        try {
+            executeUpdate(connection, TodoQuery.INSERT_LEASE, bucket);
+        } catch (SQLException e) {
+            if (!TodoUtil.isDuplicateKey(e)) {
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Gets the number of hosts taking part in the flagging work.
+     *
+     * @param connection The connection.
+     * @param now The current time.
+     * @return The number of hosts.
+     * @throws SQLException
+     */
+    private int getLiveMemberCount(Connection connection, long now) throws SQLException {
+        PreparedStatement statement = null;
+
+        try {
+            statement = PluginBaseHelper.prepareStatement(connection, TodoQuery.LIVE_MEMBER_COUNT, now);
+
+            ResultSet resultSet = statement.executeQuery();
+
+            return resultSet.next() ? resultSet.getInt("total") : 0;
+        } finally {
+            IOUtil.closeQuietly(statement);
+        }
+    }
+
+    /**
+     * Reads the lease of every bucket.
+     *
+     * @param connection The connection.
+     * @param now The current time.
+     * @param holders The host holding each bucket, null when the bucket is not leased.
+     * @param free The buckets which are not leased or whose lease has expired.
+     * @throws SQLException
+     */
+    private void readLeases(Connection connection, long now, Map<Integer, String> holders,
+                            SortedSet<Integer> free) throws SQLException {
+
+        PreparedStatement statement = null;
+
+        try {
+            statement = PluginBaseHelper.prepareStatement(connection, TodoQuery.LEASES);
+
+            ResultSet resultSet = statement.executeQuery();
+            while (resultSet.next()) {
+                int bucket = resultSet.getInt("bucket");
+                String memberId = resultSet.getString("member_id");
+
+                holders.put(bucket, memberId);
+                if (memberId == null || resultSet.getLong("expires") < now) {
+                    free.add(bucket);
+                }
+            }
+        } finally {
+            IOUtil.closeQuietly(statement);
+        }
+    }
+
+    /**
+     * Executes an update statement on the connection.
+     *
+     * @param connection The connection.
+     * @param query The query.
+     * @param params The query parameters.
+     * @return The number of rows updated.
+     * @throws SQLException
+     */
+    private int executeUpdate(Connection connection, String query, Object... params) throws SQLException {
+        PreparedStatement statement = null;
+
+        try {
+            statement = PluginBaseHelper.prepareStatement(connection, query, params);
+
+            return statement.executeUpdate();
+        } finally {
+            IOUtil.closeQuietly(statement);
+        }
+    }
+
+}
+
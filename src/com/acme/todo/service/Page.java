@@ -0,0 +1,61 @@
+
+package com.acme.todo.service;
+
+import java.util.List;
+
+/**
+ * Class containing a single page of results along with the cursor
+ * used to request the page that follows it.
+ */
+public class Page<T> {
+
+    /**
+     * The objects in the page.
+     */
+    private List<T> objects;
+
+    /**
+     * The cursor for the next page.
+     */
+    private String next;
+
+    /**
+     * Constructor.
+     *
+     * @param objects The objects in the page.
+     * @param next The cursor for the next page or null if this is the last page.
+     */
+    public Page(List<T> objects, String next) {
+        this.objects = objects;
+        this.next = next;
+    }
+
+    /**
+     * Gets the objects in the page.
+     *
+     * @return The objects.
+     */
+    public List<T> getObjects() {
+        return objects;
+    }
+
+    /**
+     * Gets the number of objects in the page.
+     *
+     * @return The count.
+     */
+    public int getCount() {
+        return objects.size();
+    }
+
+    /**
+     * Gets the cursor for the next page.
+     *
+     * @return The cursor or null if this is the last page.
+     */
+    public String getNext() {
+        return next;
+    }
+
+}
+
@@ -0,0 +1,28 @@
+
+package com.acme.todo.service;
+
+import sailpoint.tools.GeneralException;
+
+import java.io.IOException;
+
+/**
+ * Callback the services push the rows of a streamed query to, one row at
+ * a time, while the result set is still open. Visitors run with the
+ * connection held so they should do little more than write or aggregate
+ * the row.
+ */
+public interface RowVisitor<T> {
+
+    /**
+     * Visits a row. When the stream reuses its row object the row is only
+     * valid until this method returns and must be copied to be kept.
+     *
+     * @param row The row.
+     * @return True to continue with the next row, false to stop the stream.
+     * @throws GeneralException
+     * @throws IOException
+     */
+    boolean visit(T row) throws GeneralException, IOException;
+
+}
+
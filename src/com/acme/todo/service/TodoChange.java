@@ -0,0 +1,114 @@
+
+package com.acme.todo.service;
+
+/**
+ * Class containing a single entry of the todo change log.
+ */
+public class TodoChange {
+
+    /**
+     * The position of the change in the log.
+     */
+    private long seq;
+
+    /**
+     * The todo id.
+     */
+    private String todoId;
+
+    /**
+     * The id of the user who owns the todo.
+     */
+    private String userId;
+
+    /**
+     * The kind of change.
+     */
+    private TodoOperation.Type type;
+
+    /**
+     * The timestamp of the change.
+     */
+    private long changed;
+
+    /**
+     * The current state of the todo.
+     */
+    private Todo todo;
+
+    /**
+     * Constructor.
+     *
+     * @param seq The position of the change in the log or zero if it has not been logged yet.
+     * @param todoId The todo id.
+     * @param userId The id of the user who owns the todo.
+     * @param type The kind of change.
+     * @param changed The timestamp of the change.
+     * @param todo The current state of the todo or null if it no longer exists.
+     */
+    public TodoChange(long seq, String todoId, String userId, TodoOperation.Type type, long changed, Todo todo) {
+        this.seq = seq;
+        this.todoId = todoId;
+        this.userId = userId;
+        this.type = type;
+        this.changed = changed;
+        this.todo = todo;
+    }
+
+    /**
+     * Gets the position of the change in the log.
+     *
+     * @return The sequence number.
+     */
+    public long getSeq() {
+        return seq;
+    }
+
+    /**
+     * Gets the todo id.
+     *
+     * @return The todo id.
+     */
+    public String getTodoId() {
+        return todoId;
+    }
+
+    /**
+     * Gets the id of the user who owns the todo.
+     *
+     * @return The user id.
+     */
+    public String getUserId() {
+        return userId;
+    }
+
+    /**
+     * Gets the kind of change.
+     *
+     * @return The type.
+     */
+    public TodoOperation.Type getType() {
+        return type;
+    }
+
+    /**
+     * Gets the timestamp of the change.
+     *
+     * @return The timestamp.
+     */
+    public long getChanged() {
+        return changed;
+    }
+
+    /**
+     * Gets the current state of the todo, which may already reflect
+     * changes that come later in the log.
+     *
+     * @return The todo or null if it no longer exists.
+     */
+    public Todo getTodo() {
+        return todo;
+    }
+
+}
+
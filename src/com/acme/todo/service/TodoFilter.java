@@ -0,0 +1,310 @@
+
+package com.acme.todo.service;
+
+import com.acme.todo.util.PageCursor;
+import com.acme.todo.util.TodoQuery;
+
+import sailpoint.tools.GeneralException;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Class containing the conditions and order used to select a page of the
+ * todos of a user. Only the columns listed here can be filtered or sorted
+ * on, every value is bound as a parameter and every sort key is backed by
+ * an index leading with the user id, so a filtered page is read without
+ * scanning the other todos of the user.
+ */
+public class TodoFilter {
+
+    /**
+     * The sort key ordering by created.
+     */
+    public static final String SORT_CREATED = "created";
+
+    /**
+     * The sort key ordering by completed on, which only selects completed todos.
+     */
+    public static final String SORT_COMPLETED_ON = "completedOn";
+
+    /**
+     * The sort key ordering by name.
+     */
+    public static final String SORT_NAME = "name";
+
+    /**
+     * The column of each sort key.
+     */
+    private static final Map<String, String> SORT_COLUMNS = new HashMap<>();
+
+    static {
+        SORT_COLUMNS.put(SORT_CREATED, "created");
+        SORT_COLUMNS.put(SORT_COMPLETED_ON, "completed_on");
+        SORT_COLUMNS.put(SORT_NAME, "name");
+    }
+
+    /**
+     * The escape character of the name prefix pattern, one that needs no
+     * escaping in a string literal on any of the supported databases.
+     */
+    private static final char LIKE_ESCAPE = '!';
+
+    /**
+     * True to select only completed todos, false to select only open todos or null for both.
+     */
+    private Boolean complete;
+
+    /**
+     * The earliest created timestamp, inclusive.
+     */
+    private Long createdFrom;
+
+    /**
+     * The latest created timestamp, exclusive.
+     */
+    private Long createdBefore;
+
+    /**
+     * The earliest completed on timestamp, inclusive.
+     */
+    private Long completedFrom;
+
+    /**
+     * The latest completed on timestamp, exclusive.
+     */
+    private Long completedBefore;
+
+    /**
+     * The smallest estimate, inclusive.
+     */
+    private Long minEstimate;
+
+    /**
+     * The largest estimate, inclusive.
+     */
+    private Long maxEstimate;
+
+    /**
+     * The prefix of the name.
+     */
+    private String namePrefix;
+
+    /**
+     * The sort key or null if none was specified.
+     */
+    private String sort;
+
+    /**
+     * True to sort in descending order.
+     */
+    private boolean descending;
+
+    /**
+     * Determines if no condition or sort was specified.
+     *
+     * @return True if the filter selects all todos in the default order.
+     */
+    public boolean isEmpty() {
+        return complete == null && createdFrom == null && createdBefore == null && completedFrom == null &&
+               completedBefore == null && minEstimate == null && maxEstimate == null && namePrefix == null &&
+               sort == null;
+    }
+
+    /**
+     * Sets whether to select only completed or only open todos.
+     *
+     * @param complete True for completed todos, false for open todos or null for both.
+     */
+    public void setComplete(Boolean complete) {
+        this.complete = complete;
+    }
+
+    /**
+     * Sets the created range.
+     *
+     * @param from The earliest created timestamp, inclusive, or null.
+     * @param before The latest created timestamp, exclusive, or null.
+     */
+    public void setCreatedRange(Long from, Long before) {
+        this.createdFrom = from;
+        this.createdBefore = before;
+    }
+
+    /**
+     * Sets the completed on range. Only completed todos fall in a range.
+     *
+     * @param from The earliest completed on timestamp, inclusive, or null.
+     * @param before The latest completed on timestamp, exclusive, or null.
+     */
+    public void setCompletedRange(Long from, Long before) {
+        this.completedFrom = from;
+        this.completedBefore = before;
+    }
+
+    /**
+     * Sets the estimate range.
+     *
+     * @param min The smallest estimate, inclusive, or null.
+     * @param max The largest estimate, inclusive, or null.
+     */
+    public void setEstimateRange(Long min, Long max) {
+        this.minEstimate = min;
+        this.maxEstimate = max;
+    }
+
+    /**
+     * Sets the prefix of the name.
+     *
+     * @param namePrefix The prefix or null.
+     */
+    public void setNamePrefix(String namePrefix) {
+        this.namePrefix = namePrefix;
+    }
+
+    /**
+     * Sets the order of the todos.
+     *
+     * @param sort The sort key.
+     * @param descending True to sort in descending order.
+     * @throws GeneralException If the sort key is not supported.
+     */
+    public void setSort(String sort, boolean descending) throws GeneralException {
+        if (!SORT_COLUMNS.containsKey(sort)) {
+            throw new GeneralException("Todos cannot be sorted by " + sort);
+        }
+
+        this.sort = sort;
+        this.descending = descending;
+    }
+
+    /**
+     * Builds the query selecting the page following a cursor. The values
+     * are added to the query parameters, which already hold the user id.
+     * Pages are ordered by the sort key and then by id, by created when no
+     * sort key was specified.
+     *
+     * @param params The query parameters.
+     * @param after The cursor returned with the previous page or null for the first page.
+     * @return The query.
+     * @throws GeneralException If the conditions contradict each other or the cursor is invalid.
+     */
+    String toQuery(List<Object> params, String after) throws GeneralException {
+        String sortKey = getSortKey();
+        String column = SORT_COLUMNS.get(sortKey);
+
+        boolean completedOnly = SORT_COMPLETED_ON.equals(sortKey) || completedFrom != null || completedBefore != null;
+        if (completedOnly && Boolean.FALSE.equals(complete)) {
+            throw new GeneralException("Open todos cannot be filtered or sorted by completed on");
+        }
+
+        StringBuilder conditions = new StringBuilder();
+
+        if (completedOnly || Boolean.TRUE.equals(complete)) {
+            conditions.append(" AND completed_on IS NOT NULL");
+        } else if (Boolean.FALSE.equals(complete)) {
+            conditions.append(" AND completed_on IS NULL");
+        }
+
+        appendCondition(conditions, params, "created >= ?", createdFrom);
+        appendCondition(conditions, params, "created < ?", createdBefore);
+        appendCondition(conditions, params, "completed_on >= ?", completedFrom);
+        appendCondition(conditions, params, "completed_on < ?", completedBefore);
+        appendCondition(conditions, params, "estimate >= ?", minEstimate);
+        appendCondition(conditions, params, "estimate <= ?", maxEstimate);
+
+        if (namePrefix != null) {
+            appendCondition(conditions, params, "name LIKE ? ESCAPE '" + LIKE_ESCAPE + "'", escapeLike(namePrefix) + "%");
+        }
+
+        if (after != null) {
+            // the value goes last as a name may contain the cursor separator
+            String[] cursor = PageCursor.decode(after, 3);
+            if (!sortKey.equals(cursor[0])) {
+                throw new GeneralException("Invalid page cursor: " + after);
+            }
+
+            Object value = SORT_NAME.equals(sortKey) ? cursor[2] : PageCursor.toLong(cursor[2]);
+            String comparison = descending ? " < ?" : " > ?";
+
+            conditions.append(" AND (").append(column).append(comparison)
+                      .append(" OR (").append(column).append(" = ? AND id").append(comparison).append("))");
+
+            params.add(value);
+            params.add(value);
+            params.add(cursor[1]);
+        }
+
+        String direction = descending ? " DESC" : " ASC";
+
+        return String.format(TodoQuery.FILTERED_TODOS, conditions, column + direction + ", id" + direction);
+    }
+
+    /**
+     * Gets the cursor pointing after the last todo in a page.
+     *
+     * @param last The last todo in the page.
+     * @return The cursor.
+     */
+    String getNextCursor(Todo last) {
+        String sortKey = getSortKey();
+
+        Object value;
+        if (SORT_NAME.equals(sortKey)) {
+            value = last.getName();
+        } else if (SORT_COMPLETED_ON.equals(sortKey)) {
+            value = last.getCompletedOn();
+        } else {
+            value = last.getCreated();
+        }
+
+        return PageCursor.encode(sortKey, last.getId(), value);
+    }
+
+    /**
+     * Gets the sort key in effect.
+     *
+     * @return The sort key.
+     */
+    private String getSortKey() {
+        return sort == null ? SORT_CREATED : sort;
+    }
+
+    /**
+     * Appends a condition and its value if the value was specified.
+     *
+     * @param conditions The conditions.
+     * @param params The query parameters.
+     * @param condition The condition.
+     * @param value The value or null.
+     */
+    private void appendCondition(StringBuilder conditions, List<Object> params, String condition, Object value) {
+        if (value != null) {
+            conditions.append(" AND ").append(condition);
+            params.add(value);
+        }
+    }
+
+    /**
+     * Escapes the wildcards of a LIKE pattern.
+     *
+     * @param value The value.
+     * @return The escaped value.
+     */
+    private String escapeLike(String value) {
+        StringBuilder escaped = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == LIKE_ESCAPE || c == '%' || c == '_') {
+                escaped.append(LIKE_ESCAPE);
+            }
+
+            escaped.append(c);
+        }
+
+        return escaped.toString();
+    }
+
+}
+
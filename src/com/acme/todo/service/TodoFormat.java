@@ -0,0 +1,468 @@
+
+package com.acme.todo.service;
+
+import com.acme.todo.util.CsvReader;
+import com.acme.todo.util.CsvWriter;
+import com.acme.todo.util.JsonReader;
+import com.acme.todo.util.JsonWriter;
+
+import sailpoint.tools.GeneralException;
+import sailpoint.tools.Util;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+
+import java.nio.charset.StandardCharsets;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The formats todos are exported and imported in. Both formats hold one
+ * todo per record with the same fields as the todo listing, so a record
+ * can be written or read without looking at any other record.
+ */
+public enum TodoFormat {
+
+    /**
+     * Newline delimited JSON, one todo object per line.
+     */
+    NDJSON("ndjson", "application/x-ndjson") {
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        TodoWriter newWriter(OutputStream outputStream) {
+            final JsonWriter json = new JsonWriter(outputStream);
+
+            return new TodoWriter() {
+                @Override
+                public void write(Todo todo) throws IOException {
+                    json.beginObject()
+                        .name(FIELD_ID).value(todo.getId())
+                        .name(FIELD_USER_ID).value(todo.getUserId())
+                        .name(FIELD_NAME).value(todo.getName())
+                        .name(FIELD_ESTIMATE).value(todo.getEstimate())
+                        .name(FIELD_NOTES).value(todo.getNotes())
+                        .name(FIELD_COMPLETE).value(todo.isComplete())
+                        .name(FIELD_CREATED).value(todo.getCreated())
+                        .name(FIELD_COMPLETED_ON).value(todo.getCompletedOn())
+                        .endObject()
+                        .newline();
+                }
+
+                @Override
+                public void flush() throws IOException {
+                    json.flush();
+                }
+            };
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        RecordReader newReader(InputStream inputStream) {
+            final BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8));
+
+            return new RecordReader() {
+                private int line;
+
+                @Override
+                public Map<String, Object> next() throws GeneralException, IOException {
+                    String text;
+                    do {
+                        text = reader.readLine();
+                        line++;
+                    } while (text != null && text.trim().isEmpty());
+
+                    return text == null ? null : JsonReader.readObject(text);
+                }
+
+                @Override
+                public int getLine() {
+                    return line;
+                }
+            };
+        }
+
+    },
+
+    /**
+     * Comma separated values with a header record naming the fields.
+     */
+    CSV("csv", "text/csv") {
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        TodoWriter newWriter(OutputStream outputStream) {
+            final CsvWriter csv = new CsvWriter(outputStream);
+
+            return new TodoWriter() {
+                private boolean header;
+
+                @Override
+                public void write(Todo todo) throws IOException {
+                    if (!header) {
+                        for (String field : FIELDS) {
+                            csv.field(field);
+                        }
+
+                        csv.endRecord();
+                        header = true;
+                    }
+
+                    csv.field(todo.getId())
+                       .field(todo.getUserId())
+                       .field(todo.getName())
+                       .field(todo.getEstimate())
+                       .field(todo.getNotes())
+                       .field(Boolean.toString(todo.isComplete()))
+                       .field(todo.getCreated())
+                       .field(todo.getCompletedOn())
+                       .endRecord();
+                }
+
+                @Override
+                public void flush() throws IOException {
+                    csv.flush();
+                }
+            };
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        RecordReader newReader(InputStream inputStream) {
+            final CsvReader csv = new CsvReader(
+                new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8))
+            );
+
+            return new RecordReader() {
+                private List<String> header;
+
+                @Override
+                public Map<String, Object> next() throws GeneralException, IOException {
+                    if (header == null) {
+                        header = csv.readRecord();
+                        if (header == null) {
+                            return null;
+                        }
+                    }
+
+                    List<String> fields = csv.readRecord();
+                    if (fields == null) {
+                        return null;
+                    }
+
+                    if (fields.size() != header.size()) {
+                        throw new GeneralException("Expected " + header.size() + " fields but found " + fields.size());
+                    }
+
+                    Map<String, Object> record = new HashMap<>();
+                    for (int i = 0; i < fields.size(); i++) {
+                        record.put(header.get(i), fields.get(i));
+                    }
+
+                    return record;
+                }
+
+                @Override
+                public int getLine() {
+                    return csv.getRecordLine();
+                }
+            };
+        }
+
+    };
+
+    /**
+     * The id field.
+     */
+    static final String FIELD_ID = "id";
+
+    /**
+     * The user id field.
+     */
+    static final String FIELD_USER_ID = "userId";
+
+    /**
+     * The name field.
+     */
+    static final String FIELD_NAME = "name";
+
+    /**
+     * The estimate field.
+     */
+    static final String FIELD_ESTIMATE = "estimate";
+
+    /**
+     * The notes field.
+     */
+    static final String FIELD_NOTES = "notes";
+
+    /**
+     * The completion flag field.
+     */
+    static final String FIELD_COMPLETE = "complete";
+
+    /**
+     * The created timestamp field.
+     */
+    static final String FIELD_CREATED = "created";
+
+    /**
+     * The completed on timestamp field.
+     */
+    static final String FIELD_COMPLETED_ON = "completedOn";
+
+    /**
+     * The fields of a record in the order they are written.
+     */
+    private static final List<String> FIELDS = Arrays.asList(
+        FIELD_ID, FIELD_USER_ID, FIELD_NAME, FIELD_ESTIMATE, FIELD_NOTES, FIELD_COMPLETE, FIELD_CREATED, FIELD_COMPLETED_ON
+    );
+
+    /**
+     * The size of the id and user id columns.
+     */
+    private static final int MAX_ID_LENGTH = 32;
+
+    /**
+     * The size of the name column.
+     */
+    private static final int MAX_NAME_LENGTH = 255;
+
+    /**
+     * The size of the notes column.
+     */
+    private static final int MAX_NOTES_LENGTH = 1024;
+
+    /**
+     * The name used to select the format.
+     */
+    private String name;
+
+    /**
+     * The media type of the format.
+     */
+    private String mediaType;
+
+    /**
+     * Constructor.
+     *
+     * @param name The name used to select the format.
+     * @param mediaType The media type.
+     */
+    TodoFormat(String name, String mediaType) {
+        this.name = name;
+        this.mediaType = mediaType;
+    }
+
+    /**
+     * Gets the format with a name.
+     *
+     * @param name The name, ndjson or csv.
+     * @return The format.
+     * @throws GeneralException If there is no format with the name.
+     */
+    public static TodoFormat forName(String name) throws GeneralException {
+        for (TodoFormat format : values()) {
+            if (format.name.equalsIgnoreCase(name)) {
+                return format;
+            }
+        }
+
+        throw new GeneralException("Unknown todo format: " + name);
+    }
+
+    /**
+     * Gets the name used to select the format, which is also its file extension.
+     *
+     * @return The name.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Gets the media type of the format.
+     *
+     * @return The media type.
+     */
+    public String getMediaType() {
+        return mediaType;
+    }
+
+    /**
+     * Creates a todo from the fields of a record, checking them against the
+     * todo table so that a bad record fails on its own rather than failing
+     * the batch it is inserted with. A missing id is generated, a missing
+     * created timestamp and the missing completed on timestamp of a
+     * completed todo are set to the time of the import and a missing name
+     * is left empty for the caller to default.
+     *
+     * @param record The fields of the record keyed by name.
+     * @param now The time of the import.
+     * @return The todo.
+     * @throws GeneralException If a field has an invalid value.
+     */
+    static Todo toTodo(Map<String, Object> record, long now) throws GeneralException {
+        Todo todo = new Todo();
+
+        String id = getString(record, FIELD_ID, MAX_ID_LENGTH);
+        todo.setId(Util.isNullOrEmpty(id) ? Util.uuid() : id);
+
+        String userId = getString(record, FIELD_USER_ID, MAX_ID_LENGTH);
+        if (Util.isNullOrEmpty(userId)) {
+            throw new GeneralException("The " + FIELD_USER_ID + " field is required");
+        }
+
+        todo.setUserId(userId);
+        todo.setName(getString(record, FIELD_NAME, MAX_NAME_LENGTH));
+        todo.setNotes(getString(record, FIELD_NOTES, MAX_NOTES_LENGTH));
+
+        long estimate = getLong(record, FIELD_ESTIMATE);
+        if (estimate < 0 || estimate > Integer.MAX_VALUE) {
+            throw new GeneralException("Invalid " + FIELD_ESTIMATE + ": " + estimate);
+        }
+
+        todo.setEstimate((int) estimate);
+
+        long created = getLong(record, FIELD_CREATED);
+        todo.setCreated(created > 0 ? created : now);
+
+        Object complete = record.get(FIELD_COMPLETE);
+        if (Boolean.TRUE.equals(complete) || "true".equals(complete)) {
+            long completedOn = getLong(record, FIELD_COMPLETED_ON);
+
+            todo.setComplete(true);
+            todo.setCompletedOn(completedOn > 0 ? completedOn : now);
+        } else if (complete != null && !Boolean.FALSE.equals(complete) && !"false".equals(complete) && !"".equals(complete)) {
+            throw new GeneralException("Invalid " + FIELD_COMPLETE + ": " + complete);
+        }
+
+        return todo;
+    }
+
+    /**
+     * Gets a text field of a record.
+     *
+     * @param record The record.
+     * @param field The field.
+     * @param maxLength The maximum length.
+     * @return The value or null if the field is missing.
+     * @throws GeneralException If the value is not text or is too long.
+     */
+    private static String getString(Map<String, Object> record, String field, int maxLength) throws GeneralException {
+        Object value = record.get(field);
+        if (value != null && !(value instanceof String)) {
+            throw new GeneralException("The " + field + " field must be a string");
+        }
+
+        String text = (String) value;
+        if (text != null && text.length() > maxLength) {
+            throw new GeneralException("The " + field + " field is longer than " + maxLength + " characters");
+        }
+
+        return text;
+    }
+
+    /**
+     * Gets a numeric field of a record.
+     *
+     * @param record The record.
+     * @param field The field.
+     * @return The value or zero if the field is missing or empty.
+     * @throws GeneralException If the value is not a whole number.
+     */
+    private static long getLong(Map<String, Object> record, String field) throws GeneralException {
+        Object value = record.get(field);
+        if (value == null || "".equals(value)) {
+            return 0;
+        }
+
+        if (value instanceof Long) {
+            return (Long) value;
+        }
+
+        try {
+            return Long.parseLong(value.toString());
+        } catch (NumberFormatException e) {
+            throw new GeneralException("Invalid " + field + ": " + value);
+        }
+    }
+
+    /**
+     * Creates a writer which writes todos to a stream in this format.
+     *
+     * @param outputStream The output stream.
+     * @return The writer.
+     */
+    abstract TodoWriter newWriter(OutputStream outputStream);
+
+    /**
+     * Creates a reader which reads the records of a stream in this format.
+     *
+     * @param inputStream The input stream.
+     * @return The reader.
+     */
+    abstract RecordReader newReader(InputStream inputStream);
+
+    /**
+     * Writes todos one record at a time.
+     */
+    interface TodoWriter {
+
+        /**
+         * Writes a todo.
+         *
+         * @param todo The todo.
+         * @throws IOException
+         */
+        void write(Todo todo) throws IOException;
+
+        /**
+         * Flushes the buffered records to the stream.
+         *
+         * @throws IOException
+         */
+        void flush() throws IOException;
+
+    }
+
+    /**
+     * Reads the records of a stream one at a time.
+     */
+    interface RecordReader {
+
+        /**
+         * Reads the next record. A malformed record fails on its own and
+         * reading can go on with the record after it.
+         *
+         * @return The fields of the record keyed by name or null at the end of the stream.
+         * @throws GeneralException If the record is malformed.
+         * @throws IOException
+         */
+        Map<String, Object> next() throws GeneralException, IOException;
+
+        /**
+         * Gets the line the last record read started on.
+         *
+         * @return The line.
+         */
+        int getLine();
+
+    }
+
+}
+
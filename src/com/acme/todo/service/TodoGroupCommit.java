@@ -0,0 +1,214 @@
+
+package com.acme.todo.service;
+
+import sailpoint.tools.GeneralException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Combines the todo operations of concurrent requests into groups that
+ * are executed as one batch in a single transaction, so a burst of
+ * requests shares one commit instead of paying for one commit each.
+ *
+ * No thread is started for this. The first request to arrive leads the
+ * group: it waits until the window has passed or the group is full,
+ * executes the group with its own service and hands every request in
+ * the group its result. The other requests block until then, so each
+ * of them still sees its own success or failure. Instances are meant
+ * to be held statically so all requests share them.
+ */
+class TodoGroupCommit {
+
+    /**
+     * Lock guarding the open group.
+     */
+    private final Object lock = new Object();
+
+    /**
+     * The group new operations are added to or null if there is none.
+     */
+    private Group open;
+
+    /**
+     * Adds an operation to the open group, starting a new group if there
+     * is none, and waits for the group to be executed.
+     *
+     * @param todoService The service used to execute the group if this request leads it.
+     * @param operation The operation.
+     * @param windowMillis The milliseconds the group stays open for more operations.
+     * @param maxSize The maximum number of operations in a group.
+     * @return The result of the operation.
+     * @throws GeneralException If the operation failed.
+     */
+    TodoOperationResult execute(TodoService todoService, TodoOperation operation, long windowMillis, int maxSize)
+        throws GeneralException {
+
+        Group group;
+        int index;
+        boolean leader;
+
+        synchronized (lock) {
+            leader = open == null;
+            if (leader) {
+                open = new Group();
+            }
+
+            group = open;
+            index = group.operations.size();
+            group.operations.add(operation);
+
+            if (group.operations.size() >= maxSize) {
+                open = null;
+                lock.notifyAll();
+            }
+        }
+
+        if (leader) {
+            awaitClose(group, windowMillis);
+            group.execute(todoService);
+        }
+
+        return group.getResult(index);
+    }
+
+    /**
+     * Waits until the window of the group has passed or the group was closed because it filled up.
+     *
+     * @param group The group.
+     * @param windowMillis The milliseconds the group stays open.
+     */
+    private void awaitClose(Group group, long windowMillis) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(windowMillis);
+
+        synchronized (lock) {
+            try {
+                long remaining = windowMillis;
+                while (open == group && remaining > 0) {
+                    lock.wait(remaining);
+                    remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                if (open == group) {
+                    open = null;
+                }
+            }
+        }
+    }
+
+    /**
+     * A group of operations executed together.
+     */
+    private static class Group {
+
+        /**
+         * The operations in the order they were added.
+         */
+        private final List<TodoOperation> operations = new ArrayList<>();
+
+        /**
+         * Latch released once the group has been executed.
+         */
+        private final CountDownLatch done = new CountDownLatch(1);
+
+        /**
+         * The result of each operation.
+         */
+        private TodoOperationResult[] results;
+
+        /**
+         * The failure of each operation that failed.
+         */
+        private GeneralException[] errors;
+
+        /**
+         * Executes the operations in one batch. If the batch fails every
+         * operation is executed on its own so that one bad operation does
+         * not fail the requests it happened to be grouped with.
+         *
+         * @param todoService The service.
+         */
+        private void execute(TodoService todoService) {
+            results = new TodoOperationResult[operations.size()];
+            errors = new GeneralException[operations.size()];
+
+            try {
+                todoService.executeOperations(operations).toArray(results);
+            } catch (GeneralException e) {
+                executeEach(todoService, e);
+            } catch (RuntimeException e) {
+                executeEach(todoService, new GeneralException(e));
+            } finally {
+                done.countDown();
+            }
+        }
+
+        /**
+         * Executes each operation in its own transaction after the batch
+         * failed, recording the failure of each operation that fails again.
+         * A group of one operation is not run again, it gets the failure of
+         * the batch.
+         *
+         * @param todoService The service.
+         * @param batchError The failure of the batch.
+         */
+        private void executeEach(TodoService todoService, GeneralException batchError) {
+            if (operations.size() == 1) {
+                errors[0] = batchError;
+                return;
+            }
+
+            for (int i = 0; i < operations.size(); i++) {
+                try {
+                    results[i] = todoService.executeOperations(Collections.singletonList(operations.get(i))).get(0);
+                } catch (GeneralException e) {
+                    errors[i] = e;
+                } catch (RuntimeException e) {
+                    errors[i] = new GeneralException(e);
+                }
+            }
+        }
+
+        /**
+         * Waits for the group to be executed and gets the result of an operation.
+         *
+         * @param index The index of the operation in the group.
+         * @return The result.
+         * @throws GeneralException If the operation failed.
+         */
+        private TodoOperationResult getResult(int index) throws GeneralException {
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    done.await();
+                    break;
+                } catch (InterruptedException e) {
+                    // the leader may already have written the operation, so keep waiting for the outcome
+                    interrupted = true;
+                }
+            }
+
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+
+            if (errors[index] != null) {
+                throw errors[index];
+            }
+
+            if (results[index] == null) {
+                throw new GeneralException("The group the todo operation was part of did not complete");
+            }
+
+            return results[index];
+        }
+
+    }
+
+}
+
@@ -0,0 +1,114 @@
+
+package com.acme.todo.service;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Class containing the outcome of a todo import.
+ */
+public class TodoImportReport {
+
+    /**
+     * The maximum number of errors kept in the report, the rest are only counted.
+     */
+    private static final int MAX_ERRORS = 100;
+
+    /**
+     * The number of todos imported.
+     */
+    private int imported;
+
+    /**
+     * The number of todos skipped because a todo with the same id exists.
+     */
+    private int skipped;
+
+    /**
+     * The number of records which could not be imported.
+     */
+    private int failed;
+
+    /**
+     * The number of transactions committed.
+     */
+    private int batches;
+
+    /**
+     * The first errors, each naming the line of the record.
+     */
+    private List<String> errors = new ArrayList<>();
+
+    /**
+     * Adds the outcome of a committed batch.
+     *
+     * @param imported The number of todos imported.
+     * @param skipped The number of todos skipped.
+     */
+    void addBatch(int imported, int skipped) {
+        this.imported += imported;
+        this.skipped += skipped;
+        this.batches++;
+    }
+
+    /**
+     * Adds a record which could not be imported.
+     *
+     * @param line The line the record starts on.
+     * @param message The reason.
+     */
+    void addError(int line, String message) {
+        failed++;
+
+        if (errors.size() < MAX_ERRORS) {
+            errors.add("Line " + line + ": " + message);
+        }
+    }
+
+    /**
+     * Gets the number of todos imported.
+     *
+     * @return The count.
+     */
+    public int getImported() {
+        return imported;
+    }
+
+    /**
+     * Gets the number of todos skipped because a todo with the same id exists.
+     *
+     * @return The count.
+     */
+    public int getSkipped() {
+        return skipped;
+    }
+
+    /**
+     * Gets the number of records which could not be imported.
+     *
+     * @return The count.
+     */
+    public int getFailed() {
+        return failed;
+    }
+
+    /**
+     * Gets the number of transactions committed.
+     *
+     * @return The count.
+     */
+    public int getBatches() {
+        return batches;
+    }
+
+    /**
+     * Gets the first errors, each naming the line of the record.
+     *
+     * @return The errors.
+     */
+    public List<String> getErrors() {
+        return errors;
+    }
+
+}
+
@@ -0,0 +1,137 @@
+
+package com.acme.todo.service;
+
+import com.acme.todo.service.TodoService.CreateTodoData;
+
+/**
+ * Class containing a single create, complete or delete operation
+ * that is executed as part of a batch.
+ */
+public class TodoOperation {
+
+    /**
+     * The types of operations.
+     */
+    public enum Type {
+
+        /**
+         * Creates a todo.
+         */
+        CREATE,
+
+        /**
+         * Completes a todo.
+         */
+        COMPLETE,
+
+        /**
+         * Deletes a todo.
+         */
+        DELETE
+
+    }
+
+    /**
+     * The operation type.
+     */
+    private Type type;
+
+    /**
+     * The data for a create operation.
+     */
+    private CreateTodoData data;
+
+    /**
+     * The todo for a complete or delete operation.
+     */
+    private Todo todo;
+
+    /**
+     * Creates an operation which creates a todo.
+     *
+     * @param data The todo data.
+     * @return The operation.
+     */
+    public static TodoOperation create(CreateTodoData data) {
+        TodoOperation operation = new TodoOperation();
+        operation.type = Type.CREATE;
+        operation.data = data;
+
+        return operation;
+    }
+
+    /**
+     * Creates an operation which completes a todo.
+     *
+     * @param todo The todo.
+     * @return The operation.
+     */
+    public static TodoOperation complete(Todo todo) {
+        TodoOperation operation = new TodoOperation();
+        operation.type = Type.COMPLETE;
+        operation.todo = todo;
+
+        return operation;
+    }
+
+    /**
+     * Creates an operation which deletes a todo.
+     *
+     * @param todo The todo.
+     * @return The operation.
+     */
+    public static TodoOperation delete(Todo todo) {
+        TodoOperation operation = new TodoOperation();
+        operation.type = Type.DELETE;
+        operation.todo = todo;
+
+        return operation;
+    }
+
+    /**
+     * Gets the operation type.
+     *
+     * @return The type.
+     */
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * Gets the data for a create operation.
+     *
+     * @return The data.
+     */
+    public CreateTodoData getData() {
+        return data;
+    }
+
+    /**
+     * Gets the todo for a complete or delete operation.
+     *
+     * @return The todo.
+     */
+    public Todo getTodo() {
+        return todo;
+    }
+
+    /**
+     * Gets the id of the todo the operation applies to.
+     *
+     * @return The todo id.
+     */
+    public String getTodoId() {
+        return type == Type.CREATE ? data.getId() : todo.getId();
+    }
+
+    /**
+     * Gets the id of the user who owns the todo.
+     *
+     * @return The user id.
+     */
+    public String getUserId() {
+        return type == Type.CREATE ? data.getUserId() : todo.getUserId();
+    }
+
+}
+
@@ -0,0 +1,116 @@
+
+package com.acme.todo.service;
+
+/**
+ * Class containing the outcome of a single operation in a batch.
+ */
+public class TodoOperationResult {
+
+    /**
+     * The operation type.
+     */
+    private String op;
+
+    /**
+     * The todo id.
+     */
+    private String id;
+
+    /**
+     * Flag indicating whether the operation changed the todo.
+     */
+    private boolean success;
+
+    /**
+     * The reason the operation did not succeed.
+     */
+    private String message;
+
+    /**
+     * The todo created by a create operation.
+     */
+    private Todo todo;
+
+    /**
+     * Creates a successful result.
+     *
+     * @param op The operation type.
+     * @param id The todo id.
+     * @param todo The created todo or null.
+     * @return The result.
+     */
+    public static TodoOperationResult success(String op, String id, Todo todo) {
+        TodoOperationResult result = new TodoOperationResult();
+        result.op = op;
+        result.id = id;
+        result.success = true;
+        result.todo = todo;
+
+        return result;
+    }
+
+    /**
+     * Creates a failed result.
+     *
+     * @param op The operation type.
+     * @param id The todo id.
+     * @param message The reason for the failure.
+     * @return The result.
+     */
+    public static TodoOperationResult failure(String op, String id, String message) {
+        TodoOperationResult result = new TodoOperationResult();
+        result.op = op;
+        result.id = id;
+        result.success = false;
+        result.message = message;
+
+        return result;
+    }
+
+    /**
+     * Gets the operation type.
+     *
+     * @return The operation type.
+     */
+    public String getOp() {
+        return op;
+    }
+
+    /**
+     * Gets the todo id.
+     *
+     * @return The todo id.
+     */
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * Determines if the operation changed the todo.
+     *
+     * @return True if successful, false otherwise.
+     */
+    public boolean isSuccess() {
+        return success;
+    }
+
+    /**
+     * Gets the reason the operation did not succeed.
+     *
+     * @return The message.
+     */
+    public String getMessage() {
+        return message;
+    }
+
+    /**
+     * Gets the todo created by a create operation.
+     *
+     * @return The todo.
+     */
+    public Todo getTodo() {
+        return todo;
+    }
+
+}
+
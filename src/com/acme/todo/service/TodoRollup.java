@@ -0,0 +1,187 @@
+
+package com.acme.todo.service;
+
+/**
+ * Class containing the todo activity within a period of time along with
+ * the open todos at the end of the period.
+ */
+public class TodoRollup {
+
+    /**
+     * The start of the period.
+     */
+    private long start;
+
+    /**
+     * The number of todos created.
+     */
+    private long created;
+
+    /**
+     * The number of todos completed.
+     */
+    private long completed;
+
+    /**
+     * The number of todos deleted.
+     */
+    private long deleted;
+
+    /**
+     * The estimate minutes of the todos created.
+     */
+    private long createdEstimate;
+
+    /**
+     * The estimate minutes of the todos completed.
+     */
+    private long completedEstimate;
+
+    /**
+     * The change in the number of open todos.
+     */
+    private long openDelta;
+
+    /**
+     * The change in the open estimate minutes.
+     */
+    private long estimateDelta;
+
+    /**
+     * The number of open todos at the end of the period.
+     */
+    private long openCount;
+
+    /**
+     * The open estimate minutes at the end of the period.
+     */
+    private long openEstimate;
+
+    /**
+     * Constructor.
+     *
+     * @param start The start of the period.
+     */
+    public TodoRollup(long start) {
+        this.start = start;
+    }
+
+    /**
+     * Adds the activity of an hour within the period.
+     *
+     * @param counters The created, completed, deleted, open delta, created estimate,
+     *                 completed estimate and estimate delta counters of the hour.
+     */
+    void add(long[] counters) {
+        created += counters[0];
+        completed += counters[1];
+        deleted += counters[2];
+        openDelta += counters[3];
+        createdEstimate += counters[4];
+        completedEstimate += counters[5];
+        estimateDelta += counters[6];
+    }
+
+    /**
+     * Sets the open todos at the end of the period.
+     *
+     * @param openCount The number of open todos.
+     * @param openEstimate The open estimate minutes.
+     */
+    void setOpen(long openCount, long openEstimate) {
+        this.openCount = openCount;
+        this.openEstimate = openEstimate;
+    }
+
+    /**
+     * Gets the change in the number of open todos during the period.
+     *
+     * @return The change.
+     */
+    long getOpenDelta() {
+        return openDelta;
+    }
+
+    /**
+     * Gets the change in the open estimate minutes during the period.
+     *
+     * @return The change.
+     */
+    long getEstimateDelta() {
+        return estimateDelta;
+    }
+
+    /**
+     * Gets the start of the period.
+     *
+     * @return The start.
+     */
+    public long getStart() {
+        return start;
+    }
+
+    /**
+     * Gets the number of todos created.
+     *
+     * @return The count.
+     */
+    public long getCreated() {
+        return created;
+    }
+
+    /**
+     * Gets the number of todos completed.
+     *
+     * @return The count.
+     */
+    public long getCompleted() {
+        return completed;
+    }
+
+    /**
+     * Gets the number of todos deleted.
+     *
+     * @return The count.
+     */
+    public long getDeleted() {
+        return deleted;
+    }
+
+    /**
+     * Gets the estimate minutes of the todos created.
+     *
+     * @return The minutes.
+     */
+    public long getCreatedEstimate() {
+        return createdEstimate;
+    }
+
+    /**
+     * Gets the estimate minutes of the todos completed.
+     *
+     * @return The minutes.
+     */
+    public long getCompletedEstimate() {
+        return completedEstimate;
+    }
+
+    /**
+     * Gets the number of open todos at the end of the period.
+     *
+     * @return The count.
+     */
+    public long getOpenCount() {
+        return openCount;
+    }
+
+    /**
+     * Gets the open estimate minutes at the end of the period.
+     *
+     * @return The minutes.
+     */
+    public long getOpenEstimate() {
+        return openEstimate;
+    }
+
+}
+
@@ -1,7 +1,11 @@
 
 package com.acme.todo.service;
 
+import com.acme.todo.util.JsonWriter;
+import com.acme.todo.util.PageCursor;
+import com.acme.todo.util.TodoMetrics;
 import com.acme.todo.util.TodoQuery;
+import com.acme.todo.util.TodoTerms;
 import com.acme.todo.util.TodoUtil;
 
 import sailpoint.plugin.PluginBaseHelper;
@@ -11,14 +15,29 @@ import sailpoint.tools.IOUtil;
 import sailpoint.tools.ObjectNotFoundException;
 import sailpoint.tools.Util;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.sql.Statement;
+import java.sql.Types;
 
 import java.util.ArrayList;
-import java.util.Date;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 
 /**
  * Service containing logic for todos.
@@ -37,6 +56,91 @@ public class TodoService {
      */
     private static final String SETTING_DEFAULT_TIME = "defaultTime";
 
+    /**
+     * Plugin configuration setting key for the group commit window in milliseconds.
+     */
+    private static final String SETTING_GROUP_COMMIT_WINDOW = "groupCommitWindow";
+
+    /**
+     * Plugin configuration setting key for the maximum number of mutations in a group commit.
+     */
+    private static final String SETTING_GROUP_COMMIT_MAX_SIZE = "groupCommitMaxSize";
+
+    /**
+     * The default maximum number of mutations in a group commit.
+     */
+    public static final int DEFAULT_GROUP_COMMIT_MAX_SIZE = 100;
+
+    /**
+     * The default number of completed todos deleted per transaction.
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 1000;
+
+    /**
+     * Cursor phase for a page that ended in the open todos.
+     */
+    private static final String PHASE_OPEN = "o";
+
+    /**
+     * Cursor phase for a page that ended in the completed todos.
+     */
+    private static final String PHASE_COMPLETED = "c";
+
+    /**
+     * The maximum number of ids bound into a single IN list.
+     */
+    public static final int MAX_IN_LIST_SIZE = 500;
+
+    /**
+     * The number of rows fetched from the database at a time when streaming.
+     * MySQL only honors it with useCursorFetch=true in the connection URL,
+     * otherwise the rows are streamed one at a time.
+     */
+    public static final int STREAM_FETCH_SIZE = 500;
+
+    /**
+     * The number of rows fetched from the database at a time when exporting.
+     * MySQL only honors it with useCursorFetch=true in the connection URL,
+     * otherwise the rows are streamed one at a time.
+     */
+    public static final int EXPORT_FETCH_SIZE = 5000;
+
+    /**
+     * The default number of todos inserted per transaction when importing.
+     */
+    public static final int DEFAULT_IMPORT_BATCH_SIZE = 500;
+
+    /**
+     * The default number of days changes are kept in the change log.
+     */
+    public static final int DEFAULT_CHANGE_RETENTION_DAYS = 30;
+
+    /**
+     * The maximum number of query terms used by a search.
+     */
+    private static final int MAX_SEARCH_TERMS = 8;
+
+    /**
+     * The factor applied to the weight of a term matching a query term exactly rather than by prefix.
+     */
+    private static final int EXACT_MATCH_FACTOR = 2;
+
+    /**
+     * Groups the single todo mutations of concurrent requests when group commit is enabled.
+     */
+    private static final TodoGroupCommit GROUP_COMMIT = new TodoGroupCommit();
+
+    /**
+     * Whether the driver reports the update count of each statement in a
+     * batch, null until the first counted batch has run.
+     */
+    private static volatile Boolean batchCountsReported;
+
+    /**
+     * The metrics of the service methods, recorded from where each method gets its connection to where it closes it.
+     */
+    private static final TodoMetrics.Component METRICS = TodoMetrics.component("TodoService");
+
     /**
      * Class containing data needed to create a todo.
      */
@@ -159,6 +263,184 @@ public class TodoService {
 
     } 
 
+    /**
+     * Class accumulating the change to the counts of a user.
+     */
+    private static class UserStatsDelta {
+
+        /**
+         * The change in open todos.
+         */
+        private int open;
+
+        /**
+         * The change in total todos.
+         */
+        private int total;
+
+        /**
+         * The change in the open estimate minutes.
+         */
+        private long estimate;
+
+        /**
+         * The number of todos created.
+         */
+        private int created;
+
+        /**
+         * The number of todos completed.
+         */
+        private int completed;
+
+        /**
+         * The number of todos deleted.
+         */
+        private int deleted;
+
+        /**
+         * The estimate minutes of the todos created.
+         */
+        private long createdEstimate;
+
+        /**
+         * The estimate minutes of the todos completed.
+         */
+        private long completedEstimate;
+
+        /**
+         * Adds a single change to a todo.
+         *
+         * @param type The kind of change.
+         * @param wasOpen True if the todo was open before the change.
+         * @param todoEstimate The estimate of the todo.
+         */
+        private void add(TodoOperation.Type type, boolean wasOpen, long todoEstimate) {
+            switch (type) {
+                case CREATE:
+                    open++;
+                    total++;
+                    estimate += todoEstimate;
+                    created++;
+                    createdEstimate += todoEstimate;
+                    break;
+                case COMPLETE:
+                    open--;
+                    estimate -= todoEstimate;
+                    completed++;
+                    completedEstimate += todoEstimate;
+                    break;
+                default:
+                    total--;
+                    deleted++;
+                    if (wasOpen) {
+                        open--;
+                        estimate -= todoEstimate;
+                    }
+            }
+        }
+
+    }
+
+    /**
+     * Class reading todos from the rows of a result set. The columns are
+     * looked up once per result set rather than by label on every row.
+     */
+    private static class TodoRowReader {
+
+        /**
+         * The result set.
+         */
+        private final ResultSet resultSet;
+
+        /**
+         * The todo filled from every row or null to create a todo per row.
+         */
+        private final Todo flyweight;
+
+        /**
+         * The index of the id column.
+         */
+        private final int id;
+
+        /**
+         * The index of the user id column.
+         */
+        private final int userId;
+
+        /**
+         * The index of the name column.
+         */
+        private final int name;
+
+        /**
+         * The index of the estimate column.
+         */
+        private final int estimate;
+
+        /**
+         * The index of the notes column.
+         */
+        private final int notes;
+
+        /**
+         * The index of the complete column.
+         */
+        private final int complete;
+
+        /**
+         * The index of the created column.
+         */
+        private final int created;
+
+        /**
+         * The index of the completed on column.
+         */
+        private final int completedOn;
+
+        /**
+         * Constructor.
+         *
+         * @param resultSet The result set.
+         * @param reuse True to fill the same todo from every row.
+         * @throws SQLException
+         */
+        private TodoRowReader(ResultSet resultSet, boolean reuse) throws SQLException {
+            this.resultSet = resultSet;
+            this.flyweight = reuse ? new Todo() : null;
+
+            id = resultSet.findColumn("id");
+            userId = resultSet.findColumn("user_id");
+            name = resultSet.findColumn("name");
+            estimate = resultSet.findColumn("estimate");
+            notes = resultSet.findColumn("notes");
+            complete = resultSet.findColumn("complete");
+            created = resultSet.findColumn("created");
+            completedOn = resultSet.findColumn("completed_on");
+        }
+
+        /**
+         * Reads the todo in the current row.
+         *
+         * @return The todo.
+         * @throws SQLException
+         */
+        private Todo read() throws SQLException {
+            Todo todo = flyweight != null ? flyweight : new Todo();
+            todo.setId(resultSet.getString(id));
+            todo.setUserId(resultSet.getString(userId));
+            todo.setName(resultSet.getString(name));
+            todo.setEstimate(resultSet.getInt(estimate));
+            todo.setNotes(resultSet.getString(notes));
+            todo.setComplete(resultSet.getBoolean(complete));
+            todo.setCreated(resultSet.getLong(created));
+            todo.setCompletedOn(resultSet.getLong(completedOn));
+
+            return todo;
+        }
+
+    }
+
     /**
      * The plugin context.
      */
@@ -181,318 +463,2461 @@ public class TodoService {
      * @throws GeneralException
      */
     public List<Todo> getTodosForUser(String userId) throws GeneralException {
+        long rows = 0;
+
         Connection connection = null;
         PreparedStatement statement = null;
 
         try {
-            connection = pluginContext.getConnection();
+            connection = METRICS.getConnection(pluginContext, "getTodosForUser");
 
             statement = PluginBaseHelper.prepareStatement(connection, TodoQuery.TODOS, userId);
             ResultSet resultSet = statement.executeQuery();
 
+            TodoRowReader reader = new TodoRowReader(resultSet, false);
+
             List<Todo> todos = new ArrayList<>();
             while (resultSet.next()) {
-                todos.add(todoFromResult(resultSet));
+                todos.add(reader.read());
             }
 
+            rows = todos.size();
+
             return todos;
         } catch (SQLException e) {
             throw new GeneralException(e);
         } finally {
             IOUtil.closeQuietly(statement);
-            IOUtil.closeQuietly(connection);
+            METRICS.close(connection, rows);
         }
     }
 
     /**
-     * Gets the specified todo.
+     * Writes all todos for a user as JSON objects directly from the result
+     * set, in the same order as getTodosForUser, so the memory used does not
+     * grow with the number of todos. The connection is held until the last
+     * row has been written.
      *
-     * @param todoId The todo id.
-     * @return The todo.
+     * @param userId The user id.
+     * @param json The writer, positioned inside an array.
+     * @return The number of todos written.
      * @throws GeneralException
+     * @throws IOException If the output could not be written.
      */
-    public Todo getTodo(String todoId) throws GeneralException {
+    public int writeTodosForUser(String userId, final JsonWriter json) throws GeneralException, IOException {
+        long rows = 0;
+
         Connection connection = null;
-        PreparedStatement statement = null;
 
         try {
-            connection = pluginContext.getConnection();
-
-            statement = PluginBaseHelper.prepareStatement(connection, TodoQuery.TODO, todoId);
+            connection = METRICS.getConnection(pluginContext, "writeTodosForUser");
+
+            int count = streamTodos(connection, TodoQuery.TODOS, STREAM_FETCH_SIZE, true, new RowVisitor<Todo>() {
+                @Override
+                public boolean visit(Todo todo) throws IOException {
+                    json.beginObject()
+                        .name("id").value(todo.getId())
+                        .name("userId").value(todo.getUserId())
+                        .name("name").value(todo.getName())
+                        .name("estimate").value(todo.getEstimate())
+                        .name("notes").value(todo.getNotes())
+                        .name("complete").value(todo.isComplete())
+                        .name("created").value(todo.getCreated())
+                        .name("completedOn").value(todo.getCompletedOn())
+                        .endObject();
+
+                    return true;
+                }
+            }, userId);
+
+            rows = count;
 
-            ResultSet resultSet = statement.executeQuery();
-            if (resultSet.next()) {
-                return todoFromResult(resultSet);
-            } else {
-                throw new ObjectNotFoundException();
-            }
+            return count;
         } catch (SQLException e) {
             throw new GeneralException(e);
         } finally {
-            IOUtil.closeQuietly(statement);
-            IOUtil.closeQuietly(connection);
+            METRICS.close(connection, rows);
         }
     }
 
     /**
-     * Creates a new todo with the specified data.
+     * Streams all todos, or all todos of a user, to a visitor straight from
+     * a forward only result set, so the memory used does not depend on the
+     * number of todos. The connection is held until the visitor has seen
+     * the last todo or asked to stop.
      *
-     * @param data The todo data.
-     * @return The todo.
+     * @param userId The user id or null for the todos of all users, in no particular order.
+     * @param fetchSize The number of rows fetched from the database at a time.
+     * @param reuse True to pass the same todo for every row, which is then only valid during the visit.
+     * @param visitor The visitor.
+     * @return The number of todos visited.
      * @throws GeneralException
+     * @throws IOException If the visitor failed to write a todo.
      */
-    public Todo createTodo(CreateTodoData data) throws GeneralException {
-        Connection connection = null;
-        PreparedStatement statement = null;
-        
-        try {
-            connection = pluginContext.getConnection();
+    public int visitTodos(String userId, int fetchSize, boolean reuse, RowVisitor<Todo> visitor)
+        throws GeneralException, IOException {
+        long rows = 0;
 
-            String name = data.getName();
-            if (Util.isNullOrEmpty(name)) {
-                name = getTodoDefaultName();
-            }
+        Connection connection = null;
 
-            int estimate = data.getEstimate();
-            if (estimate <= 0) {
-                estimate = getTodoDefaultEstimate();
-            }
+        try {
+            connection = METRICS.getConnection(pluginContext, "visitTodos");
 
-            statement = PluginBaseHelper.prepareStatement(
-                connection, TodoQuery.ADD, data.getId(), data.getUserId(),
-                name, estimate, data.getNotes(), false, TodoUtil.now()
-            );
+            rows = userId == null ?
+                streamTodos(connection, TodoQuery.ALL_TODOS, fetchSize, reuse, visitor) :
+                streamTodos(connection, TodoQuery.TODOS, fetchSize, reuse, visitor, userId);
 
-            statement.executeUpdate();
+            return (int) rows;
         } catch (SQLException e) {
             throw new GeneralException(e);
         } finally {
-            IOUtil.closeQuietly(statement);
-            IOUtil.closeQuietly(connection);
+            METRICS.close(connection, rows);
         }
-
-        return getTodo(data.getId());
     }
 
     /**
-     * Completes the specified todo.
+     * Gets a page of todos for a user. Open todos come first, ordered by
+     * created, followed by completed todos ordered by completed on and
+     * created. The id breaks ties so the order is stable across pages.
      *
-     * @param todo The todo.
+     * @param userId The user id.
+     * @param limit The maximum number of todos in the page.
+     * @param after The cursor returned with the previous page or null for the first page.
+     * @return The page.
      * @throws GeneralException
      */
-    public void completeTodo(Todo todo) throws GeneralException {
+    public Page<Todo> getTodosForUser(String userId, int limit, String after) throws GeneralException {
+        long rows = 0;
+
         Connection connection = null;
-        PreparedStatement statement = null;
 
         try {
-            connection = pluginContext.getConnection();
+            connection = METRICS.getConnection(pluginContext, "getTodosForUserPage");
 
-            statement = PluginBaseHelper.prepareStatement(connection, TodoQuery.COMPLETE, TodoUtil.now(), todo.getId());
-            statement.executeUpdate();
-        } catch (SQLException e) {
-            throw new GeneralException(e);
-        } finally {
-            IOUtil.closeQuietly(statement);
-            IOUtil.closeQuietly(connection);
-        }
-    }
+            List<Todo> todos = new ArrayList<>();
 
-    /**
-     * Deletes the specified todo.
-     *
-     * @param todo The todo.
-     * @throws GeneralException
-     */
-    public void deleteTodo(Todo todo) throws GeneralException {
-        Connection connection = null;
-        PreparedStatement statement = null;
+            String[] cursor = after == null ? null : PageCursor.decode(after, 4);
+            boolean inOpen = cursor == null || PHASE_OPEN.equals(cursor[0]);
 
-        try {
-            connection = pluginContext.getConnection();
+            if (inOpen) {
+                PreparedStatement statement = cursor == null ?
+                    PluginBaseHelper.prepareStatement(connection, TodoQuery.OPEN_TODOS_FIRST_PAGE, userId) :
+                    PluginBaseHelper.prepareStatement(
+                        connection, TodoQuery.OPEN_TODOS_PAGE, userId,
+                        PageCursor.toLong(cursor[2]), PageCursor.toLong(cursor[2]), cursor[3]
+                    );
 
-            statement = PluginBaseHelper.prepareStatement(connection, TodoQuery.DELETE, todo.getId());
-            statement.executeUpdate();
+                if (fillPage(statement, todos, limit)) {
+                    rows = todos.size();
+                    return new Page<>(todos, getNextCursor(todos));
+                }
+
+                cursor = null;
+            }
+
+            PreparedStatement statement = cursor == null ?
+                PluginBaseHelper.prepareStatement(connection, TodoQuery.COMPLETED_TODOS_FIRST_PAGE, userId) :
+                PluginBaseHelper.prepareStatement(
+                    connection, TodoQuery.COMPLETED_TODOS_PAGE, userId,
+                    PageCursor.toLong(cursor[1]), PageCursor.toLong(cursor[1]),
+                    PageCursor.toLong(cursor[2]), PageCursor.toLong(cursor[2]), cursor[3]
+                );
+
+            boolean hasMore = fillPage(statement, todos, limit);
+
+            rows = todos.size();
+
+            return new Page<>(todos, hasMore ? getNextCursor(todos) : null);
         } catch (SQLException e) {
             throw new GeneralException(e);
         } finally {
-            IOUtil.closeQuietly(statement);
-            IOUtil.closeQuietly(connection);
+            METRICS.close(connection, rows);
         }
     }
 
     /**
-     * Deletes all todos for a user.
+     * Gets a page of the todos of a user matching a filter, in the order of
+     * the filter. The conditions are evaluated by the database so only the
+     * todos in the page are read.
      *
      * @param userId The user id.
+     * @param filter The filter.
+     * @param limit The maximum number of todos in the page.
+     * @param after The cursor returned with the previous page or null for the first page.
+     * @return The page.
      * @throws GeneralException
      */
-    public void deleteUserTodos(String userId) throws GeneralException {
+    public Page<Todo> getTodosForUser(String userId, TodoFilter filter, int limit, String after)
+        throws GeneralException {
+        long rows = 0;
+
         Connection connection = null;
-        PreparedStatement statement = null;
 
         try {
-            connection = pluginContext.getConnection();
+            List<Object> params = new ArrayList<>();
+            params.add(userId);
 
-            statement = PluginBaseHelper.prepareStatement(connection, TodoQuery.DELETE_USER, userId);
-            statement.executeUpdate();
+            String query = filter.toQuery(params, after);
+
+            connection = METRICS.getConnection(pluginContext, "getFilteredTodos");
+
+            List<Todo> todos = new ArrayList<>();
+
+            PreparedStatement statement = PluginBaseHelper.prepareStatement(connection, query, params.toArray());
+
+            boolean hasMore = fillPage(statement, todos, limit);
+
+            rows = todos.size();
+
+            return new Page<>(todos, hasMore ? filter.getNextCursor(todos.get(todos.size() - 1)) : null);
         } catch (SQLException e) {
             throw new GeneralException(e);
         } finally {
-            IOUtil.closeQuietly(statement);
-            IOUtil.closeQuietly(connection);
+            METRICS.close(connection, rows);
         }
     }
 
     /**
-     * Deletes all todos in the system.
+     * Gets the specified todo.
      *
+     * @param todoId The todo id.
+     * @return The todo.
      * @throws GeneralException
      */
-    public void deleteAllTodos() throws GeneralException {
+    public Todo getTodo(String todoId) throws GeneralException {
+        long rows = 0;
+
         Connection connection = null;
         PreparedStatement statement = null;
 
         try {
-            connection = pluginContext.getConnection();
+            connection = METRICS.getConnection(pluginContext, "getTodo");
 
-            statement = PluginBaseHelper.prepareStatement(connection, TodoQuery.DELETE_ALL);
-            statement.executeUpdate();
+            statement = PluginBaseHelper.prepareStatement(connection, TodoQuery.TODO, todoId);
+
+            ResultSet resultSet = statement.executeQuery();
+            if (resultSet.next()) {
+                rows = 1;
+                return todoFromResult(resultSet);
+            } else {
+                throw new ObjectNotFoundException();
+            }
         } catch (SQLException e) {
             throw new GeneralException(e);
         } finally {
             IOUtil.closeQuietly(statement);
-            IOUtil.closeQuietly(connection);
+            METRICS.close(connection, rows);
         }
     }
 
     /**
-     * Deletes all completed todos in the system.
+     * Gets the specified todos. Ids which do not match a todo are
+     * left out of the result.
      *
-     * @return The number of todos deleted.
+     * @param todoIds The todo ids.
+     * @return The todos keyed by id.
      * @throws GeneralException
      */
-    public int deleteCompletedTodos() throws GeneralException {
+    public Map<String, Todo> getTodos(Collection<String> todoIds) throws GeneralException {
+        long rows = 0;
+
         Connection connection = null;
 
         try {
-            connection = pluginContext.getConnection();
+            Map<String, Todo> todos = new HashMap<>();
+            if (todoIds.isEmpty()) {
+                return todos;
+            }
+
+            connection = METRICS.getConnection(pluginContext, "getTodos");
+
+            List<String> ids = new ArrayList<>(todoIds);
+            for (int i = 0; i < ids.size(); i += MAX_IN_LIST_SIZE) {
+                List<String> chunk = ids.subList(i, Math.min(i + MAX_IN_LIST_SIZE, ids.size()));
 
-            int numComplete = countCompletedTodos(connection);
-            if (numComplete > 0) {
-                deleteCompletedTodos(connection);
+                PreparedStatement statement = PluginBaseHelper.prepareStatement(
+                    connection, TodoQuery.withPlaceholders(TodoQuery.TODOS_BY_ID, chunk.size()), chunk.toArray()
+                );
+
+                try {
+                    ResultSet resultSet = statement.executeQuery();
+                    TodoRowReader reader = new TodoRowReader(resultSet, false);
+
+                    while (resultSet.next()) {
+                        Todo todo = reader.read();
+                        todos.put(todo.getId(), todo);
+                    }
+                } finally {
+                    IOUtil.closeQuietly(statement);
+                }
             }
 
-            return numComplete;
+            rows = todos.size();
+
+            return todos;
         } catch (SQLException e) {
             throw new GeneralException(e);
         } finally {
-            IOUtil.closeQuietly(connection);
+            METRICS.close(connection, rows);
         }
     }
 
     /**
-     * Gets all user ids which have open todos.
+     * Creates a new todo with the specified data.
      *
-     * @return The user ids.
+     * @param data The todo data.
+     * @return The todo.
      * @throws GeneralException
      */
-    public List<String> getUsersWithOpenTodos() throws GeneralException {
+    public Todo createTodo(CreateTodoData data) throws GeneralException {
+        if (isGroupCommitEnabled()) {
+            return groupCommit(TodoOperation.create(data)).getTodo();
+        }
+        long rows = 0;
+
         Connection connection = null;
         PreparedStatement statement = null;
-
+        
         try {
-            List<String> userIds = new ArrayList<>();
+            connection = METRICS.getConnection(pluginContext, "createTodo");
+            connection.setAutoCommit(false);
 
-            connection = pluginContext.getConnection();
-            statement = PluginBaseHelper.prepareStatement(connection, TodoQuery.ACTIVE_TODO_USERS);
+            String name = getName(data);
+            int estimate = getEstimate(data);
 
-            ResultSet resultSet = statement.executeQuery();
-            while (resultSet.next()) {
-                userIds.add(resultSet.getString("user_id"));
-            }
+            long created = TodoUtil.now();
 
-            return userIds;
-        } catch (SQLException e) {
-            throw new GeneralException(e);
-        } finally {
-            IOUtil.closeQuietly(statement);
-            IOUtil.closeQuietly(connection);
+            statement = PluginBaseHelper.prepareStatement(
+                connection, TodoQuery.ADD, data.getId(), data.getUserId(),
+                name, estimate, data.getNotes(), false, created
+            );
+
+            statement.executeUpdate();
+
+            Todo todo = todoFromData(data, name, estimate, created);
+
+            updateUserStats(connection, data.getUserId(), TodoOperation.Type.CREATE, true, estimate, created);
+            logChange(connection, data.getId(), data.getUserId(), TodoOperation.Type.CREATE, created);
+            indexTodos(connection, Collections.singletonList(todo));
+
+            connection.commit();
+
+            rows = 1;
+
+            return todo;
+        } catch (SQLException e) {
+            TodoUtil.rollbackQuietly(connection);
+            throw new GeneralException(e);
+        } finally {
+            IOUtil.closeQuietly(statement);
+            TodoUtil.restoreAutoCommit(connection);
+            METRICS.close(connection, rows);
+        }
+    }
+
+    /**
+     * Completes the specified todo.
+     *
+     * @param todo The todo.
+     * @throws GeneralException
+     */
+    public void completeTodo(Todo todo) throws GeneralException {
+        if (isGroupCommitEnabled()) {
+            // like below a todo that is no longer open is left as it is
+            groupCommit(TodoOperation.complete(todo));
+            return;
+        }
+        long rows = 0;
+
+        Connection connection = null;
+        PreparedStatement statement = null;
+
+        try {
+            connection = METRICS.getConnection(pluginContext, "completeTodo");
+            connection.setAutoCommit(false);
+
+            long completedOn = TodoUtil.now();
+
+            statement = PluginBaseHelper.prepareStatement(connection, TodoQuery.COMPLETE, completedOn, todo.getId());
+            rows = statement.executeUpdate();
+            if (rows > 0) {
+                updateUserStats(connection, todo.getUserId(), TodoOperation.Type.COMPLETE, true, todo.getEstimate(), completedOn);
+                logChange(connection, todo.getId(), todo.getUserId(), TodoOperation.Type.COMPLETE, completedOn);
+            }
+
+            connection.commit();
+        } catch (SQLException e) {
+            TodoUtil.rollbackQuietly(connection);
+            throw new GeneralException(e);
+        } finally {
+            IOUtil.closeQuietly(statement);
+            TodoUtil.restoreAutoCommit(connection);
+            METRICS.close(connection, rows);
+        }
+    }
+
+    /**
+     * Deletes the specified todo.
+     *
+     * @param todo The todo.
+     * @throws GeneralException
+     */
+    public void deleteTodo(Todo todo) throws GeneralException {
+        if (isGroupCommitEnabled()) {
+            groupCommit(TodoOperation.delete(todo));
+            return;
+        }
+        long rows = 0;
+
+        Connection connection = null;
+
+        try {
+            connection = METRICS.getConnection(pluginContext, "deleteTodo");
+            connection.setAutoCommit(false);
+
+            long now = TodoUtil.now();
+
+            // the todo may have been completed since it was read so let the
+            // database decide which state it was deleted in
+            if (executeUpdate(connection, TodoQuery.DELETE_OPEN, todo.getId()) > 0) {
+                updateUserStats(connection, todo.getUserId(), TodoOperation.Type.DELETE, true, todo.getEstimate(), now);
+                rows = 1;
+            } else if (executeUpdate(connection, TodoQuery.DELETE_COMPLETED, todo.getId()) > 0) {
+                updateUserStats(connection, todo.getUserId(), TodoOperation.Type.DELETE, false, todo.getEstimate(), now);
+                rows = 1;
+            }
+
+            if (rows > 0) {
+                logChange(connection, todo.getId(), todo.getUserId(), TodoOperation.Type.DELETE, now);
+                unindexTodos(connection, Collections.singletonList(todo.getId()));
+            }
+
+            connection.commit();
+        } catch (SQLException e) {
+            TodoUtil.rollbackQuietly(connection);
+            throw new GeneralException(e);
+        } finally {
+            TodoUtil.restoreAutoCommit(connection);
+            METRICS.close(connection, rows);
+        }
+    }
+
+    /**
+     * Executes a batch of operations in a single transaction. Each kind of
+     * operation is sent to the database as one JDBC batch: all creates
+     * first, then all completes and finally all deletes, so a todo can be
+     * completed and deleted in the same batch. The todos referenced by
+     * complete and delete operations must already have been authorized.
+     *
+     * @param operations The operations.
+     * @return The result of each operation in the same order as the operations.
+     * @throws GeneralException
+     */
+    public List<TodoOperationResult> executeOperations(List<TodoOperation> operations) throws GeneralException {
+        long rows = 0;
+
+        Connection connection = null;
+
+        try {
+            connection = METRICS.getConnection(pluginContext, "executeOperations");
+            connection.setAutoCommit(false);
+
+            TodoOperationResult[] results = new TodoOperationResult[operations.size()];
+            Map<String, UserStatsDelta> deltas = new TreeMap<>();
+            Set<String> completed = new HashSet<>();
+            List<TodoChange> changes = new ArrayList<>();
+
+            long now = TodoUtil.now();
+
+            executeCreates(connection, operations, results, deltas, changes, now);
+            executeCompletes(connection, operations, results, deltas, changes, completed, now);
+            executeDeletes(connection, operations, results, deltas, changes, now);
+
+            // the deltas are sorted by user id so concurrent batches
+            // touching the same users lock their rows in the same order
+            for (Map.Entry<String, UserStatsDelta> entry : deltas.entrySet()) {
+                updateUserStats(connection, entry.getKey(), entry.getValue(), now);
+            }
+
+            logChanges(connection, changes);
+
+            List<String> deletedIds = new ArrayList<>();
+            for (TodoChange change : changes) {
+                if (change.getType() == TodoOperation.Type.DELETE) {
+                    deletedIds.add(change.getTodoId());
+                }
+            }
+
+            unindexTodos(connection, deletedIds);
+
+            connection.commit();
+
+            List<TodoOperationResult> resultList = new ArrayList<>(results.length);
+            for (TodoOperationResult result : results) {
+                resultList.add(result);
+            }
+
+            rows = operations.size();
+
+            return resultList;
+        } catch (SQLException e) {
+            TodoUtil.rollbackQuietly(connection);
+            throw new GeneralException(e);
+        } finally {
+            TodoUtil.restoreAutoCommit(connection);
+            METRICS.close(connection, rows);
+        }
+    }
+
+    /**
+     * Deletes all todos for a user, including the archived ones.
+     *
+     * @param userId The user id.
+     * @throws GeneralException
+     */
+    public void deleteUserTodos(String userId) throws GeneralException {
+        long rows = 0;
+
+        Connection connection = null;
+
+        try {
+            connection = METRICS.getConnection(pluginContext, "deleteUserTodos");
+            connection.setAutoCommit(false);
+
+            // the counts are locked before they are read and removed so their row lock
+            // orders the logged deletes after any change still being made for the user
+            executeUpdate(connection, TodoQuery.UPDATE_USER_STATS, 0, 0, 0, userId);
+            long[] counts = getUserStats(connection, userId);
+
+            executeUpdate(connection, TodoQuery.DELETE_USER_STATS, userId);
+            executeUpdate(connection, TodoQuery.INSERT_USER_DELETE_CHANGES, TodoUtil.now(), userId);
+            rows = executeUpdate(connection, TodoQuery.DELETE_USER, userId);
+            executeUpdate(connection, TodoQuery.DELETE_USER_ARCHIVED, userId);
+            executeUpdate(connection, TodoQuery.DELETE_USER_TERMS, userId);
+            markUserDirty(connection, userId);
+
+            if (counts != null) {
+                updateUserRollup(connection, userId, TodoUtil.now(), 0, 0, counts[2], -counts[0], 0, 0, -counts[1]);
+            }
+
+            connection.commit();
+        } catch (SQLException e) {
+            TodoUtil.rollbackQuietly(connection);
+            throw new GeneralException(e);
+        } finally {
+            TodoUtil.restoreAutoCommit(connection);
+            METRICS.close(connection, rows);
+        }
+    }
+
+    /**
+     * Deletes all todos in the system, including the archived ones,
+     * along with the recorded todo activity.
+     *
+     * @throws GeneralException
+     */
+    public void deleteAllTodos() throws GeneralException {
+        long rows = 0;
+
+        Connection connection = null;
+
+        try {
+            connection = METRICS.getConnection(pluginContext, "deleteAllTodos");
+            connection.setAutoCommit(false);
+
+            executeUpdate(connection, TodoQuery.DELETE_ALL_USER_STATS);
+            executeUpdate(connection, TodoQuery.INSERT_ALL_DELETE_CHANGES, TodoUtil.now());
+            rows = executeUpdate(connection, TodoQuery.DELETE_ALL);
+            executeUpdate(connection, TodoQuery.DELETE_ALL_ARCHIVED);
+            executeUpdate(connection, TodoQuery.DELETE_ALL_TERMS);
+            executeUpdate(connection, TodoQuery.DELETE_ALL_USER_ROLLUPS);
+            executeUpdate(connection, TodoQuery.DELETE_ALL_ROLLUPS);
+            executeUpdate(connection, TodoQuery.MARK_FLAGGED_USERS_DIRTY);
+
+            connection.commit();
+        } catch (SQLException e) {
+            TodoUtil.rollbackQuietly(connection);
+            throw new GeneralException(e);
+        } finally {
+            TodoUtil.restoreAutoCommit(connection);
+            METRICS.close(connection, rows);
+        }
+    }
+
+    /**
+     * Deletes all completed todos in the system in chunks of the default size.
+     *
+     * @return The number of todos deleted.
+     * @throws GeneralException
+     */
+    public int deleteCompletedTodos() throws GeneralException {
+        int numDeleted = 0;
+
+        int numChunk;
+        do {
+            numChunk = deleteCompletedTodos(DEFAULT_CHUNK_SIZE);
+            numDeleted += numChunk;
+        } while (numChunk > 0);
+
+        return numDeleted;
+    }
+
+    /**
+     * Deletes the oldest chunk of completed todos in its own transaction.
+     * Callers purging the whole table call this repeatedly until it returns
+     * zero, which keeps each transaction and the locks it holds bounded.
+     *
+     * @param chunkSize The maximum number of todos to delete.
+     * @return The number of todos deleted.
+     * @throws GeneralException
+     */
+    public int deleteCompletedTodos(int chunkSize) throws GeneralException {
+        long rows = 0;
+
+        Connection connection = null;
+
+        try {
+            connection = METRICS.getConnection(pluginContext, "deleteCompletedTodos");
+
+            Map<String, String> todoUsers = getTodoUserIds(connection, chunkSize, TodoQuery.COMPLETED_TODO_IDS);
+            if (todoUsers.isEmpty()) {
+                return 0;
+            }
+
+            rows = deleteCompletedTodos(connection, todoUsers, false);
+
+            return (int) rows;
+        } catch (SQLException e) {
+            throw new GeneralException(e);
+        } finally {
+            METRICS.close(connection, rows);
+        }
+    }
+
+    /**
+     * Deletes the oldest chunk of todos completed within a time range in
+     * its own transaction. The range is matched against the index on the
+     * completion time, so purging a large backlog one narrow range after
+     * another keeps every statement cheap.
+     *
+     * @param from The earliest completion time deleted.
+     * @param before The time the todos must have been completed before.
+     * @param chunkSize The maximum number of todos to delete.
+     * @return The number of todos deleted.
+     * @throws GeneralException
+     */
+    public int deleteCompletedTodos(long from, long before, int chunkSize) throws GeneralException {
+        long rows = 0;
+
+        Connection connection = null;
+
+        try {
+            connection = METRICS.getConnection(pluginContext, "deleteCompletedTodos");
+
+            Map<String, String> todoUsers = getTodoUserIds(
+                connection, chunkSize, TodoQuery.COMPLETED_TODO_IDS_BETWEEN, from, before
+            );
+
+            if (todoUsers.isEmpty()) {
+                return 0;
+            }
+
+            rows = deleteCompletedTodos(connection, todoUsers, false);
+
+            return (int) rows;
+        } catch (SQLException e) {
+            throw new GeneralException(e);
+        } finally {
+            METRICS.close(connection, rows);
+        }
+    }
+
+    /**
+     * Gets the completion time of the oldest completed todo.
+     *
+     * @return The completion time or zero if there are no completed todos.
+     * @throws GeneralException
+     */
+    public long getOldestCompletedOn() throws GeneralException {
+        Connection connection = null;
+
+        try {
+            connection = METRICS.getConnection(pluginContext, "getOldestCompletedOn");
+
+            return queryLong(connection, TodoQuery.OLDEST_COMPLETED_ON);
+        } catch (SQLException e) {
+            throw new GeneralException(e);
+        } finally {
+            METRICS.close(connection, 1);
+        }
+    }
+
+    /**
+     * Moves the oldest chunk of todos completed within a time range into
+     * the archive in its own transaction. Like deleteCompletedTodos callers
+     * archive every todo in the range by calling this until it returns zero.
+     *
+     * @param from The earliest completion time archived.
+     * @param before The time the todos must have been completed before.
+     * @param chunkSize The maximum number of todos to archive.
+     * @return The number of todos archived.
+     * @throws GeneralException
+     */
+    public int archiveCompletedTodos(long from, long before, int chunkSize) throws GeneralException {
+        long rows = 0;
+
+        Connection connection = null;
+
+        try {
+            connection = METRICS.getConnection(pluginContext, "archiveCompletedTodos");
+
+            Map<String, String> todoUsers = getTodoUserIds(
+                connection, chunkSize, TodoQuery.COMPLETED_TODO_IDS_BETWEEN, from, before
+            );
+
+            if (todoUsers.isEmpty()) {
+                return 0;
+            }
+
+            rows = deleteCompletedTodos(connection, todoUsers, true);
+
+            return (int) rows;
+        } catch (SQLException e) {
+            throw new GeneralException(e);
+        } finally {
+            METRICS.close(connection, rows);
+        }
+    }
+
+    /**
+     * Gets a page of the archived todos of a user, most recently completed
+     * first. The cursor of the returned page is passed as after to get the
+     * following page and is null when there are no more todos.
+     *
+     * @param userId The user id.
+     * @param limit The maximum number of todos to return.
+     * @param after The cursor returned with the previous page or null for the first page.
+     * @return The page of todos.
+     * @throws GeneralException
+     */
+    public Page<Todo> getArchivedTodos(String userId, int limit, String after) throws GeneralException {
+        long rows = 0;
+
+        Connection connection = null;
+
+        try {
+            connection = METRICS.getConnection(pluginContext, "getArchivedTodos");
+
+            String[] cursor = after == null ? null : PageCursor.decode(after, 2);
+
+            PreparedStatement statement = cursor == null ?
+                PluginBaseHelper.prepareStatement(connection, TodoQuery.ARCHIVED_TODOS_FIRST_PAGE, userId) :
+                PluginBaseHelper.prepareStatement(
+                    connection, TodoQuery.ARCHIVED_TODOS_PAGE, userId,
+                    PageCursor.toLong(cursor[0]), PageCursor.toLong(cursor[0]), cursor[1]
+                );
+
+            List<Todo> todos = new ArrayList<>();
+            boolean hasMore = fillPage(statement, todos, limit);
+
+            rows = todos.size();
+
+            String next = null;
+            if (hasMore) {
+                Todo last = todos.get(todos.size() - 1);
+                next = PageCursor.encode(last.getCompletedOn(), last.getId());
+            }
+
+            return new Page<>(todos, next);
+        } catch (SQLException e) {
+            throw new GeneralException(e);
+        } finally {
+            METRICS.close(connection, rows);
+        }
+    }
+
+    /**
+     * Compares the stored per user counts with the todo table and
+     * recomputes the counts of any user that has drifted. Counts stored
+     * for users who no longer have any todos are removed.
+     *
+     * @return The number of users whose counts were repaired.
+     * @throws GeneralException
+     */
+    public int verifyUserStats() throws GeneralException {
+        long rows = 0;
+
+        Connection connection = null;
+        PreparedStatement statement = null;
+
+        try {
+            connection = METRICS.getConnection(pluginContext, "verifyUserStats");
+
+            List<String> userIds = new ArrayList<>();
+
+            statement = PluginBaseHelper.prepareStatement(connection, TodoQuery.USER_STATS_DRIFT);
+
+            ResultSet resultSet = statement.executeQuery();
+            while (resultSet.next()) {
+                userIds.add(resultSet.getString("user_id"));
+            }
+
+            IOUtil.closeQuietly(statement);
+            statement = null;
+
+            connection.setAutoCommit(false);
+
+            for (String userId : userIds) {
+                if (executeUpdate(connection, TodoQuery.REBUILD_USER_STATS, userId) == 0) {
+                    executeUpdate(connection, TodoQuery.INSERT_REBUILT_USER_STATS, TodoUtil.now(), userId);
+                }
+
+                markUserDirty(connection, userId);
+            }
+
+            int numOrphaned = executeUpdate(connection, TodoQuery.DELETE_ORPHANED_USER_STATS);
+
+            connection.commit();
+
+            rows = userIds.size() + numOrphaned;
+
+            return (int) rows;
+        } catch (SQLException e) {
+            TodoUtil.rollbackQuietly(connection);
+            throw new GeneralException(e);
+        } finally {
+            IOUtil.closeQuietly(statement);
+            TodoUtil.restoreAutoCommit(connection);
+            METRICS.close(connection, rows);
+        }
+    }
+
+    /**
+     * Gets all user ids which have open todos.
+     *
+     * @return The user ids.
+     * @throws GeneralException
+     */
+    public List<String> getUsersWithOpenTodos() throws GeneralException {
+        final List<String> userIds = new ArrayList<>();
+
+        try {
+            visitUsersWithOpenTodos(STREAM_FETCH_SIZE, new RowVisitor<String>() {
+                @Override
+                public boolean visit(String userId) {
+                    userIds.add(userId);
+
+                    return true;
+                }
+            });
+        } catch (IOException e) {
+            throw new GeneralException(e);
+        }
+
+        return userIds;
+    }
+
+    /**
+     * Streams the ids of the users with open todos to a visitor straight
+     * from a forward only result set.
+     *
+     * @param fetchSize The number of rows fetched from the database at a time.
+     * @param visitor The visitor.
+     * @return The number of user ids visited.
+     * @throws GeneralException
+     * @throws IOException If the visitor failed to write a user id.
+     */
+    public int visitUsersWithOpenTodos(int fetchSize, RowVisitor<String> visitor) throws GeneralException, IOException {
+        long rows = 0;
+
+        Connection connection = null;
+        PreparedStatement statement = null;
+
+        try {
+            connection = METRICS.getConnection(pluginContext, "getUsersWithOpenTodos");
+
+            statement = TodoUtil.prepareStreamingStatement(connection, TodoQuery.ACTIVE_TODO_USERS, fetchSize);
+
+            ResultSet resultSet = statement.executeQuery();
+            int column = resultSet.findColumn("user_id");
+
+            while (resultSet.next()) {
+                rows++;
+
+                if (!visitor.visit(resultSet.getString(column))) {
+                    break;
+                }
+            }
+
+            return (int) rows;
+        } catch (SQLException e) {
+            throw new GeneralException(e);
+        } finally {
+            IOUtil.closeQuietly(statement);
+            METRICS.close(connection, rows);
+        }
+    }
+
+    /**
+     * Gets the count of active todos for the specified user.
+     *
+     * @param userId The user id.
+     * @return The count.
+     * @throws GeneralException
+     */
+    public int getActiveTodosForUser(String userId) throws GeneralException {
+        long rows = 0;
+
+        Connection connection = null;
+        PreparedStatement statement = null;
+
+        try {
+            int numActive = 0;
+
+            connection = METRICS.getConnection(pluginContext, "getActiveTodosForUser");
+            statement = PluginBaseHelper.prepareStatement(connection, TodoQuery.ACTIVE_TODOS_COUNT, userId);
+
+            ResultSet resultSet = statement.executeQuery();
+            if (resultSet.next()) {
+                numActive = resultSet.getInt("total");
+            }
+
+            rows = 1;
+
+            return numActive;
+        } catch (SQLException e) {
+            throw new GeneralException(e);
+        } finally {
+            IOUtil.closeQuietly(statement);
+            METRICS.close(connection, rows);
+        }
+    } 
+
+    /**
+     * Gets the version of the todo list of the specified user. The version
+     * changes whenever a todo of the user is created, completed or deleted
+     * so it can be used to tell whether a copy of the list is still current.
+     *
+     * @param userId The user id.
+     * @return The version or zero if the user has never had any todos.
+     * @throws GeneralException
+     */
+    public long getTodoListVersion(String userId) throws GeneralException {
+        long rows = 0;
+
+        Connection connection = null;
+        PreparedStatement statement = null;
+
+        try {
+            long version = 0;
+
+            connection = METRICS.getConnection(pluginContext, "getTodoListVersion");
+            statement = PluginBaseHelper.prepareStatement(connection, TodoQuery.TODO_LIST_VERSION, userId);
+
+            ResultSet resultSet = statement.executeQuery();
+            if (resultSet.next()) {
+                version = resultSet.getLong("list_version");
+                rows = 1;
+            }
+
+            return version;
+        } catch (SQLException e) {
+            throw new GeneralException(e);
+        } finally {
+            IOUtil.closeQuietly(statement);
+            METRICS.close(connection, rows);
+        }
+    }
+
+    /**
+     * Gets the changes made to the todos of a user after a position in the
+     * change log. The changes of a user are logged in the order they were
+     * committed so a client that applies them in order and passes the
+     * returned cursor back as the next position never misses a change.
+     *
+     * @param userId The user id.
+     * @param since The position of the last change the client has seen.
+     * @param limit The maximum number of changes to return.
+     * @return The page of changes with the position to continue from in next or
+     *         null if changes after the position have already been compacted away.
+     * @throws GeneralException
+     */
+    public Page<TodoChange> getChanges(String userId, long since, int limit) throws GeneralException {
+        long rows = 0;
+
+        Connection connection = null;
+        PreparedStatement statement = null;
+
+        try {
+            connection = METRICS.getConnection(pluginContext, "getChanges");
+
+            // compaction always keeps the newest change so an empty log has never been compacted
+            long oldest = queryLong(connection, TodoQuery.OLDEST_CHANGE_SEQ);
+            if (oldest > 0 && since < oldest - 1) {
+                return null;
+            }
+
+            List<TodoChange> changes = new ArrayList<>();
+
+            statement = PluginBaseHelper.prepareStatement(connection, TodoQuery.CHANGES, userId, since);
+            statement.setMaxRows(limit);
+
+            ResultSet resultSet = statement.executeQuery();
+            while (resultSet.next()) {
+                changes.add(changeFromResult(resultSet, userId));
+            }
+
+            rows = changes.size();
+
+            // with nothing new for the user the position can still move up to the
+            // oldest change so an idle client does not fall behind the compaction
+            long next = changes.isEmpty() ? Math.max(since, oldest - 1) : changes.get(changes.size() - 1).getSeq();
+
+            return new Page<>(changes, String.valueOf(next));
+        } catch (SQLException e) {
+            throw new GeneralException(e);
+        } finally {
+            IOUtil.closeQuietly(statement);
+            METRICS.close(connection, rows);
+        }
+    }
+
+    /**
+     * Gets the current position of a user in the change log. A client
+     * gets the position before reading the full todo list and then
+     * reads the changes after it to keep its copy of the list current.
+     *
+     * @param userId The user id.
+     * @return The position.
+     * @throws GeneralException
+     */
+    public long getChangePosition(String userId) throws GeneralException {
+        Connection connection = null;
+
+        try {
+            connection = METRICS.getConnection(pluginContext, "getChangePosition");
+
+            long last = queryLong(connection, TodoQuery.LAST_USER_CHANGE_SEQ, userId);
+            if (last > 0) {
+                return last;
+            }
+
+            return Math.max(0, queryLong(connection, TodoQuery.OLDEST_CHANGE_SEQ) - 1);
+        } catch (SQLException e) {
+            throw new GeneralException(e);
+        } finally {
+            METRICS.close(connection, 1);
+        }
+    }
+
+    /**
+     * Removes a chunk of the changes made before the specified time from
+     * the change log. The newest change is always kept so that clients
+     * can tell when changes they have not seen were removed.
+     *
+     * @param before The timestamp before which changes are removed.
+     * @param chunkSize The maximum number of changes to remove.
+     * @return The number of changes removed.
+     * @throws GeneralException
+     */
+    public int compactChanges(long before, int chunkSize) throws GeneralException {
+        long rows = 0;
+
+        Connection connection = null;
+        PreparedStatement statement = null;
+
+        try {
+            connection = METRICS.getConnection(pluginContext, "compactChanges");
+
+            long newest = queryLong(connection, TodoQuery.NEWEST_CHANGE_SEQ);
+
+            statement = PluginBaseHelper.prepareStatement(connection, TodoQuery.EXPIRED_CHANGES, newest, before);
+            statement.setMaxRows(chunkSize);
+
+            long last = 0;
+
+            ResultSet resultSet = statement.executeQuery();
+            while (resultSet.next()) {
+                last = resultSet.getLong("seq");
+            }
+
+            IOUtil.closeQuietly(statement);
+            statement = null;
+
+            if (last == 0) {
+                return 0;
+            }
+
+            rows = executeUpdate(connection, TodoQuery.DELETE_CHANGES, last);
+
+            return (int) rows;
+        } catch (SQLException e) {
+            throw new GeneralException(e);
+        } finally {
+            IOUtil.closeQuietly(statement);
+            METRICS.close(connection, rows);
+        }
+    }
+    
+    /**
+     * Gets the open todo count of every user who has more open todos
+     * than the threshold. Users at or below the threshold are left out
+     * so the result stays small enough to hold in memory.
+     *
+     * @param threshold The open todo threshold.
+     * @return The open todo count keyed by user id.
+     * @throws GeneralException
+     */
+    public Map<String, Integer> getUsersOverOpenThreshold(int threshold) throws GeneralException {
+        long rows = 0;
+
+        Connection connection = null;
+        PreparedStatement statement = null;
+
+        try {
+            Map<String, Integer> counts = new HashMap<>();
+
+            connection = METRICS.getConnection(pluginContext, "getUsersOverOpenThreshold");
+            statement = PluginBaseHelper.prepareStatement(connection, TodoQuery.USERS_OVER_OPEN_THRESHOLD, threshold);
+
+            ResultSet resultSet = statement.executeQuery();
+            while (resultSet.next()) {
+                counts.put(resultSet.getString("user_id"), resultSet.getInt("total"));
+            }
+
+            rows = counts.size();
+
+            return counts;
+        } catch (SQLException e) {
+            throw new GeneralException(e);
+        } finally {
+            IOUtil.closeQuietly(statement);
+            METRICS.close(connection, rows);
+        }
+    }
+
+    /**
+     * Searches the todos of a user for the terms in a query. Every query
+     * term has to match a term in the name or notes of a todo, the last
+     * query term as a prefix so that the search can run as the user
+     * types. Todos are ranked by the weight of their matching terms, which
+     * favours name matches, repeated terms and exact matches, with newer
+     * todos first among equals.
+     *
+     * @param userId The user id.
+     * @param query The query.
+     * @param limit The maximum number of todos to return.
+     * @return The matching todos, best match first.
+     * @throws GeneralException
+     */
+    public List<Todo> searchTodos(String userId, String query, int limit) throws GeneralException {
+        long rows = 0;
+
+        Connection connection = null;
+
+        try {
+            List<String> terms = TodoTerms.getQueryTerms(query);
+            if (terms.isEmpty()) {
+                return new ArrayList<>();
+            }
+
+            if (terms.size() > MAX_SEARCH_TERMS) {
+                terms = terms.subList(terms.size() - MAX_SEARCH_TERMS, terms.size());
+            }
+
+            connection = METRICS.getConnection(pluginContext, "searchTodos");
+
+            Map<String, Long> scores = null;
+            for (int i = 0; i < terms.size(); i++) {
+                boolean prefix = i == terms.size() - 1;
+                Map<String, Long> termScores = getTermScores(connection, userId, terms.get(i), prefix);
+
+                if (scores == null) {
+                    scores = termScores;
+                } else {
+                    scores.keySet().retainAll(termScores.keySet());
+                    for (Map.Entry<String, Long> score : scores.entrySet()) {
+                        score.setValue(score.getValue() + termScores.get(score.getKey()));
+                    }
+                }
+
+                if (scores.isEmpty()) {
+                    return new ArrayList<>();
+                }
+            }
+
+            final Map<String, Todo> todos = new HashMap<>();
+
+            List<String> ids = new ArrayList<>(scores.keySet());
+            for (int i = 0; i < ids.size(); i += MAX_IN_LIST_SIZE) {
+                List<String> chunk = ids.subList(i, Math.min(i + MAX_IN_LIST_SIZE, ids.size()));
+
+                PreparedStatement statement = PluginBaseHelper.prepareStatement(
+                    connection, TodoQuery.withPlaceholders(TodoQuery.TODOS_BY_ID, chunk.size()), chunk.toArray()
+                );
+
+                try {
+                    ResultSet resultSet = statement.executeQuery();
+                    TodoRowReader reader = new TodoRowReader(resultSet, false);
+
+                    while (resultSet.next()) {
+                        Todo todo = reader.read();
+                        todos.put(todo.getId(), todo);
+                    }
+                } finally {
+                    IOUtil.closeQuietly(statement);
+                }
+            }
+
+            final Map<String, Long> ranks = scores;
+
+            List<Todo> results = new ArrayList<>(todos.values());
+            Collections.sort(results, new Comparator<Todo>() {
+                @Override
+                public int compare(Todo a, Todo b) {
+                    int result = Long.compare(ranks.get(b.getId()), ranks.get(a.getId()));
+
+                    return result != 0 ? result : Long.compare(b.getCreated(), a.getCreated());
+                }
+            });
+
+            if (results.size() > limit) {
+                results = new ArrayList<>(results.subList(0, limit));
+            }
+
+            rows = results.size();
+
+            return results;
+        } catch (SQLException e) {
+            throw new GeneralException(e);
+        } finally {
+            METRICS.close(connection, rows);
+        }
+    }
+
+    /**
+     * Rebuilds the search index entries of the next chunk of todos, ordered
+     * by id, in its own transaction. Callers rebuild the whole index by
+     * passing the cursor of the returned page back in until it is null, at
+     * which point entries left behind by todos deleted during the rebuild
+     * are removed as well.
+     *
+     * @param after The cursor of the previous chunk or null to start from the beginning.
+     * @param chunkSize The maximum number of todos to reindex.
+     * @return The ids of the todos reindexed.
+     * @throws GeneralException
+     */
+    public Page<String> reindexTodos(String after, int chunkSize) throws GeneralException {
+        long rows = 0;
+
+        Connection connection = null;
+        PreparedStatement statement = null;
+
+        try {
+            connection = METRICS.getConnection(pluginContext, "reindexTodos");
+            connection.setAutoCommit(false);
+
+            statement = after == null ?
+                PluginBaseHelper.prepareStatement(connection, TodoQuery.INDEX_TODOS_FIRST_PAGE) :
+                PluginBaseHelper.prepareStatement(connection, TodoQuery.INDEX_TODOS_PAGE, after);
+
+            statement.setMaxRows(chunkSize);
+
+            List<Todo> todos = new ArrayList<>();
+            List<String> ids = new ArrayList<>();
+
+            ResultSet resultSet = statement.executeQuery();
+            while (resultSet.next()) {
+                Todo todo = new Todo();
+                todo.setId(resultSet.getString("id"));
+                todo.setUserId(resultSet.getString("user_id"));
+                todo.setName(resultSet.getString("name"));
+                todo.setNotes(resultSet.getString("notes"));
+
+                todos.add(todo);
+                ids.add(todo.getId());
+            }
+
+            IOUtil.closeQuietly(statement);
+            statement = null;
+
+            if (todos.isEmpty()) {
+                executeUpdate(connection, TodoQuery.DELETE_ORPHANED_TERMS);
+                connection.commit();
+
+                return new Page<>(ids, null);
+            }
+
+            unindexTodos(connection, ids);
+            indexTodos(connection, todos);
+
+            connection.commit();
+
+            rows = todos.size();
+
+            return new Page<>(ids, ids.get(ids.size() - 1));
+        } catch (SQLException e) {
+            TodoUtil.rollbackQuietly(connection);
+            throw new GeneralException(e);
+        } finally {
+            IOUtil.closeQuietly(statement);
+            TodoUtil.restoreAutoCommit(connection);
+            METRICS.close(connection, rows);
+        }
+    }
+
+    /**
+     * Writes all todos, or all todos of a user, to a stream straight from a
+     * forward only result set, so the memory used does not depend on the
+     * number of todos. The connection is held until the last todo has
+     * been written.
+     *
+     * @param userId The user id or null for the todos of all users.
+     * @param format The format.
+     * @param outputStream The output stream.
+     * @return The number of todos written.
+     * @throws GeneralException
+     * @throws IOException If the output could not be written.
+     */
+    public int exportTodos(String userId, TodoFormat format, OutputStream outputStream)
+        throws GeneralException, IOException {
+        long rows = 0;
+
+        Connection connection = null;
+
+        try {
+            connection = METRICS.getConnection(pluginContext, "exportTodos");
+
+            final TodoFormat.TodoWriter writer = format.newWriter(outputStream);
+
+            RowVisitor<Todo> visitor = new RowVisitor<Todo>() {
+                @Override
+                public boolean visit(Todo todo) throws IOException {
+                    writer.write(todo);
+
+                    return true;
+                }
+            };
+
+            int count = userId == null ?
+                streamTodos(connection, TodoQuery.ALL_TODOS, EXPORT_FETCH_SIZE, true, visitor) :
+                streamTodos(connection, TodoQuery.TODOS, EXPORT_FETCH_SIZE, true, visitor, userId);
+
+            writer.flush();
+
+            rows = count;
+
+            return count;
+        } catch (SQLException e) {
+            throw new GeneralException(e);
+        } finally {
+            METRICS.close(connection, rows);
+        }
+    }
+
+    /**
+     * Imports todos from a stream, reading one record at a time and
+     * inserting them in batches, each in its own transaction with its own
+     * connection, so the memory used and the time a connection is held do
+     * not depend on the size of the import. Todos whose id is already
+     * taken are skipped, so an import that stopped part way can simply be
+     * run again. Records that cannot be read or are invalid are reported
+     * and do not stop the import, a failing batch does.
+     *
+     * Imported todos count as created, and completed todos as completed,
+     * at the time of the import in the user counts, the activity rollups
+     * and the change log.
+     *
+     * @param format The format.
+     * @param inputStream The input stream.
+     * @param batchSize The number of todos inserted per transaction.
+     * @return The report of the import.
+     * @throws GeneralException If a batch could not be inserted.
+     * @throws IOException If the input could not be read.
+     */
+    public TodoImportReport importTodos(TodoFormat format, InputStream inputStream, int batchSize)
+        throws GeneralException, IOException {
+
+        batchSize = Math.max(1, Math.min(batchSize, MAX_IN_LIST_SIZE));
+
+        TodoImportReport report = new TodoImportReport();
+        TodoFormat.RecordReader reader = format.newReader(inputStream);
+
+        Map<String, Todo> batch = new LinkedHashMap<>();
+
+        while (true) {
+            Todo todo;
+            try {
+                Map<String, Object> record = reader.next();
+                if (record == null) {
+                    break;
+                }
+
+                todo = TodoFormat.toTodo(record, TodoUtil.now());
+            } catch (GeneralException e) {
+                report.addError(reader.getLine(), e.getMessage());
+                continue;
+            }
+
+            if (batch.containsKey(todo.getId())) {
+                report.addError(reader.getLine(), "Duplicate todo id " + todo.getId());
+                continue;
+            }
+
+            if (Util.isNullOrEmpty(todo.getName())) {
+                todo.setName(getTodoDefaultName());
+            }
+
+            batch.put(todo.getId(), todo);
+
+            if (batch.size() == batchSize) {
+                importBatch(new ArrayList<>(batch.values()), report);
+                batch.clear();
+            }
+        }
+
+        if (!batch.isEmpty()) {
+            importBatch(new ArrayList<>(batch.values()), report);
+        }
+
+        return report;
+    }
+
+    /**
+     * Gets the ids of the todos selected by a query along with the user who owns each one.
+     *
+     * @param connection The connection.
+     * @param maxResults The maximum number of ids to return.
+     * @param query The query selecting the id and user id columns.
+     * @param params The query parameters.
+     * @return The user ids keyed by todo id in the order of the query.
+     * @throws SQLException
+     */
+    private Map<String, String> getTodoUserIds(Connection connection, int maxResults, String query, Object... params)
+        throws SQLException {
+
+        PreparedStatement statement = null;
+
+        try {
+            Map<String, String> todoUsers = new LinkedHashMap<>();
+
+            statement = PluginBaseHelper.prepareStatement(connection, query, params);
+            statement.setMaxRows(maxResults);
+
+            ResultSet resultSet = statement.executeQuery();
+            while (resultSet.next()) {
+                todoUsers.put(resultSet.getString("id"), resultSet.getString("user_id"));
+            }
+
+            return todoUsers;
+        } finally {
+            IOUtil.closeQuietly(statement);
+        }
+    }
+
+    /**
+     * Deletes the specified completed todos and adjusts the total count
+     * of their users in a single transaction, optionally copying them
+     * into the archive first.
+     *
+     * @param connection The connection.
+     * @param todoUsers The user ids keyed by todo id.
+     * @param archive True to copy the todos into the archive before deleting them.
+     * @return The number of todos deleted.
+     * @throws SQLException
+     */
+    private int deleteCompletedTodos(Connection connection, Map<String, String> todoUsers, boolean archive)
+        throws SQLException {
+
+        PreparedStatement statement = null;
+
+        try {
+            connection.setAutoCommit(false);
+
+            if (archive) {
+                List<String> ids = new ArrayList<>(todoUsers.keySet());
+                for (int i = 0; i < ids.size(); i += MAX_IN_LIST_SIZE) {
+                    List<String> chunk = ids.subList(i, Math.min(i + MAX_IN_LIST_SIZE, ids.size()));
+
+                    executeUpdate(connection, TodoQuery.withPlaceholders(TodoQuery.ARCHIVE_TODOS, chunk.size()), chunk.toArray());
+                }
+            }
+
+            List<Object[]> params = new ArrayList<>(todoUsers.size());
+            for (String todoId : todoUsers.keySet()) {
+                params.add(new Object[] { todoId });
+            }
+
+            int[] counts = executeCountedBatch(connection, TodoQuery.DELETE_COMPLETED, params);
+
+            int numDeleted = 0;
+            Map<String, Integer> userDeletes = new HashMap<>();
+            List<TodoChange> changes = new ArrayList<>();
+            List<String> missing = new ArrayList<>();
+
+            long now = TodoUtil.now();
+
+            int i = 0;
+            for (Map.Entry<String, String> todoUser : todoUsers.entrySet()) {
+                String userId = todoUser.getValue();
+
+                int count = counts[i++];
+                if (count > 0) {
+                    Integer userCount = userDeletes.get(userId);
+                    userDeletes.put(userId, userCount == null ? count : userCount + count);
+                    changes.add(new TodoChange(0, todoUser.getKey(), userId, TodoOperation.Type.DELETE, now, null));
+                    numDeleted += count;
+                } else {
+                    missing.add(todoUser.getKey());
+                }
+            }
+
+            // a todo deleted by its user after it was copied must not live on in the archive
+            if (archive && !missing.isEmpty()) {
+                statement = connection.prepareStatement(TodoQuery.DELETE_ARCHIVED);
+                for (String todoId : missing) {
+                    statement.setString(1, todoId);
+                    statement.addBatch();
+                }
+
+                statement.executeBatch();
+
+                IOUtil.closeQuietly(statement);
+                statement = null;
+            }
+
+            for (Map.Entry<String, Integer> userDelete : userDeletes.entrySet()) {
+                updateUserStats(connection, userDelete.getKey(), 0, -userDelete.getValue(), 0);
+            }
+
+            logChanges(connection, changes);
+            unindexTodos(connection, todoUsers.keySet());
+
+            connection.commit();
+
+            return numDeleted;
+        } catch (SQLException e) {
+            TodoUtil.rollbackQuietly(connection);
+            throw e;
+        } finally {
+            IOUtil.closeQuietly(statement);
+            TodoUtil.restoreAutoCommit(connection);
+        }
+    }
+
+    /**
+     * Inserts the todos of all create operations in one batch.
+     *
+     * @param connection The connection.
+     * @param operations The operations.
+     * @param results The results of the operations.
+     * @param deltas The changes to the user counts.
+     * @param changes The changes to log.
+     * @param now The created timestamp.
+     * @throws SQLException
+     */
+    private void executeCreates(Connection connection, List<TodoOperation> operations, TodoOperationResult[] results,
+                                Map<String, UserStatsDelta> deltas, List<TodoChange> changes, long now) throws SQLException {
+
+        List<Integer> indexes = getOperationIndexes(operations, TodoOperation.Type.CREATE);
+        if (indexes.isEmpty()) {
+            return;
+        }
+
+        PreparedStatement statement = null;
+
+        try {
+            List<Todo> todos = new ArrayList<>(indexes.size());
+
+            statement = connection.prepareStatement(TodoQuery.ADD);
+            for (int index : indexes) {
+                CreateTodoData data = operations.get(index).getData();
+                Todo todo = todoFromData(data, getName(data), getEstimate(data), now);
+
+                statement.setString(1, todo.getId());
+                statement.setString(2, todo.getUserId());
+                statement.setString(3, todo.getName());
+                statement.setInt(4, todo.getEstimate());
+                statement.setString(5, todo.getNotes());
+                statement.setBoolean(6, false);
+                statement.setLong(7, now);
+                statement.addBatch();
+
+                todos.add(todo);
+            }
+
+            // a failed insert fails the whole batch so every row was inserted
+            statement.executeBatch();
+
+            indexTodos(connection, todos);
+
+            for (int i = 0; i < indexes.size(); i++) {
+                Todo todo = todos.get(i);
+
+                results[indexes.get(i)] = TodoOperationResult.success("create", todo.getId(), todo);
+                addUserStatsDelta(deltas, todo.getUserId(), TodoOperation.Type.CREATE, true, todo.getEstimate());
+                changes.add(new TodoChange(0, todo.getId(), todo.getUserId(), TodoOperation.Type.CREATE, now, null));
+            }
+        } finally {
+            IOUtil.closeQuietly(statement);
+        }
+    }
+
+    /**
+     * Completes the todos of all complete operations in one batch.
+     *
+     * @param connection The connection.
+     * @param operations The operations.
+     * @param results The results of the operations.
+     * @param deltas The changes to the user counts.
+     * @param changes The changes to log.
+     * @param completed The ids of the todos completed in the batch.
+     * @param now The completed on timestamp.
+     * @throws SQLException
+     */
+    private void executeCompletes(Connection connection, List<TodoOperation> operations, TodoOperationResult[] results,
+                                  Map<String, UserStatsDelta> deltas, List<TodoChange> changes, Set<String> completed,
+                                  long now) throws SQLException {
+
+        List<Integer> indexes = new ArrayList<>();
+        for (int index : getOperationIndexes(operations, TodoOperation.Type.COMPLETE)) {
+            String todoId = operations.get(index).getTodoId();
+            if (completed.add(todoId)) {
+                indexes.add(index);
+            } else {
+                results[index] = TodoOperationResult.failure("complete", todoId, "Todo is already complete");
+            }
+        }
+
+        if (indexes.isEmpty()) {
+            return;
+        }
+
+        List<Object[]> params = new ArrayList<>(indexes.size());
+        for (int index : indexes) {
+            params.add(new Object[] { now, operations.get(index).getTodoId() });
+        }
+
+        int[] counts = executeCountedBatch(connection, TodoQuery.COMPLETE, params);
+
+        for (int i = 0; i < indexes.size(); i++) {
+            Todo todo = operations.get(indexes.get(i)).getTodo();
+
+            if (counts[i] > 0) {
+                results[indexes.get(i)] = TodoOperationResult.success("complete", todo.getId(), null);
+                addUserStatsDelta(deltas, todo.getUserId(), TodoOperation.Type.COMPLETE, true, todo.getEstimate());
+                changes.add(new TodoChange(0, todo.getId(), todo.getUserId(), TodoOperation.Type.COMPLETE, now, null));
+            } else {
+                completed.remove(todo.getId());
+                results[indexes.get(i)] = TodoOperationResult.failure("complete", todo.getId(), "Todo is already complete");
+            }
+        }
+    }
+
+    /**
+     * Deletes the todos of all delete operations. The todos are first deleted
+     * as open todos in one batch and any that were not open are then deleted
+     * as completed todos in a second batch.
+     *
+     * @param connection The connection.
+     * @param operations The operations.
+     * @param results The results of the operations.
+     * @param deltas The changes to the user counts.
+     * @param changes The changes to log.
+     * @param now The deleted timestamp.
+     * @throws SQLException
+     */
+    private void executeDeletes(Connection connection, List<TodoOperation> operations, TodoOperationResult[] results,
+                                Map<String, UserStatsDelta> deltas, List<TodoChange> changes, long now)
+        throws SQLException {
+
+        Set<String> deleted = new HashSet<>();
+
+        List<Integer> indexes = new ArrayList<>();
+        for (int index : getOperationIndexes(operations, TodoOperation.Type.DELETE)) {
+            String todoId = operations.get(index).getTodoId();
+            if (deleted.add(todoId)) {
+                indexes.add(index);
+            } else {
+                results[index] = TodoOperationResult.failure("delete", todoId, "Todo not found");
+            }
+        }
+
+        if (indexes.isEmpty()) {
+            return;
+        }
+
+        List<Integer> missed = new ArrayList<>();
+
+        int[] counts = executeDeleteBatch(connection, TodoQuery.DELETE_OPEN, operations, indexes);
+        for (int i = 0; i < indexes.size(); i++) {
+            Todo todo = operations.get(indexes.get(i)).getTodo();
+
+            if (counts[i] > 0) {
+                results[indexes.get(i)] = TodoOperationResult.success("delete", todo.getId(), null);
+                addUserStatsDelta(deltas, todo.getUserId(), TodoOperation.Type.DELETE, true, todo.getEstimate());
+                changes.add(new TodoChange(0, todo.getId(), todo.getUserId(), TodoOperation.Type.DELETE, now, null));
+            } else {
+                missed.add(indexes.get(i));
+            }
+        }
+
+        if (missed.isEmpty()) {
+            return;
+        }
+
+        counts = executeDeleteBatch(connection, TodoQuery.DELETE_COMPLETED, operations, missed);
+        for (int i = 0; i < missed.size(); i++) {
+            Todo todo = operations.get(missed.get(i)).getTodo();
+
+            if (counts[i] > 0) {
+                results[missed.get(i)] = TodoOperationResult.success("delete", todo.getId(), null);
+                addUserStatsDelta(deltas, todo.getUserId(), TodoOperation.Type.DELETE, false, todo.getEstimate());
+                changes.add(new TodoChange(0, todo.getId(), todo.getUserId(), TodoOperation.Type.DELETE, now, null));
+            } else {
+                results[missed.get(i)] = TodoOperationResult.failure("delete", todo.getId(), "Todo not found");
+            }
+        }
+    }
+
+    /**
+     * Executes a delete by id query in one batch for the specified operations.
+     *
+     * @param connection The connection.
+     * @param query The delete query.
+     * @param operations The operations.
+     * @param indexes The indexes of the operations to include.
+     * @return The update count of each operation.
+     * @throws SQLException
+     */
+    private int[] executeDeleteBatch(Connection connection, String query, List<TodoOperation> operations,
+                                     List<Integer> indexes) throws SQLException {
+
+        List<Object[]> params = new ArrayList<>(indexes.size());
+        for (int index : indexes) {
+            params.add(new Object[] { operations.get(index).getTodoId() });
+        }
+
+        return executeCountedBatch(connection, query, params);
+    }
+
+    /**
+     * Executes an update once for each set of parameters and gets the number
+     * of rows each one changed. The updates are sent in one batch unless the
+     * driver has been seen not to report the count of each statement in a
+     * batch. Such a driver only reports that the statement succeeded, but
+     * its row may have been changed by a concurrent request since it was
+     * read. The first batch is therefore run inside a savepoint and, if the
+     * counts are missing, rolled back and run one update at a time, as every
+     * later batch is.
+     *
+     * @param connection The connection, in a transaction.
+     * @param query The update query.
+     * @param params The parameters of each update.
+     * @return The update count of each update.
+     * @throws SQLException
+     */
+    private int[] executeCountedBatch(Connection connection, String query, List<Object[]> params) throws SQLException {
+        Boolean countsReported = batchCountsReported;
+        if (Boolean.FALSE.equals(countsReported)) {
+            return executeEach(connection, query, params);
+        }
+
+        Savepoint savepoint = countsReported == null ? connection.setSavepoint() : null;
+
+        int[] counts;
+
+        PreparedStatement statement = null;
+
+        try {
+            statement = connection.prepareStatement(query);
+            for (Object[] values : params) {
+                for (int i = 0; i < values.length; i++) {
+                    statement.setObject(i + 1, values[i]);
+                }
+
+                statement.addBatch();
+            }
+
+            counts = statement.executeBatch();
+        } finally {
+            IOUtil.closeQuietly(statement);
+        }
+
+        for (int count : counts) {
+            if (count == Statement.SUCCESS_NO_INFO) {
+                if (savepoint == null) {
+                    throw new SQLException("The driver did not report the update counts of a batch");
+                }
+
+                connection.rollback(savepoint);
+                batchCountsReported = false;
+
+                return executeEach(connection, query, params);
+            }
+        }
+
+        batchCountsReported = true;
+
+        return counts;
+    }
+
+    /**
+     * Executes an update once for each set of parameters, one at a time.
+     *
+     * @param connection The connection.
+     * @param query The update query.
+     * @param params The parameters of each update.
+     * @return The update count of each update.
+     * @throws SQLException
+     */
+    private int[] executeEach(Connection connection, String query, List<Object[]> params) throws SQLException {
+        int[] counts = new int[params.size()];
+
+        PreparedStatement statement = null;
+
+        try {
+            statement = connection.prepareStatement(query);
+            for (int i = 0; i < counts.length; i++) {
+                Object[] values = params.get(i);
+                for (int j = 0; j < values.length; j++) {
+                    statement.setObject(j + 1, values[j]);
+                }
+
+                counts[i] = statement.executeUpdate();
+            }
+
+            return counts;
+        } finally {
+            IOUtil.closeQuietly(statement);
+        }
+    }
+
+    /**
+     * Gets the indexes of the operations of the specified type.
+     *
+     * @param operations The operations.
+     * @param type The operation type.
+     * @return The indexes.
+     */
+    private List<Integer> getOperationIndexes(List<TodoOperation> operations, TodoOperation.Type type) {
+        List<Integer> indexes = new ArrayList<>();
+        for (int i = 0; i < operations.size(); i++) {
+            if (operations.get(i).getType() == type) {
+                indexes.add(i);
+            }
+        }
+
+        return indexes;
+    }
+
+    /**
+     * Adds a change to a todo to the accumulated counts of a user.
+     *
+     * @param deltas The changes keyed by user id.
+     * @param userId The user id.
+     * @param type The kind of change.
+     * @param wasOpen True if the todo was open before the change.
+     * @param estimate The estimate of the todo.
+     */
+    private void addUserStatsDelta(Map<String, UserStatsDelta> deltas, String userId, TodoOperation.Type type,
+                                   boolean wasOpen, long estimate) {
+
+        UserStatsDelta delta = deltas.get(userId);
+        if (delta == null) {
+            delta = new UserStatsDelta();
+            deltas.put(userId, delta);
+        }
+
+        delta.add(type, wasOpen, estimate);
+    }
+
+    /**
+     * Applies a single change to a todo to the stored counts and the activity rollup of its user.
+     *
+     * @param connection The connection.
+     * @param userId The user id.
+     * @param type The kind of change.
+     * @param wasOpen True if the todo was open before the change.
+     * @param estimate The estimate of the todo.
+     * @param now The time of the change.
+     * @throws SQLException
+     */
+    private void updateUserStats(Connection connection, String userId, TodoOperation.Type type, boolean wasOpen,
+                                 long estimate, long now) throws SQLException {
+
+        UserStatsDelta delta = new UserStatsDelta();
+        delta.add(type, wasOpen, estimate);
+
+        updateUserStats(connection, userId, delta, now);
+    }
+
+    /**
+     * Applies the accumulated changes of a user to the stored counts and
+     * adds them to the activity rollup of the hour they were made in.
+     *
+     * @param connection The connection.
+     * @param userId The user id.
+     * @param delta The changes.
+     * @param now The time of the changes.
+     * @throws SQLException
+     */
+    private void updateUserStats(Connection connection, String userId, UserStatsDelta delta, long now) throws SQLException {
+        if (delta.open != 0 || delta.total != 0 || delta.estimate != 0) {
+            updateUserStats(connection, userId, delta.open, delta.total, delta.estimate);
+        }
+
+        if (delta.created != 0 || delta.completed != 0 || delta.deleted != 0) {
+            updateUserRollup(connection, userId, now, delta.created, delta.completed, delta.deleted,
+                             delta.open, delta.createdEstimate, delta.completedEstimate, delta.estimate);
+        }
+    }
+
+    /**
+     * Adds activity to the rollup of a user for the hour containing a time,
+     * creating the rollup if there is none yet. The rollup is written after
+     * the counts of the user are locked so it adds no contention of its own.
+     *
+     * @param connection The connection.
+     * @param userId The user id.
+     * @param now The time of the activity.
+     * @param created The number of todos created.
+     * @param completed The number of todos completed.
+     * @param deleted The number of todos deleted.
+     * @param openDelta The change in open todos.
+     * @param createdEstimate The estimate minutes of the todos created.
+     * @param completedEstimate The estimate minutes of the todos completed.
+     * @param estimateDelta The change in the open estimate minutes.
+     * @throws SQLException
+     */
+    private void updateUserRollup(Connection connection, String userId, long now, long created, long completed,
+                                  long deleted, long openDelta, long createdEstimate, long completedEstimate,
+                                  long estimateDelta) throws SQLException {
+
+        long bucket = now - now % TodoStatsService.HOUR_MILLIS;
+
+        Object[] params = {
+            created, completed, deleted, openDelta, createdEstimate, completedEstimate, estimateDelta, userId, bucket
+        };
+
+        if (executeUpdate(connection, TodoQuery.UPDATE_USER_ROLLUP, params) > 0) {
+            return;
+        }
+
+        try {
+            executeUpdate(
+                connection, TodoQuery.INSERT_USER_ROLLUP, userId, bucket, created, completed, deleted,
+                openDelta, createdEstimate, completedEstimate, estimateDelta
+            );
+        } catch (SQLException e) {
+            // another transaction created the row first
+            if (!TodoUtil.isDuplicateKey(e)) {
+                throw e;
+            }
+
+            executeUpdate(connection, TodoQuery.UPDATE_USER_ROLLUP, params);
+        }
+    }
+
+    /**
+     * Applies a change to the stored counts of a user, creating the
+     * counts if the user does not have any yet, and records the user
+     * as changed when the open count moves. Must be called in the
+     * same transaction as the change to the todo table.
+     *
+     * @param connection The connection.
+     * @param userId The user id.
+     * @param openDelta The change in open todos.
+     * @param totalDelta The change in total todos.
+     * @param estimateDelta The change in the open estimate minutes.
+     * @throws SQLException
+     */
+    private void updateUserStats(Connection connection, String userId, int openDelta,
+                                 int totalDelta, long estimateDelta) throws SQLException {
+
+        Object[] params = { openDelta, totalDelta, estimateDelta, userId };
+        if (executeUpdate(connection, TodoQuery.UPDATE_USER_STATS, params) == 0) {
+            try {
+                // start at the current time so a user whose counts were removed
+                // never sees a version handed out before the removal again
+                executeUpdate(connection, TodoQuery.INSERT_USER_STATS, userId, openDelta, totalDelta, estimateDelta, TodoUtil.now());
+            } catch (SQLException e) {
+                // another transaction created the row first
+                if (!TodoUtil.isDuplicateKey(e)) {
+                    throw e;
+                }
+
+                executeUpdate(connection, TodoQuery.UPDATE_USER_STATS, params);
+            }
+        }
+
+        // marked after the counts are locked so every writer takes the locks in the same order
+        if (openDelta != 0) {
+            markUserDirty(connection, userId);
+        }
+    }
+
+    /**
+     * Records that the open todo count of a user has changed so that the
+     * flagging service only has to look at the users who changed.
+     *
+     * @param connection The connection.
+     * @param userId The user id.
+     * @throws SQLException
+     */
+    private void markUserDirty(Connection connection, String userId) throws SQLException {
+        if (executeUpdate(connection, TodoQuery.MARK_USER_DIRTY, userId) > 0) {
+            return;
+        }
+
+        try {
+            executeUpdate(connection, TodoQuery.INSERT_DIRTY_USER, userId);
+        } catch (SQLException e) {
+            // another transaction created the row first
+            if (!TodoUtil.isDuplicateKey(e)) {
+                throw e;
+            }
+
+            executeUpdate(connection, TodoQuery.MARK_USER_DIRTY, userId);
         }
     }
 
     /**
-     * Gets the count of active todos for the specified user.
+     * Appends a change to the change log. Must be called after the counts of
+     * the user were changed in the same transaction, the lock held on the
+     * counts row keeps the changes of a user in the order they commit.
      *
+     * @param connection The connection.
+     * @param todoId The todo id.
      * @param userId The user id.
-     * @return The count.
+     * @param type The kind of change.
+     * @param changed The timestamp of the change.
+     * @throws SQLException
+     */
+    private void logChange(Connection connection, String todoId, String userId,
+                           TodoOperation.Type type, long changed) throws SQLException {
+
+        executeUpdate(connection, TodoQuery.INSERT_CHANGE, todoId, userId, type.name(), changed);
+    }
+
+    /**
+     * Streams the todos selected by a query to a visitor from a forward only,
+     * read only result set.
+     *
+     * @param connection The connection.
+     * @param query The query.
+     * @param fetchSize The number of rows fetched from the database at a time.
+     * @param reuse True to pass the same todo for every row.
+     * @param visitor The visitor.
+     * @param params The query parameters.
+     * @return The number of todos visited.
+     * @throws SQLException
      * @throws GeneralException
+     * @throws IOException
      */
-    public int getActiveTodosForUser(String userId) throws GeneralException {
+    private int streamTodos(Connection connection, String query, int fetchSize, boolean reuse, RowVisitor<Todo> visitor,
+                            Object... params) throws SQLException, GeneralException, IOException {
+
+        PreparedStatement statement = null;
+
+        try {
+            statement = TodoUtil.prepareStreamingStatement(connection, query, fetchSize, params);
+
+            ResultSet resultSet = statement.executeQuery();
+            TodoRowReader reader = new TodoRowReader(resultSet, reuse);
+
+            int count = 0;
+            while (resultSet.next()) {
+                count++;
+
+                if (!visitor.visit(reader.read())) {
+                    break;
+                }
+            }
+
+            return count;
+        } finally {
+            IOUtil.closeQuietly(statement);
+        }
+    }
+
+    /**
+     * Inserts a batch of imported todos in one transaction, skipping the
+     * todos whose id is already taken.
+     *
+     * @param todos The todos.
+     * @param report The report the outcome is added to.
+     * @throws GeneralException
+     */
+    private void importBatch(List<Todo> todos, TodoImportReport report) throws GeneralException {
+        long rows = 0;
+
         Connection connection = null;
         PreparedStatement statement = null;
 
         try {
-            int numActive = 0;
+            connection = METRICS.getConnection(pluginContext, "importTodos");
+            connection.setAutoCommit(false);
 
-            connection = pluginContext.getConnection();
-            statement = PluginBaseHelper.prepareStatement(connection, TodoQuery.ACTIVE_TODOS_COUNT, userId);
+            List<String> ids = new ArrayList<>(todos.size());
+            for (Todo todo : todos) {
+                ids.add(todo.getId());
+            }
+
+            Set<String> existing = new HashSet<>();
+
+            statement = PluginBaseHelper.prepareStatement(
+                connection, TodoQuery.withPlaceholders(TodoQuery.EXISTING_TODO_IDS, ids.size()), ids.toArray()
+            );
 
             ResultSet resultSet = statement.executeQuery();
-            if (resultSet.next()) {
-                numActive = resultSet.getInt("total");
+            while (resultSet.next()) {
+                existing.add(resultSet.getString("id"));
             }
 
-            return numActive;
+            IOUtil.closeQuietly(statement);
+            statement = null;
+
+            List<Todo> inserted = new ArrayList<>(todos.size());
+            Map<String, UserStatsDelta> deltas = new TreeMap<>();
+            List<TodoChange> changes = new ArrayList<>();
+
+            long now = TodoUtil.now();
+
+            statement = connection.prepareStatement(TodoQuery.IMPORT_TODO);
+            for (Todo todo : todos) {
+                if (existing.contains(todo.getId())) {
+                    continue;
+                }
+
+                statement.setString(1, todo.getId());
+                statement.setString(2, todo.getUserId());
+                statement.setString(3, todo.getName());
+                statement.setInt(4, todo.getEstimate());
+                statement.setString(5, todo.getNotes());
+                statement.setBoolean(6, todo.isComplete());
+                statement.setLong(7, todo.getCreated());
+                if (todo.isComplete()) {
+                    statement.setLong(8, todo.getCompletedOn());
+                } else {
+                    statement.setNull(8, Types.BIGINT);
+                }
+
+                statement.addBatch();
+
+                inserted.add(todo);
+
+                addUserStatsDelta(deltas, todo.getUserId(), TodoOperation.Type.CREATE, true, todo.getEstimate());
+                changes.add(new TodoChange(0, todo.getId(), todo.getUserId(), TodoOperation.Type.CREATE, now, null));
+
+                if (todo.isComplete()) {
+                    addUserStatsDelta(deltas, todo.getUserId(), TodoOperation.Type.COMPLETE, true, todo.getEstimate());
+                    changes.add(new TodoChange(0, todo.getId(), todo.getUserId(), TodoOperation.Type.COMPLETE, now, null));
+                }
+            }
+
+            if (!inserted.isEmpty()) {
+                statement.executeBatch();
+
+                indexTodos(connection, inserted);
+
+                for (Map.Entry<String, UserStatsDelta> entry : deltas.entrySet()) {
+                    updateUserStats(connection, entry.getKey(), entry.getValue(), now);
+                }
+
+                logChanges(connection, changes);
+            }
+
+            connection.commit();
+
+            rows = inserted.size();
+
+            report.addBatch(inserted.size(), todos.size() - inserted.size());
         } catch (SQLException e) {
+            TodoUtil.rollbackQuietly(connection);
             throw new GeneralException(e);
         } finally {
             IOUtil.closeQuietly(statement);
-            IOUtil.closeQuietly(connection);
+            TodoUtil.restoreAutoCommit(connection);
+            METRICS.close(connection, rows);
         }
-    } 
-    
+    }
+
     /**
-     * Count completed todos in the system.
+     * Gets the score of every todo of a user with a term matching a query term.
      *
      * @param connection The connection.
-     * @return The count.
-     * @throws GeneralException
+     * @param userId The user id.
+     * @param queryTerm The query term.
+     * @param prefix True if the query term also matches the terms it is a prefix of.
+     * @return The scores keyed by todo id.
+     * @throws SQLException
      */
-    private int countCompletedTodos(Connection connection) throws SQLException {
+    private Map<String, Long> getTermScores(Connection connection, String userId, String queryTerm,
+                                            boolean prefix) throws SQLException {
+
         PreparedStatement statement = null;
 
         try {
-            int count = 0;
-            statement = PluginBaseHelper.prepareStatement(connection, TodoQuery.COUNT);
+            // terms only contain letters and digits so the prefix needs no escaping
+            statement = prefix ?
+                PluginBaseHelper.prepareStatement(connection, TodoQuery.TERM_MATCHES, userId, queryTerm + "%") :
+                PluginBaseHelper.prepareStatement(connection, TodoQuery.TERM_MATCHES, userId, queryTerm);
+
+            Map<String, Long> scores = new HashMap<>();
+
+            ResultSet resultSet = statement.executeQuery();
+            while (resultSet.next()) {
+                String todoId = resultSet.getString("todo_id");
+
+                long score = resultSet.getLong("weight");
+                if (queryTerm.equals(resultSet.getString("term"))) {
+                    score *= EXACT_MATCH_FACTOR;
+                }
 
-            ResultSet rs = statement.executeQuery();
-            if (rs.next()) {
-                count = rs.getInt("total");
+                Long current = scores.get(todoId);
+                if (current == null || current < score) {
+                    scores.put(todoId, score);
+                }
             }
 
-            return count;
+            return scores;
         } finally {
             IOUtil.closeQuietly(statement);
         }
     }
 
     /**
-     * Deletes all completed todos.
+     * Adds the terms of todos to the search index in one batch. Must be
+     * called in the same transaction as the change to the todo table.
      *
      * @param connection The connection.
-     * @throws GeneralException
+     * @param todos The todos.
+     * @throws SQLException
      */
-    private void deleteCompletedTodos(Connection connection) throws SQLException {
+    private void indexTodos(Connection connection, List<Todo> todos) throws SQLException {
         PreparedStatement statement = null;
 
         try {
-            statement = PluginBaseHelper.prepareStatement(connection, TodoQuery.DELETE_COMPLETE);
-            statement.executeUpdate();
+            List<Object[]> entries = new ArrayList<>();
+            for (Todo todo : todos) {
+                for (Map.Entry<String, Integer> term : TodoTerms.getTermWeights(todo.getName(), todo.getNotes()).entrySet()) {
+                    entries.add(new Object[] { todo.getUserId(), term.getKey(), todo.getId(), term.getValue() });
+                }
+            }
+
+            if (entries.isEmpty()) {
+                return;
+            }
+
+            statement = connection.prepareStatement(TodoQuery.INSERT_TERM);
+            for (Object[] entry : entries) {
+                statement.setString(1, (String) entry[0]);
+                statement.setString(2, (String) entry[1]);
+                statement.setString(3, (String) entry[2]);
+                statement.setInt(4, (Integer) entry[3]);
+                statement.addBatch();
+            }
+
+            try {
+                statement.executeBatch();
+            } catch (SQLException e) {
+                if (!TodoUtil.isDuplicateKey(e)) {
+                    throw e;
+                }
+
+                // a case or accent insensitive collation can see two of the terms
+                // as the same key, so add the terms one at a time keeping the first
+                statement.clearBatch();
+                for (Object[] entry : entries) {
+                    try {
+                        executeUpdate(connection, TodoQuery.INSERT_TERM, entry);
+                    } catch (SQLException single) {
+                        if (!TodoUtil.isDuplicateKey(single)) {
+                            throw single;
+                        }
+                    }
+                }
+            }
+        } finally {
+            IOUtil.closeQuietly(statement);
+        }
+    }
+
+    /**
+     * Removes the terms of todos from the search index in one batch.
+     *
+     * @param connection The connection.
+     * @param todoIds The todo ids.
+     * @throws SQLException
+     */
+    private void unindexTodos(Connection connection, Collection<String> todoIds) throws SQLException {
+        if (todoIds.isEmpty()) {
+            return;
+        }
+
+        PreparedStatement statement = null;
+
+        try {
+            statement = connection.prepareStatement(TodoQuery.DELETE_TODO_TERMS);
+            for (String todoId : todoIds) {
+                statement.setString(1, todoId);
+                statement.addBatch();
+            }
+
+            statement.executeBatch();
+        } finally {
+            IOUtil.closeQuietly(statement);
+        }
+    }
+
+    /**
+     * Appends changes to the change log in one batch. Must be called after
+     * the counts of the users were changed in the same transaction.
+     *
+     * @param connection The connection.
+     * @param changes The changes.
+     * @throws SQLException
+     */
+    private void logChanges(Connection connection, List<TodoChange> changes) throws SQLException {
+        if (changes.isEmpty()) {
+            return;
+        }
+
+        PreparedStatement statement = null;
+
+        try {
+            statement = connection.prepareStatement(TodoQuery.INSERT_CHANGE);
+            for (TodoChange change : changes) {
+                statement.setString(1, change.getTodoId());
+                statement.setString(2, change.getUserId());
+                statement.setString(3, change.getType().name());
+                statement.setLong(4, change.getChanged());
+                statement.addBatch();
+            }
+
+            statement.executeBatch();
+        } finally {
+            IOUtil.closeQuietly(statement);
+        }
+    }
+
+    /**
+     * Gets the stored counts of a user.
+     *
+     * @param connection The connection.
+     * @param userId The user id.
+     * @return The open count, open estimate and total count or null if the user has no counts.
+     * @throws SQLException
+     */
+    private long[] getUserStats(Connection connection, String userId) throws SQLException {
+        PreparedStatement statement = null;
+
+        try {
+            statement = PluginBaseHelper.prepareStatement(connection, TodoQuery.USER_STATS, userId);
+
+            ResultSet resultSet = statement.executeQuery();
+            if (!resultSet.next()) {
+                return null;
+            }
+
+            return new long[] {
+                resultSet.getLong("open_count"), resultSet.getLong("open_estimate"), resultSet.getLong("total_count")
+            };
+        } finally {
+            IOUtil.closeQuietly(statement);
+        }
+    }
+
+    /**
+     * Executes a query selecting a single number.
+     *
+     * @param connection The connection.
+     * @param query The query.
+     * @param params The query parameters.
+     * @return The number or zero if the query returned no row or null.
+     * @throws SQLException
+     */
+    private long queryLong(Connection connection, String query, Object... params) throws SQLException {
+        PreparedStatement statement = null;
+
+        try {
+            statement = PluginBaseHelper.prepareStatement(connection, query, params);
+
+            ResultSet resultSet = statement.executeQuery();
+
+            return resultSet.next() ? resultSet.getLong(1) : 0;
+        } finally {
+            IOUtil.closeQuietly(statement);
+        }
+    }
+
+    /**
+     * Executes an update statement on the connection.
+     *
+     * @param connection The connection.
+     * @param query The query.
+     * @param params The query parameters.
+     * @return The number of rows affected.
+     * @throws SQLException
+     */
+    private int executeUpdate(Connection connection, String query, Object... params) throws SQLException {
+        PreparedStatement statement = null;
+
+        try {
+            statement = PluginBaseHelper.prepareStatement(connection, query, params);
+
+            return statement.executeUpdate();
+        } finally {
+            IOUtil.closeQuietly(statement);
+        }
+    }
+
+    /**
+     * Executes the page query and adds the todos to the page until it is full.
+     * One row past the limit is read to find out whether more rows follow.
+     *
+     * @param statement The page query, closed when done.
+     * @param todos The todos in the page so far.
+     * @param limit The maximum number of todos in the page.
+     * @return True if there are more todos after the page.
+     * @throws SQLException
+     */
+    private boolean fillPage(PreparedStatement statement, List<Todo> todos, int limit) throws SQLException {
+        try {
+            int remaining = limit - todos.size();
+            statement.setMaxRows(remaining + 1);
+
+            ResultSet resultSet = statement.executeQuery();
+            TodoRowReader reader = new TodoRowReader(resultSet, false);
+
+            while (resultSet.next()) {
+                if (remaining-- == 0) {
+                    return true;
+                }
+
+                todos.add(reader.read());
+            }
+
+            return false;
         } finally {
             IOUtil.closeQuietly(statement);
         }
     }
 
+    /**
+     * Gets the cursor pointing after the last todo in the page.
+     *
+     * @param todos The todos in the page.
+     * @return The cursor.
+     */
+    private String getNextCursor(List<Todo> todos) {
+        Todo last = todos.get(todos.size() - 1);
+        String phase = last.getCompletedOn() == 0 ? PHASE_OPEN : PHASE_COMPLETED;
+
+        return PageCursor.encode(phase, last.getCompletedOn(), last.getCreated(), last.getId());
+    }
+
     /**
      * Creates a Todo object from a raw result set.
      *
@@ -501,19 +2926,124 @@ public class TodoService {
      * @throws SQLException
      */
     private Todo todoFromResult(ResultSet resultSet) throws SQLException {
+        return new TodoRowReader(resultSet, false).read();
+    }
+
+    /**
+     * Creates a TodoChange object from a change log query result.
+     *
+     * @param resultSet The result set.
+     * @param userId The id of the user who owns the todo.
+     * @return The change.
+     * @throws SQLException
+     */
+    private TodoChange changeFromResult(ResultSet resultSet, String userId) throws SQLException {
+        Todo todo = resultSet.getString("id") == null ? null : todoFromResult(resultSet);
+
+        return new TodoChange(
+            resultSet.getLong("seq"), resultSet.getString("todo_id"), userId,
+            TodoOperation.Type.valueOf(resultSet.getString("change_type")), resultSet.getLong("changed"), todo
+        );
+    }
+    
+    /**
+     * Creates a Todo object from the data used to insert it.
+     *
+     * @param data The todo data.
+     * @param name The name that was stored.
+     * @param estimate The estimate that was stored.
+     * @param created The created timestamp.
+     * @return The todo.
+     */
+    private Todo todoFromData(CreateTodoData data, String name, int estimate, long created) {
         Todo todo = new Todo();
-        todo.setId(resultSet.getString("id"));
-        todo.setUserId(resultSet.getString("user_id"));
-        todo.setName(resultSet.getString("name"));
-        todo.setEstimate(resultSet.getInt("estimate"));
-        todo.setNotes(resultSet.getString("notes"));
-        todo.setComplete(resultSet.getBoolean("complete"));
-        todo.setCreated(resultSet.getLong("created"));
-        todo.setCompletedOn(resultSet.getLong("completed_on"));
+        todo.setId(data.getId());
+        todo.setUserId(data.getUserId());
+        todo.setName(name);
+        todo.setEstimate(estimate);
+        todo.setNotes(data.getNotes());
+        todo.setComplete(false);
+        todo.setCreated(created);
 
         return todo;
-    } 
-    
+    }
+
+    /**
+     * Gets the name to store for a new todo.
+     *
+     * @param data The todo data.
+     * @return The name or the default name if none was given.
+     */
+    private String getName(CreateTodoData data) {
+        String name = data.getName();
+        if (Util.isNullOrEmpty(name)) {
+            name = getTodoDefaultName();
+        }
+
+        return name;
+    }
+
+    /**
+     * Gets the estimate to store for a new todo.
+     *
+     * @param data The todo data.
+     * @return The estimate or the default estimate if none was given.
+     */
+    private int getEstimate(CreateTodoData data) {
+        int estimate = data.getEstimate();
+        if (estimate <= 0) {
+            estimate = getTodoDefaultEstimate();
+        }
+
+        return estimate;
+    }
+
+    /**
+     * Determines whether single mutations are grouped with those of other
+     * requests. Services running in a session keep their own transaction
+     * boundaries so they always write directly, callers that want their
+     * writes grouped must use a service created with the plugin context.
+     *
+     * @return True if group commit is enabled.
+     */
+    public boolean isGroupCommitEnabled() {
+        return !(pluginContext instanceof TodoSession) && getGroupCommitWindow() > 0;
+    }
+
+    /**
+     * Executes a single mutation as part of a group commit.
+     *
+     * @param operation The operation.
+     * @return The result of the operation.
+     * @throws GeneralException
+     */
+    private TodoOperationResult groupCommit(TodoOperation operation) throws GeneralException {
+        return GROUP_COMMIT.execute(this, operation, getGroupCommitWindow(), getGroupCommitMaxSize());
+    }
+
+    /**
+     * Gets the configured group commit window in milliseconds.
+     *
+     * @return The window, zero or less when group commit is disabled.
+     */
+    private int getGroupCommitWindow() {
+        return pluginContext.getSettingInt(SETTING_GROUP_COMMIT_WINDOW);
+    }
+
+    /**
+     * Gets the configured maximum number of mutations in a group commit.
+     *
+     * @return The maximum group size.
+     */
+    private int getGroupCommitMaxSize() {
+        int maxSize = pluginContext.getSettingInt(SETTING_GROUP_COMMIT_MAX_SIZE);
+        if (maxSize <= 0) {
+            maxSize = DEFAULT_GROUP_COMMIT_MAX_SIZE;
+        }
+
+        return Math.min(maxSize, MAX_IN_LIST_SIZE);
+    }
+
     /**
      * Gets the configured default todo name.
      *
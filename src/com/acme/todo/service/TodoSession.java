@@ -0,0 +1,228 @@
+
+package com.acme.todo.service;
+
+import com.acme.todo.util.TodoUtil;
+
+import sailpoint.plugin.PluginContext;
+import sailpoint.tools.GeneralException;
+import sailpoint.tools.IOUtil;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * A unit of work which lets several service operations share one
+ * connection and one transaction. The session is a plugin context
+ * so services are created with it in place of the real context:
+ *
+ * <pre>
+ * TodoSession session = TodoSession.open(pluginContext);
+ * try {
+ *     TodoService todoService = new TodoService(session);
+ *     Todo todo = todoService.getTodo(id);
+ *     todoService.completeTodo(todo);
+ *
+ *     session.commit();
+ * } finally {
+ *     session.close();
+ * }
+ * </pre>
+ *
+ * Services handed the session see a connection whose close, commit,
+ * rollback and auto commit calls are ignored, so their own transaction
+ * handling simply joins the session transaction. A rollback requested
+ * by a service marks the session so that it can no longer be committed.
+ * Operations that commit in chunks, such as the completed todo purge,
+ * become one large transaction in a session and should not be run in one.
+ */
+public class TodoSession implements PluginContext {
+
+    /**
+     * The plugin context.
+     */
+    private PluginContext pluginContext;
+
+    /**
+     * The real connection, opened on first use.
+     */
+    private Connection connection;
+
+    /**
+     * The connection handed to services.
+     */
+    private Connection sharedConnection;
+
+    /**
+     * Flag indicating that a service rolled back and the work must not be committed.
+     */
+    private boolean rollbackOnly;
+
+    /**
+     * Constructor.
+     *
+     * @param pluginContext The plugin context.
+     */
+    private TodoSession(PluginContext pluginContext) {
+        this.pluginContext = pluginContext;
+    }
+
+    /**
+     * Opens a new session. The connection is not checked out of the pool
+     * until a service first asks for it.
+     *
+     * @param pluginContext The plugin context.
+     * @return The session.
+     */
+    public static TodoSession open(PluginContext pluginContext) {
+        return new TodoSession(pluginContext);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getPluginName() {
+        return pluginContext.getPluginName();
+    }
+
+    /**
+     * Gets the connection shared by all operations in the session.
+     *
+     * @return The connection.
+     * @throws GeneralException
+     */
+    @Override
+    public Connection getConnection() throws GeneralException {
+        if (sharedConnection == null) {
+            connection = pluginContext.getConnection();
+
+            try {
+                connection.setAutoCommit(false);
+            } catch (SQLException e) {
+                IOUtil.closeQuietly(connection);
+                connection = null;
+
+                throw new GeneralException(e);
+            }
+
+            sharedConnection = (Connection) Proxy.newProxyInstance(
+                TodoSession.class.getClassLoader(), new Class<?>[] { Connection.class }, new SharedConnectionHandler()
+            );
+        }
+
+        return sharedConnection;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getSettingString(String name) {
+        return pluginContext.getSettingString(name);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getSettingInt(String name) {
+        return pluginContext.getSettingInt(name);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean getSettingBool(String name) {
+        return pluginContext.getSettingBool(name);
+    }
+
+    /**
+     * Commits the work done in the session.
+     *
+     * @throws GeneralException If an operation in the session rolled back.
+     */
+    public void commit() throws GeneralException {
+        if (connection == null) {
+            return;
+        }
+
+        if (rollbackOnly) {
+            rollback();
+
+            throw new GeneralException("Unable to commit, an operation in the session was rolled back");
+        }
+
+        try {
+            connection.commit();
+        } catch (SQLException e) {
+            throw new GeneralException(e);
+        }
+    }
+
+    /**
+     * Rolls back the work done in the session.
+     */
+    public void rollback() {
+        TodoUtil.rollbackQuietly(connection);
+        rollbackOnly = false;
+    }
+
+    /**
+     * Closes the session, rolling back anything that was not committed
+     * and returning the connection to the pool.
+     */
+    public void close() {
+        if (connection == null) {
+            return;
+        }
+
+        TodoUtil.rollbackQuietly(connection);
+        TodoUtil.restoreAutoCommit(connection);
+        IOUtil.closeQuietly(connection);
+
+        connection = null;
+        sharedConnection = null;
+    }
+
+    /**
+     * Handler for the shared connection which keeps services from ending
+     * the session transaction or closing the connection.
+     */
+    private class SharedConnectionHandler implements InvocationHandler {
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if ("close".equals(name) || "commit".equals(name) || "setAutoCommit".equals(name)) {
+                return null;
+            }
+
+            if ("rollback".equals(name) && (args == null || args.length == 0)) {
+                rollbackOnly = true;
+                return null;
+            }
+
+            if ("getAutoCommit".equals(name)) {
+                return false;
+            }
+
+            try {
+                return method.invoke(connection, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+
+    }
+
+}
+
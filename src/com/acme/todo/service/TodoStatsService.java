@@ -0,0 +1,297 @@
+
+package com.acme.todo.service;
+
+import com.acme.todo.util.TodoMetrics;
+import com.acme.todo.util.TodoQuery;
+import com.acme.todo.util.TodoUtil;
+
+import sailpoint.plugin.PluginBaseHelper;
+import sailpoint.plugin.PluginContext;
+import sailpoint.tools.GeneralException;
+import sailpoint.tools.IOUtil;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Service containing the logic for the todo activity rollups. The
+ * activity of every user is added to an hourly rollup row by the
+ * TodoService in the same transaction as the change itself. The rows of
+ * all users are folded into hourly rows for the whole system by the
+ * flagging service and the cleanup task, together with the open todos at
+ * the start of the last folded hour. Reading the activity of the system
+ * then only sums the hours which have not been folded yet, and the rows
+ * of users older than the stats endpoint can ask for are removed.
+ */
+public class TodoStatsService {
+
+    /**
+     * The number of milliseconds in an hour, the period of a rollup row.
+     */
+    public static final long HOUR_MILLIS = 60L * 60 * 1000;
+
+    /**
+     * The number of milliseconds in a day.
+     */
+    public static final long DAY_MILLIS = 24 * HOUR_MILLIS;
+
+    /**
+     * The number of activity counters in a rollup row.
+     */
+    private static final int NUM_COUNTERS = 7;
+
+    /**
+     * The number of days the hourly rollups of the users are kept, a day
+     * more than the longest activity the stats endpoint returns.
+     */
+    public static final int USER_ROLLUP_RETENTION_DAYS = 367;
+
+    /**
+     * The metrics of the service methods, recorded from where each method gets its connection to where it closes it.
+     */
+    private static final TodoMetrics.Component METRICS = TodoMetrics.component("TodoStatsService");
+
+    /**
+     * The plugin context.
+     */
+    private PluginContext pluginContext;
+
+    /**
+     * Constructor.
+     *
+     * @param pluginContext The plugin context.
+     */
+    public TodoStatsService(PluginContext pluginContext) {
+        this.pluginContext = pluginContext;
+    }
+
+    /**
+     * Gets the todo activity of a user or of the whole system over the most
+     * recent periods, oldest first. The last period is the one containing
+     * the current time. Periods are aligned to UTC and should be a whole
+     * number of hours.
+     *
+     * @param userId The user id or null for the whole system.
+     * @param numPeriods The number of periods.
+     * @param periodMillis The length of a period in milliseconds.
+     * @return The activity of each period.
+     * @throws GeneralException
+     */
+    public List<TodoRollup> getRollups(String userId, int numPeriods, long periodMillis) throws GeneralException {
+        long rows = 0;
+
+        Connection connection = null;
+
+        try {
+            connection = METRICS.getConnection(pluginContext, "getRollups");
+
+            long now = TodoUtil.now();
+            long from = now - now % periodMillis - (numPeriods - 1) * periodMillis;
+
+            List<TodoRollup> rollups = new ArrayList<>(numPeriods);
+            for (int i = 0; i < numPeriods; i++) {
+                rollups.add(new TodoRollup(from + i * periodMillis));
+            }
+
+            long[] open;
+            if (userId != null) {
+                rows += readRollups(connection, rollups, from, periodMillis, TodoQuery.USER_ROLLUPS, userId, from);
+                open = queryLongs(connection, 2, TodoQuery.USER_STATS, userId);
+            } else {
+                // the last folded hour may have been folded before it was over
+                long[] last = queryLongs(connection, 3, TodoQuery.LAST_ROLLUP);
+                long lastFolded = last[0];
+                if (lastFolded > from) {
+                    rows += readRollups(connection, rollups, from, periodMillis, TodoQuery.ROLLUPS, from, lastFolded);
+                }
+
+                rows += readRollups(connection, rollups, from, periodMillis, TodoQuery.LIVE_ROLLUPS, Math.max(from, lastFolded));
+
+                if (lastFolded > 0) {
+                    long[] delta = queryLongs(connection, 2, TodoQuery.OPEN_DELTAS_FROM, lastFolded);
+                    open = new long[] { last[1] + delta[0], last[2] + delta[1] };
+                } else {
+                    open = queryLongs(connection, 2, TodoQuery.OPEN_TOTALS);
+                }
+            }
+
+            // the open todos are only stored for now so walk back through the changes
+            long openCount = open[0];
+            long openEstimate = open[1];
+            for (int i = rollups.size() - 1; i >= 0; i--) {
+                TodoRollup rollup = rollups.get(i);
+                rollup.setOpen(openCount, openEstimate);
+
+                openCount -= rollup.getOpenDelta();
+                openEstimate -= rollup.getEstimateDelta();
+            }
+
+            return rollups;
+        } catch (SQLException e) {
+            throw new GeneralException(e);
+        } finally {
+            METRICS.close(connection, rows);
+        }
+    }
+
+    /**
+     * Folds the hourly rollups of the users into the rollups of the whole
+     * system. The hours from the last folded one on are folded again, so
+     * activity added to an hour after it was folded is picked up. The open
+     * todos at the start of the last folded hour are stored with it, and
+     * the rollups of users past the retention are removed.
+     *
+     * @return The number of hours folded.
+     * @throws GeneralException
+     */
+    public int foldRollups() throws GeneralException {
+        long rows = 0;
+
+        Connection connection = null;
+
+        try {
+            connection = METRICS.getConnection(pluginContext, "foldRollups");
+            connection.setAutoCommit(false);
+
+            long from = queryLongs(connection, 1, TodoQuery.LAST_ROLLUP_BUCKET)[0];
+
+            executeUpdate(connection, TodoQuery.DELETE_ROLLUPS_FROM, from);
+            int numFolded = executeUpdate(connection, TodoQuery.FOLD_ROLLUPS, from);
+
+            // the totals are summed over all users once per fold rather than
+            // on every read, the change since is read from the unfolded hours
+            long last = queryLongs(connection, 1, TodoQuery.LAST_ROLLUP_BUCKET)[0];
+            if (last > 0) {
+                long[] open = queryLongs(connection, 2, TodoQuery.OPEN_TOTALS);
+                long[] delta = queryLongs(connection, 2, TodoQuery.OPEN_DELTAS_FROM, last);
+
+                executeUpdate(connection, TodoQuery.SET_ROLLUP_OPEN, open[0] - delta[0], open[1] - delta[1], last);
+            }
+
+            long now = TodoUtil.now();
+            long keepFrom = now - now % HOUR_MILLIS - USER_ROLLUP_RETENTION_DAYS * DAY_MILLIS;
+
+            rows = numFolded + executeUpdate(connection, TodoQuery.DELETE_USER_ROLLUPS_BEFORE, Math.min(keepFrom, from));
+
+            connection.commit();
+
+            return numFolded;
+        } catch (SQLException e) {
+            TodoUtil.rollbackQuietly(connection);
+
+            // another host or the cleanup task folded the same hours at the same time
+            if (TodoUtil.isDuplicateKey(e)) {
+                return 0;
+            }
+
+            throw new GeneralException(e);
+        } finally {
+            TodoUtil.restoreAutoCommit(connection);
+            METRICS.close(connection, rows);
+        }
+    }
+
+    /**
+     * Adds the hourly rollup rows selected by a query to the periods they fall in.
+     * Rows past the last period are ignored.
+     *
+     * @param connection The connection.
+     * @param rollups The rollups of the periods.
+     * @param from The start of the first period.
+     * @param periodMillis The length of a period in milliseconds.
+     * @param query The query selecting the bucket followed by the counters.
+     * @param params The query parameters.
+     * @return The number of rows read.
+     * @throws SQLException
+     */
+    private int readRollups(Connection connection, List<TodoRollup> rollups, long from, long periodMillis,
+                            String query, Object... params) throws SQLException {
+
+        PreparedStatement statement = null;
+
+        try {
+            statement = PluginBaseHelper.prepareStatement(connection, query, params);
+
+            int numRows = 0;
+
+            ResultSet resultSet = statement.executeQuery();
+            while (resultSet.next()) {
+                long index = (resultSet.getLong(1) - from) / periodMillis;
+                if (index < 0 || index >= rollups.size()) {
+                    continue;
+                }
+
+                long[] counters = new long[NUM_COUNTERS];
+                for (int i = 0; i < NUM_COUNTERS; i++) {
+                    counters[i] = resultSet.getLong(i + 2);
+                }
+
+                rollups.get((int) index).add(counters);
+                numRows++;
+            }
+
+            return numRows;
+        } finally {
+            IOUtil.closeQuietly(statement);
+        }
+    }
+
+    /**
+     * Gets the leading number columns of the first row of a query.
+     *
+     * @param connection The connection.
+     * @param numColumns The number of columns.
+     * @param query The query.
+     * @param params The query parameters.
+     * @return The values, zero when there is no row or the value is null.
+     * @throws SQLException
+     */
+    private long[] queryLongs(Connection connection, int numColumns, String query, Object... params) throws SQLException {
+        PreparedStatement statement = null;
+
+        try {
+            statement = PluginBaseHelper.prepareStatement(connection, query, params);
+
+            long[] values = new long[numColumns];
+
+            ResultSet resultSet = statement.executeQuery();
+            if (resultSet.next()) {
+                for (int i = 0; i < numColumns; i++) {
+                    values[i] = resultSet.getLong(i + 1);
+                }
+            }
+
+            return values;
+        } finally {
+            IOUtil.closeQuietly(statement);
+        }
+    }
+
+    /**
+     * Executes an update statement on the connection.
+     *
+     * @param connection The connection.
+     * @param query The query.
+     * @param params The query parameters.
+     * @return The number of rows updated.
+     * @throws SQLException
+     */
+    private int executeUpdate(Connection connection, String query, Object... params) throws SQLException {
+        PreparedStatement statement = null;
+
+        try {
+            statement = PluginBaseHelper.prepareStatement(connection, query, params);
+
+            return statement.executeUpdate();
+        } finally {
+            IOUtil.closeQuietly(statement);
+        }
+    }
+
+}
+
@@ -1,23 +1,28 @@
 
 package com.acme.todo.task;
 
+import com.acme.todo.service.Page;
 import com.acme.todo.service.TodoService;
+import com.acme.todo.service.TodoStatsService;
 import com.acme.todo.util.TodoUtil;
 
-import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
-import java.sql.SQLException;
-
 import sailpoint.api.SailPointContext;
 import sailpoint.object.Attributes;
 import sailpoint.object.TaskResult;
 import sailpoint.object.TaskSchedule;
 import sailpoint.task.BasePluginTaskExecutor;
-import sailpoint.tools.IOUtil;
+import sailpoint.task.TaskMonitor;
 
 /**
- * Task executor implementation that removes all completed todos.
+ * Task executor implementation that removes completed todos older than
+ * the retention window, trims the todo change log and optionally verifies
+ * the per user todo counts. In archive mode completed todos older than a
+ * number of days are moved into the archive instead of being deleted.
+ * Before that the hourly todo activity of the users is folded into the
+ * activity rollups of the whole system.
+ * The todos and changes are removed in chunks, each in its own transaction,
+ * so the task can be terminated between chunks and simply run again
+ * to pick up where it left off.
  *
  * @author Dustin Dobervich <dustin.dobervich@sailpoint.com>
  */
@@ -28,6 +33,96 @@ public class TodoTaskExecutor extends BasePluginTaskExecutor {
      */
     private static final String ATT_NUM_DELETED = "numTodosDeleted";
 
+    /**
+     * Key used to store the number of todos moved into the archive in the task result.
+     */
+    private static final String ATT_NUM_ARCHIVED = "numTodosArchived";
+
+    /**
+     * Key used to store the number of users whose todo counts were repaired.
+     */
+    private static final String ATT_NUM_STATS_REPAIRED = "numStatsRepaired";
+
+    /**
+     * Key used to store the number of changes removed from the change log in the task result.
+     */
+    private static final String ATT_NUM_CHANGES_COMPACTED = "numChangesCompacted";
+
+    /**
+     * Key used to store the number of hours folded into the activity rollups in the task result.
+     */
+    private static final String ATT_NUM_ROLLUPS_FOLDED = "numRollupsFolded";
+
+    /**
+     * Key used to store the number of todos added to the search index in the task result.
+     */
+    private static final String ATT_NUM_TODOS_INDEXED = "numTodosIndexed";
+
+    /**
+     * Argument key for the maximum number of todos removed per transaction.
+     */
+    private static final String ARG_CHUNK_SIZE = "chunkSize";
+
+    /**
+     * Argument key for the number of milliseconds to pause between chunks.
+     */
+    private static final String ARG_CHUNK_PAUSE = "chunkPause";
+
+    /**
+     * Argument key for whether to verify and repair the per user todo counts.
+     */
+    private static final String ARG_VERIFY_STATS = "verifyStats";
+
+    /**
+     * Argument key for whether to rebuild the todo search index.
+     */
+    private static final String ARG_REBUILD_SEARCH_INDEX = "rebuildSearchIndex";
+
+    /**
+     * Argument key for the number of days after completion a todo is deleted.
+     */
+    private static final String ARG_RETENTION_DAYS = "retentionDays";
+
+    /**
+     * Argument key for the number of hours of completion time purged as one bucket.
+     */
+    private static final String ARG_PURGE_BUCKET_HOURS = "purgeBucketHours";
+
+    /**
+     * The default number of hours of completion time purged as one bucket.
+     */
+    private static final int DEFAULT_PURGE_BUCKET_HOURS = 24;
+
+    /**
+     * Argument key for whether to archive completed todos rather than delete them.
+     */
+    private static final String ARG_ARCHIVE = "archive";
+
+    /**
+     * Argument key for the number of days after completion a todo is archived.
+     */
+    private static final String ARG_ARCHIVE_AFTER_DAYS = "archiveAfterDays";
+
+    /**
+     * Argument key for the number of days changes are kept in the change log.
+     */
+    private static final String ARG_CHANGE_RETENTION_DAYS = "changeRetentionDays";
+
+    /**
+     * The number of milliseconds in a day.
+     */
+    private static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+
+    /**
+     * The number of milliseconds in an hour.
+     */
+    private static final long MILLIS_PER_HOUR = 60L * 60 * 1000;
+
+    /**
+     * Flag set when the task has been asked to stop.
+     */
+    private volatile boolean terminated;
+
     /**
      * {@inheritDoc}
      */
@@ -43,9 +138,69 @@ public class TodoTaskExecutor extends BasePluginTaskExecutor {
     public void execute(SailPointContext context, TaskSchedule schedule,
                         TaskResult result, Attributes<String, Object> args) throws Exception {
 
-        int numDeleted = getTodoService().deleteCompletedTodos();
+        int chunkSize = args.getInt(ARG_CHUNK_SIZE);
+        if (chunkSize <= 0) {
+            chunkSize = TodoService.DEFAULT_CHUNK_SIZE;
+        }
+
+        long chunkPause = args.getLong(ARG_CHUNK_PAUSE);
+
+        TodoService todoService = getTodoService();
+        TaskMonitor monitor = new TaskMonitor(context, result);
+
+        monitor.updateProgress("Folding todo activity rollups");
+
+        result.put(ATT_NUM_ROLLUPS_FOLDED, new TodoStatsService(this).foldRollups());
+
+        boolean archive = args.getBoolean(ARG_ARCHIVE);
+        int keepDays = archive ? args.getInt(ARG_ARCHIVE_AFTER_DAYS) : args.getInt(ARG_RETENTION_DAYS);
+        long purgeBefore = TodoUtil.now() - Math.max(0, keepDays) * MILLIS_PER_DAY;
+
+        int bucketHours = args.getInt(ARG_PURGE_BUCKET_HOURS);
+        if (bucketHours <= 0) {
+            bucketHours = DEFAULT_PURGE_BUCKET_HOURS;
+        }
+
+        purgeCompletedTodos(todoService, monitor, result, archive, purgeBefore, bucketHours * MILLIS_PER_HOUR,
+                            chunkSize, chunkPause);
+
+        int retentionDays = args.getInt(ARG_CHANGE_RETENTION_DAYS);
+        if (retentionDays <= 0) {
+            retentionDays = TodoService.DEFAULT_CHANGE_RETENTION_DAYS;
+        }
+
+        long compactBefore = TodoUtil.now() - retentionDays * MILLIS_PER_DAY;
 
-        result.put(ATT_NUM_DELETED, numDeleted);
+        int numCompacted = 0;
+        while (!terminated) {
+            int numChunk = todoService.compactChanges(compactBefore, chunkSize);
+            if (numChunk == 0) {
+                break;
+            }
+
+            numCompacted += numChunk;
+
+            result.put(ATT_NUM_CHANGES_COMPACTED, numCompacted);
+            monitor.updateProgress("Removed " + numCompacted + " changes from the change log");
+
+            if (chunkPause > 0 && !terminated) {
+                Thread.sleep(chunkPause);
+            }
+        }
+
+        result.put(ATT_NUM_CHANGES_COMPACTED, numCompacted);
+
+        if (args.getBoolean(ARG_VERIFY_STATS) && !terminated) {
+            monitor.updateProgress("Verifying per user todo counts");
+
+            result.put(ATT_NUM_STATS_REPAIRED, todoService.verifyUserStats());
+        }
+
+        if (args.getBoolean(ARG_REBUILD_SEARCH_INDEX)) {
+            rebuildSearchIndex(todoService, monitor, result, chunkSize, chunkPause);
+        }
+
+        result.setTerminated(terminated);
     }
 
     /**
@@ -53,8 +208,107 @@ public class TodoTaskExecutor extends BasePluginTaskExecutor {
      */
     @Override
     public boolean terminate() {
+        terminated = true;
+
         return true;
-    } 
+    }
+
+    /**
+     * Rebuilds the search index one chunk of todos at a time, in the order
+     * of their ids, so the todos written while it runs stay searchable.
+     *
+     * @param todoService The todo service.
+     * @param monitor The task monitor.
+     * @param result The task result.
+     * @param chunkSize The maximum number of todos reindexed per transaction.
+     * @param chunkPause The milliseconds to pause between chunks.
+     * @throws Exception
+     */
+    private void rebuildSearchIndex(TodoService todoService, TaskMonitor monitor, TaskResult result,
+                                    int chunkSize, long chunkPause) throws Exception {
+
+        int numIndexed = 0;
+
+        String after = null;
+        while (!terminated) {
+            Page<String> chunk = todoService.reindexTodos(after, chunkSize);
+
+            numIndexed += chunk.getCount();
+            after = chunk.getNext();
+
+            result.put(ATT_NUM_TODOS_INDEXED, numIndexed);
+            monitor.updateProgress("Added " + numIndexed + " todos to the search index");
+
+            if (after == null) {
+                break;
+            }
+
+            if (chunkPause > 0 && !terminated) {
+                Thread.sleep(chunkPause);
+            }
+        }
+
+        result.put(ATT_NUM_TODOS_INDEXED, numIndexed);
+    }
+
+    /**
+     * Deletes or archives the todos completed before a time. The time from
+     * the oldest completed todo on is cut into buckets which are purged
+     * one after another in chunks, so every statement only scans a narrow
+     * range of the completion time index.
+     *
+     * @param todoService The todo service.
+     * @param monitor The task monitor.
+     * @param result The task result.
+     * @param archive True to archive the todos rather than delete them.
+     * @param before The time the todos must have been completed before.
+     * @param bucketMillis The number of milliseconds of completion time in a bucket.
+     * @param chunkSize The maximum number of todos purged per transaction.
+     * @param chunkPause The number of milliseconds to pause between chunks.
+     * @throws Exception
+     */
+    private void purgeCompletedTodos(TodoService todoService, TaskMonitor monitor, TaskResult result, boolean archive,
+                                     long before, long bucketMillis, int chunkSize, long chunkPause) throws Exception {
+
+        String attribute = archive ? ATT_NUM_ARCHIVED : ATT_NUM_DELETED;
+        String action = archive ? "Archived " : "Deleted ";
+
+        int numPurged = 0;
+
+        long from = todoService.getOldestCompletedOn();
+        while (from > 0 && from < before && !terminated) {
+            long to = Math.min(from + bucketMillis, before);
+
+            while (!terminated) {
+                int numChunk = archive ?
+                    todoService.archiveCompletedTodos(from, to, chunkSize) :
+                    todoService.deleteCompletedTodos(from, to, chunkSize);
+
+                if (numChunk == 0) {
+                    break;
+                }
+
+                numPurged += numChunk;
+
+                result.put(attribute, numPurged);
+                monitor.updateProgress(action + numPurged + " completed todos");
+
+                if (chunkPause > 0 && !terminated) {
+                    Thread.sleep(chunkPause);
+                }
+            }
+
+            // skip straight to the next completed todo rather than walking empty buckets
+            long oldest = todoService.getOldestCompletedOn();
+            if (oldest == 0) {
+                break;
+            }
+
+            from = Math.max(to, oldest);
+        }
+
+        result.put(attribute, numPurged);
+    }
 
     /**
      * Gets an instance of the TodoService.
@@ -0,0 +1,158 @@
+
+package com.acme.todo.util;
+
+import sailpoint.tools.GeneralException;
+
+import java.io.IOException;
+import java.io.Reader;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads CSV records one at a time from a character stream, so only the
+ * current record is ever held in memory. Fields are separated by commas
+ * and may be quoted with double quotes, inside which commas, line breaks
+ * and doubled quotes are part of the value. Blank lines are skipped.
+ */
+public class CsvReader {
+
+    /**
+     * The underlying reader, expected to be buffered.
+     */
+    private Reader reader;
+
+    /**
+     * The line the next character is on.
+     */
+    private int line = 1;
+
+    /**
+     * The line the last record read started on.
+     */
+    private int recordLine;
+
+    /**
+     * The character read ahead or -2 if there is none.
+     */
+    private int pushedBack = -2;
+
+    /**
+     * Constructor.
+     *
+     * @param reader The reader, expected to be buffered.
+     */
+    public CsvReader(Reader reader) {
+        this.reader = reader;
+    }
+
+    /**
+     * Reads the next record.
+     *
+     * @return The fields of the record or null at the end of the stream.
+     * @throws GeneralException If a quoted field is not terminated.
+     * @throws IOException
+     */
+    public List<String> readRecord() throws GeneralException, IOException {
+        int c = read();
+        while (c == '\r' || c == '\n') {
+            c = read();
+        }
+
+        if (c == -1) {
+            return null;
+        }
+
+        recordLine = line;
+
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+
+        while (true) {
+            if (c == '"' && field.length() == 0) {
+                readQuoted(field);
+                c = read();
+            }
+
+            if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else if (c == '\r' || c == '\n' || c == -1) {
+                if (c == '\r') {
+                    int next = read();
+                    if (next != '\n') {
+                        pushedBack = next;
+                    }
+                }
+
+                fields.add(field.toString());
+
+                return fields;
+            } else {
+                field.append((char) c);
+            }
+
+            c = read();
+        }
+    }
+
+    /**
+     * Gets the line the last record read started on, counting from one.
+     *
+     * @return The line.
+     */
+    public int getRecordLine() {
+        return recordLine;
+    }
+
+    /**
+     * Reads the rest of a quoted field, up to and including the closing quote.
+     *
+     * @param field The field.
+     * @throws GeneralException If the stream ends before the closing quote.
+     * @throws IOException
+     */
+    private void readQuoted(StringBuilder field) throws GeneralException, IOException {
+        while (true) {
+            int c = read();
+            if (c == -1) {
+                throw new GeneralException("Unterminated quoted field starting on line " + recordLine);
+            }
+
+            if (c == '"') {
+                int next = read();
+                if (next != '"') {
+                    pushedBack = next;
+                    return;
+                }
+            }
+
+            field.append((char) c);
+        }
+    }
+
+    /**
+     * Reads the next character, counting lines.
+     *
+     * @return The character or -1 at the end of the stream.
+     * @throws IOException
+     */
+    private int read() throws IOException {
+        int c;
+        if (pushedBack != -2) {
+            c = pushedBack;
+            pushedBack = -2;
+
+            return c;
+        }
+
+        c = reader.read();
+        if (c == '\n') {
+            line++;
+        }
+
+        return c;
+    }
+
+}
+
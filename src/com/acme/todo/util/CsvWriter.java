@@ -0,0 +1,117 @@
+
+package com.acme.todo.util;
+
+import java.io.BufferedWriter;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Minimal CSV writer used to stream large exports straight to the output
+ * stream. Fields are quoted only when they contain a comma, a quote or a
+ * line break and records end with CRLF.
+ */
+public class CsvWriter implements Flushable {
+
+    /**
+     * The underlying writer.
+     */
+    private Writer writer;
+
+    /**
+     * Flag indicating that the next field must be preceded by a comma.
+     */
+    private boolean comma;
+
+    /**
+     * Constructor.
+     *
+     * @param outputStream The output stream.
+     */
+    public CsvWriter(OutputStream outputStream) {
+        this.writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Writes a field.
+     *
+     * @param value The value, null is written as an empty field.
+     * @return The writer.
+     * @throws IOException
+     */
+    public CsvWriter field(String value) throws IOException {
+        if (comma) {
+            writer.write(',');
+        }
+
+        comma = true;
+
+        if (value == null) {
+            return this;
+        }
+
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\r' || c == '\n';
+        }
+
+        if (!quote) {
+            writer.write(value);
+            return this;
+        }
+
+        writer.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') {
+                writer.write('"');
+            }
+
+            writer.write(c);
+        }
+        writer.write('"');
+
+        return this;
+    }
+
+    /**
+     * Writes a numeric field.
+     *
+     * @param value The value.
+     * @return The writer.
+     * @throws IOException
+     */
+    public CsvWriter field(long value) throws IOException {
+        return field(Long.toString(value));
+    }
+
+    /**
+     * Ends the current record.
+     *
+     * @return The writer.
+     * @throws IOException
+     */
+    public CsvWriter endRecord() throws IOException {
+        writer.write("\r\n");
+        comma = false;
+
+        return this;
+    }
+
+    /**
+     * Flushes the buffered output to the output stream.
+     *
+     * @throws IOException
+     */
+    @Override
+    public void flush() throws IOException {
+        writer.flush();
+    }
+
+}
+
@@ -0,0 +1,151 @@
+
+package com.acme.todo.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock free histogram with power of two buckets. Bucket zero holds zero
+ * and bucket i holds values from 2^(i-1) to 2^i - 1, which keeps the
+ * relative error under a factor of two for any magnitude while recording
+ * is a handful of atomic increments without allocating.
+ */
+public class Histogram {
+
+    /**
+     * The number of buckets, enough for any non-negative long.
+     */
+    public static final int NUM_BUCKETS = 64;
+
+    /**
+     * The count of values in each bucket.
+     */
+    private final AtomicLongArray buckets = new AtomicLongArray(NUM_BUCKETS);
+
+    /**
+     * The number of values recorded.
+     */
+    private final AtomicLong count = new AtomicLong();
+
+    /**
+     * The sum of the values recorded.
+     */
+    private final AtomicLong sum = new AtomicLong();
+
+    /**
+     * The largest value recorded.
+     */
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records a value. Negative values are recorded as zero.
+     *
+     * @param value The value.
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+
+        buckets.incrementAndGet(getBucket(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+
+        long current = max.get();
+        while (value > current && !max.compareAndSet(current, value)) {
+            current = max.get();
+        }
+    }
+
+    /**
+     * Gets the number of values recorded.
+     *
+     * @return The count.
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * Gets the sum of the values recorded.
+     *
+     * @return The sum.
+     */
+    public long getSum() {
+        return sum.get();
+    }
+
+    /**
+     * Gets the largest value recorded.
+     *
+     * @return The max.
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Gets the number of values recorded in a bucket.
+     *
+     * @param bucket The bucket.
+     * @return The count.
+     */
+    public long getBucketCount(int bucket) {
+        return buckets.get(bucket);
+    }
+
+    /**
+     * Gets the largest value held by a bucket.
+     *
+     * @param bucket The bucket.
+     * @return The upper bound.
+     */
+    public static long getUpperBound(int bucket) {
+        if (bucket == 0) {
+            return 0;
+        }
+
+        return bucket == NUM_BUCKETS - 1 ? Long.MAX_VALUE : (1L << bucket) - 1;
+    }
+
+    /**
+     * Estimates a quantile as the upper bound of the bucket it falls in.
+     *
+     * @param quantile The quantile between zero and one.
+     * @return The estimate, never more than the largest value recorded.
+     */
+    public long getQuantile(double quantile) {
+        long total = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            total += buckets.get(i);
+        }
+
+        if (total == 0) {
+            return 0;
+        }
+
+        long rank = (long) Math.ceil(quantile * total);
+
+        long seen = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            seen += buckets.get(i);
+            if (seen >= rank) {
+                return Math.min(getUpperBound(i), getMax());
+            }
+        }
+
+        return getMax();
+    }
+
+    /**
+     * Gets the bucket that holds a value.
+     *
+     * @param value The non-negative value.
+     * @return The bucket.
+     */
+    private static int getBucket(long value) {
+        return NUM_BUCKETS - Long.numberOfLeadingZeros(value);
+    }
+
+}
+
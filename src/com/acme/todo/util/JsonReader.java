@@ -0,0 +1,268 @@
+
+package com.acme.todo.util;
+
+import sailpoint.tools.GeneralException;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Minimal JSON reader for flat objects, the counterpart of JsonWriter used
+ * to read newline delimited records one line at a time. Values can be
+ * strings, numbers, booleans or null, nested objects and arrays are
+ * rejected.
+ */
+public class JsonReader {
+
+    /**
+     * The text being read.
+     */
+    private String json;
+
+    /**
+     * The position of the next character.
+     */
+    private int pos;
+
+    /**
+     * Constructor.
+     *
+     * @param json The text.
+     */
+    private JsonReader(String json) {
+        this.json = json;
+    }
+
+    /**
+     * Reads a flat object. Numbers are returned as Long when they have no
+     * fraction or exponent and as Double otherwise.
+     *
+     * @param json The text of the object.
+     * @return The values keyed by name in the order they appear.
+     * @throws GeneralException If the text is not a flat JSON object.
+     */
+    public static Map<String, Object> readObject(String json) throws GeneralException {
+        JsonReader reader = new JsonReader(json);
+
+        Map<String, Object> values = reader.readObject();
+
+        reader.skipWhitespace();
+        if (reader.pos < json.length()) {
+            throw reader.error("Unexpected text after the object");
+        }
+
+        return values;
+    }
+
+    /**
+     * Reads the object at the current position.
+     *
+     * @return The values keyed by name.
+     * @throws GeneralException
+     */
+    private Map<String, Object> readObject() throws GeneralException {
+        Map<String, Object> values = new LinkedHashMap<>();
+
+        expect('{');
+
+        skipWhitespace();
+        if (peek() == '}') {
+            pos++;
+            return values;
+        }
+
+        while (true) {
+            skipWhitespace();
+            String name = readString();
+
+            skipWhitespace();
+            expect(':');
+
+            skipWhitespace();
+            values.put(name, readValue());
+
+            skipWhitespace();
+            char c = next();
+            if (c == '}') {
+                return values;
+            } else if (c != ',') {
+                throw error("Expected , or }");
+            }
+        }
+    }
+
+    /**
+     * Reads the value at the current position.
+     *
+     * @return The value.
+     * @throws GeneralException
+     */
+    private Object readValue() throws GeneralException {
+        char c = peek();
+        if (c == '"') {
+            return readString();
+        } else if (c == '-' || (c >= '0' && c <= '9')) {
+            return readNumber();
+        } else if (json.startsWith("true", pos)) {
+            pos += 4;
+            return Boolean.TRUE;
+        } else if (json.startsWith("false", pos)) {
+            pos += 5;
+            return Boolean.FALSE;
+        } else if (json.startsWith("null", pos)) {
+            pos += 4;
+            return null;
+        }
+
+        throw error("Expected a string, number, boolean or null");
+    }
+
+    /**
+     * Reads the string at the current position.
+     *
+     * @return The unescaped string.
+     * @throws GeneralException
+     */
+    private String readString() throws GeneralException {
+        expect('"');
+
+        StringBuilder builder = new StringBuilder();
+        while (true) {
+            char c = next();
+            if (c == '"') {
+                return builder.toString();
+            } else if (c != '\\') {
+                builder.append(c);
+                continue;
+            }
+
+            char escaped = next();
+            switch (escaped) {
+                case '"':
+                case '\\':
+                case '/':
+                    builder.append(escaped);
+                    break;
+                case 'b':
+                    builder.append('\b');
+                    break;
+                case 'f':
+                    builder.append('\f');
+                    break;
+                case 'n':
+                    builder.append('\n');
+                    break;
+                case 'r':
+                    builder.append('\r');
+                    break;
+                case 't':
+                    builder.append('\t');
+                    break;
+                case 'u':
+                    if (pos + 4 > json.length()) {
+                        throw error("Invalid unicode escape");
+                    }
+
+                    try {
+                        builder.append((char) Integer.parseInt(json.substring(pos, pos + 4), 16));
+                    } catch (NumberFormatException e) {
+                        throw error("Invalid unicode escape");
+                    }
+
+                    pos += 4;
+                    break;
+                default:
+                    throw error("Invalid escape");
+            }
+        }
+    }
+
+    /**
+     * Reads the number at the current position.
+     *
+     * @return The number.
+     * @throws GeneralException
+     */
+    private Number readNumber() throws GeneralException {
+        int start = pos;
+        boolean integral = true;
+
+        while (pos < json.length()) {
+            char c = json.charAt(pos);
+            if (c == '.' || c == 'e' || c == 'E') {
+                integral = false;
+            } else if (c != '-' && c != '+' && (c < '0' || c > '9')) {
+                break;
+            }
+
+            pos++;
+        }
+
+        String number = json.substring(start, pos);
+        try {
+            return integral ? (Number) Long.valueOf(number) : (Number) Double.valueOf(number);
+        } catch (NumberFormatException e) {
+            throw error("Invalid number " + number);
+        }
+    }
+
+    /**
+     * Consumes the next character, which must be the expected one.
+     *
+     * @param expected The expected character.
+     * @throws GeneralException If the next character is a different one.
+     */
+    private void expect(char expected) throws GeneralException {
+        if (next() != expected) {
+            throw error("Expected " + expected);
+        }
+    }
+
+    /**
+     * Gets the next character without consuming it.
+     *
+     * @return The character.
+     * @throws GeneralException If the end of the text was reached.
+     */
+    private char peek() throws GeneralException {
+        if (pos >= json.length()) {
+            throw error("Unexpected end of the object");
+        }
+
+        return json.charAt(pos);
+    }
+
+    /**
+     * Consumes the next character.
+     *
+     * @return The character.
+     * @throws GeneralException If the end of the text was reached.
+     */
+    private char next() throws GeneralException {
+        char c = peek();
+        pos++;
+
+        return c;
+    }
+
+    /**
+     * Skips whitespace.
+     */
+    private void skipWhitespace() {
+        while (pos < json.length() && Character.isWhitespace(json.charAt(pos))) {
+            pos++;
+        }
+    }
+
+    /**
+     * Creates the error for malformed text at the current position.
+     *
+     * @param message The message.
+     * @return The error.
+     */
+    private GeneralException error(String message) {
+        return new GeneralException(message + " at column " + (pos + 1));
+    }
+
+}
+
@@ -0,0 +1,254 @@
+
+package com.acme.todo.util;
+
+import java.io.BufferedWriter;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Minimal JSON writer used to stream large responses straight to the
+ * output stream without building the objects or the document in memory.
+ * The writer does not validate the structure, callers are expected to
+ * balance the begin and end calls.
+ */
+public class JsonWriter implements Flushable {
+
+    /**
+     * Hex digits used when escaping control characters.
+     */
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /**
+     * The underlying writer.
+     */
+    private Writer writer;
+
+    /**
+     * Flag indicating that the next value or name must be preceded by a comma.
+     */
+    private boolean comma;
+
+    /**
+     * Constructor.
+     *
+     * @param outputStream The output stream.
+     */
+    public JsonWriter(OutputStream outputStream) {
+        this.writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Begins an object.
+     *
+     * @return The writer.
+     * @throws IOException
+     */
+    public JsonWriter beginObject() throws IOException {
+        separate();
+        writer.write('{');
+        comma = false;
+
+        return this;
+    }
+
+    /**
+     * Ends the current object.
+     *
+     * @return The writer.
+     * @throws IOException
+     */
+    public JsonWriter endObject() throws IOException {
+        writer.write('}');
+        comma = true;
+
+        return this;
+    }
+
+    /**
+     * Begins an array.
+     *
+     * @return The writer.
+     * @throws IOException
+     */
+    public JsonWriter beginArray() throws IOException {
+        separate();
+        writer.write('[');
+        comma = false;
+
+        return this;
+    }
+
+    /**
+     * Ends the current array.
+     *
+     * @return The writer.
+     * @throws IOException
+     */
+    public JsonWriter endArray() throws IOException {
+        writer.write(']');
+        comma = true;
+
+        return this;
+    }
+
+    /**
+     * Writes the name of the next property in the current object.
+     *
+     * @param name The name.
+     * @return The writer.
+     * @throws IOException
+     */
+    public JsonWriter name(String name) throws IOException {
+        separate();
+        writeString(name);
+        writer.write(':');
+        comma = false;
+
+        return this;
+    }
+
+    /**
+     * Writes a string value.
+     *
+     * @param value The value, may be null.
+     * @return The writer.
+     * @throws IOException
+     */
+    public JsonWriter value(String value) throws IOException {
+        separate();
+        if (value == null) {
+            writer.write("null");
+        } else {
+            writeString(value);
+        }
+
+        comma = true;
+
+        return this;
+    }
+
+    /**
+     * Writes a number value.
+     *
+     * @param value The value.
+     * @return The writer.
+     * @throws IOException
+     */
+    public JsonWriter value(long value) throws IOException {
+        separate();
+        writer.write(Long.toString(value));
+        comma = true;
+
+        return this;
+    }
+
+    /**
+     * Writes a boolean value.
+     *
+     * @param value The value.
+     * @return The writer.
+     * @throws IOException
+     */
+    public JsonWriter value(boolean value) throws IOException {
+        separate();
+        writer.write(value ? "true" : "false");
+        comma = true;
+
+        return this;
+    }
+
+    /**
+     * Writes a null value.
+     *
+     * @return The writer.
+     * @throws IOException
+     */
+    public JsonWriter nullValue() throws IOException {
+        return value((String) null);
+    }
+
+    /**
+     * Ends the current top level value with a line break, as used to
+     * separate the records of newline delimited JSON.
+     *
+     * @return The writer.
+     * @throws IOException
+     */
+    public JsonWriter newline() throws IOException {
+        writer.write('\n');
+        comma = false;
+
+        return this;
+    }
+
+    /**
+     * Flushes the buffered output to the output stream.
+     *
+     * @throws IOException
+     */
+    @Override
+    public void flush() throws IOException {
+        writer.flush();
+    }
+
+    /**
+     * Writes the comma separating the previous value from the next one.
+     *
+     * @throws IOException
+     */
+    private void separate() throws IOException {
+        if (comma) {
+            writer.write(',');
+        }
+    }
+
+    /**
+     * Writes a quoted and escaped string.
+     *
+     * @param value The string.
+     * @throws IOException
+     */
+    private void writeString(String value) throws IOException {
+        writer.write('"');
+
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    writer.write("\\\"");
+                    break;
+                case '\\':
+                    writer.write("\\\\");
+                    break;
+                case '\n':
+                    writer.write("\\n");
+                    break;
+                case '\r':
+                    writer.write("\\r");
+                    break;
+                case '\t':
+                    writer.write("\\t");
+                    break;
+                default:
+                    if (c < 0x20 || c == '\u2028' || c == '\u2029') {
+                        writer.write("\\u");
+                        writer.write(HEX[(c >> 12) & 0xf]);
+                        writer.write(HEX[(c >> 8) & 0xf]);
+                        writer.write(HEX[(c >> 4) & 0xf]);
+                        writer.write(HEX[c & 0xf]);
+                    } else {
+                        writer.write(c);
+                    }
+            }
+        }
+
+        writer.write('"');
+    }
+
+}
+
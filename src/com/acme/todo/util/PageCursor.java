@@ -0,0 +1,92 @@
+
+package com.acme.todo.util;
+
+import sailpoint.tools.GeneralException;
+
+import javax.xml.bind.DatatypeConverter;
+
+import java.nio.charset.Charset;
+
+/**
+ * Utility class which encodes the sort key values of the last row in
+ * a page into an opaque cursor and back again. Clients only ever pass
+ * the cursor back to the server, they should not depend on its format.
+ */
+public class PageCursor {
+
+    /**
+     * The separator between the values in the cursor.
+     */
+    private static final String SEPARATOR = "|";
+
+    /**
+     * The charset used to encode the cursor.
+     */
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Encodes the values into a cursor.
+     *
+     * @param values The values.
+     * @return The cursor.
+     */
+    public static String encode(Object... values) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                builder.append(SEPARATOR);
+            }
+
+            builder.append(values[i]);
+        }
+
+        return DatatypeConverter.printBase64Binary(builder.toString().getBytes(UTF_8));
+    }
+
+    /**
+     * Decodes a cursor into its values. The last value may contain the
+     * separator, so free text should be the last value of a cursor.
+     *
+     * @param cursor The cursor.
+     * @param numValues The number of values expected in the cursor.
+     * @return The values.
+     * @throws GeneralException If the cursor is malformed.
+     */
+    public static String[] decode(String cursor, int numValues) throws GeneralException {
+        String[] values;
+        try {
+            String decoded = new String(DatatypeConverter.parseBase64Binary(cursor), UTF_8);
+            values = decoded.split("\\" + SEPARATOR, numValues);
+        } catch (IllegalArgumentException e) {
+            throw new GeneralException("Invalid page cursor: " + cursor);
+        }
+
+        if (values.length != numValues) {
+            throw new GeneralException("Invalid page cursor: " + cursor);
+        }
+
+        return values;
+    }
+
+    /**
+     * Decodes a numeric value from a cursor.
+     *
+     * @param value The value.
+     * @return The number.
+     * @throws GeneralException If the value is not a number.
+     */
+    public static long toLong(String value) throws GeneralException {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new GeneralException("Invalid page cursor value: " + value);
+        }
+    }
+
+    /**
+     * Private constructor.
+     */
+    private PageCursor() {}
+
+}
+
@@ -0,0 +1,482 @@
+
+package com.acme.todo.util;
+
+import sailpoint.plugin.PluginContext;
+import sailpoint.tools.GeneralException;
+import sailpoint.tools.IOUtil;
+
+import java.io.IOException;
+import java.io.Writer;
+
+import java.sql.Connection;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Registry of the latency histograms and counters kept for the service
+ * methods and REST endpoints of the plugin. Services are timed from where
+ * they get their connection to where they close it, through the component
+ * they hold in a static field, and endpoints by the metrics filter.
+ */
+public class TodoMetrics {
+
+    /**
+     * The prefix of the exported metric names.
+     */
+    private static final String PREFIX = "todo_plugin_";
+
+    /**
+     * The first time bucket exported to Prometheus, about a microsecond.
+     */
+    private static final int FIRST_TIME_BUCKET = 10;
+
+    /**
+     * The last time bucket exported to Prometheus, about half a minute.
+     */
+    private static final int LAST_TIME_BUCKET = 35;
+
+    /**
+     * The last row count bucket exported to Prometheus, about a million rows.
+     */
+    private static final int LAST_ROWS_BUCKET = 20;
+
+    /**
+     * Nanoseconds per second.
+     */
+    private static final double NANOS_PER_SECOND = 1000000000.0;
+
+    /**
+     * Nanoseconds per microsecond.
+     */
+    private static final long NANOS_PER_MICRO = 1000;
+
+    /**
+     * The registered operations keyed by component and name.
+     */
+    private static final Map<String, Operation> OPERATIONS = new LinkedHashMap<>();
+
+    /**
+     * The calls holding a connection on each thread.
+     */
+    private static final ThreadLocal<Calls> CALLS = new ThreadLocal<Calls>() {
+        @Override
+        protected Calls initialValue() {
+            return new Calls();
+        }
+    };
+
+    /**
+     * The metrics of a single service method or endpoint.
+     */
+    public static class Operation {
+
+        /**
+         * The component, such as the service or resource class name.
+         */
+        private final String component;
+
+        /**
+         * The operation name.
+         */
+        private final String name;
+
+        /**
+         * The total time spent in the operation in nanoseconds.
+         */
+        private final Histogram latency = new Histogram();
+
+        /**
+         * The time spent waiting for a connection in nanoseconds.
+         */
+        private final Histogram connectionWait = new Histogram();
+
+        /**
+         * The time spent using the connection in nanoseconds.
+         */
+        private final Histogram queryTime = new Histogram();
+
+        /**
+         * The number of rows read or written.
+         */
+        private final Histogram rows = new Histogram();
+
+        /**
+         * Constructor.
+         *
+         * @param component The component.
+         * @param name The operation name.
+         */
+        private Operation(String component, String name) {
+            this.component = component;
+            this.name = name;
+        }
+
+        /**
+         * Records a call which did not use the database directly.
+         *
+         * @param start The System.nanoTime() the call started at.
+         */
+        public void record(long start) {
+            latency.record(System.nanoTime() - start);
+        }
+
+        /**
+         * Records a call which used a connection. The query time is the time
+         * between acquiring the connection and the end of the call.
+         *
+         * @param start The System.nanoTime() the call started at.
+         * @param acquired The System.nanoTime() the connection was acquired at
+         *                 or the start if it never was.
+         * @param numRows The number of rows read or written.
+         */
+        private void record(long start, long acquired, long numRows) {
+            long now = System.nanoTime();
+
+            latency.record(now - start);
+            connectionWait.record(acquired - start);
+            queryTime.record(now - acquired);
+            rows.record(numRows);
+        }
+
+    }
+
+    /**
+     * The metrics of the operations of one component, such as a service.
+     */
+    public static class Component {
+
+        /**
+         * The component name.
+         */
+        private final String name;
+
+        /**
+         * The operations of the component looked up so far keyed by name.
+         */
+        private final ConcurrentMap<String, Operation> operations = new ConcurrentHashMap<>();
+
+        /**
+         * Constructor.
+         *
+         * @param name The component name.
+         */
+        private Component(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Gets an operation of the component.
+         *
+         * @param operationName The operation name.
+         * @return The operation.
+         */
+        public Operation operation(String operationName) {
+            Operation operation = operations.get(operationName);
+            if (operation == null) {
+                operation = TodoMetrics.operation(name, operationName);
+                operations.putIfAbsent(operationName, operation);
+            }
+
+            return operation;
+        }
+
+        /**
+         * Gets a connection from the plugin context for an operation of the
+         * component. Every call must be matched by a call to close in a
+         * finally block, even if getting the connection failed.
+         *
+         * @param pluginContext The plugin context.
+         * @param operationName The operation name.
+         * @return The connection.
+         * @throws GeneralException
+         */
+        public Connection getConnection(PluginContext pluginContext, String operationName) throws GeneralException {
+            Calls calls = CALLS.get();
+            calls.push(operation(operationName));
+
+            Connection connection = pluginContext.getConnection();
+            calls.acquired();
+
+            return connection;
+        }
+
+        /**
+         * Closes the connection of the innermost operation of the current
+         * thread and records the operation, with the time spent getting the
+         * connection and the time it was used.
+         *
+         * @param connection The connection or null if it could not be had.
+         * @param numRows The number of rows read or written.
+         */
+        public void close(Connection connection, long numRows) {
+            IOUtil.closeQuietly(connection);
+            CALLS.get().pop(numRows);
+        }
+
+    }
+
+    /**
+     * The operations holding a connection on a thread, innermost last, for
+     * services calling each other. The arrays are reused by every call on
+     * the thread, so recording does not allocate.
+     */
+    private static class Calls {
+
+        /**
+         * The operations.
+         */
+        private Operation[] operations = new Operation[4];
+
+        /**
+         * The System.nanoTime() each call started at.
+         */
+        private long[] starts = new long[4];
+
+        /**
+         * The System.nanoTime() each call got its connection at.
+         */
+        private long[] acquired = new long[4];
+
+        /**
+         * The number of calls.
+         */
+        private int depth;
+
+        /**
+         * Starts a call.
+         *
+         * @param operation The operation.
+         */
+        private void push(Operation operation) {
+            if (depth == operations.length) {
+                operations = Arrays.copyOf(operations, depth * 2);
+                starts = Arrays.copyOf(starts, depth * 2);
+                acquired = Arrays.copyOf(acquired, depth * 2);
+            }
+
+            operations[depth] = operation;
+            starts[depth] = System.nanoTime();
+            acquired[depth] = starts[depth];
+            depth++;
+        }
+
+        /**
+         * Marks the innermost call as having got its connection.
+         */
+        private void acquired() {
+            acquired[depth - 1] = System.nanoTime();
+        }
+
+        /**
+         * Ends the innermost call and records it.
+         *
+         * @param numRows The number of rows read or written.
+         */
+        private void pop(long numRows) {
+            if (depth == 0) {
+                return;
+            }
+
+            depth--;
+            operations[depth].record(starts[depth], acquired[depth], numRows);
+            operations[depth] = null;
+        }
+
+    }
+
+    /**
+     * Gets the metrics of a component.
+     *
+     * @param name The component name, such as the class name of a service.
+     * @return The component.
+     */
+    public static Component component(String name) {
+        return new Component(name);
+    }
+
+    /**
+     * Gets the operation registered for a component and name,
+     * registering it the first time.
+     *
+     * @param component The component.
+     * @param name The operation name.
+     * @return The operation.
+     */
+    public static synchronized Operation operation(String component, String name) {
+        String key = component + "." + name;
+
+        Operation operation = OPERATIONS.get(key);
+        if (operation == null) {
+            operation = new Operation(component, name);
+            OPERATIONS.put(key, operation);
+        }
+
+        return operation;
+    }
+
+    /**
+     * Writes the metrics of every operation that has been called as JSON.
+     * Times are in microseconds.
+     *
+     * @param json The writer.
+     * @throws IOException
+     */
+    public static void writeJson(JsonWriter json) throws IOException {
+        json.beginObject().name("operations").beginArray();
+
+        for (Operation operation : getOperations()) {
+            if (operation.latency.getCount() == 0) {
+                continue;
+            }
+
+            json.beginObject()
+                .name("component").value(operation.component)
+                .name("operation").value(operation.name)
+                .name("calls").value(operation.latency.getCount());
+
+            writeJson(json, "latencyMicros", operation.latency, NANOS_PER_MICRO);
+            writeJson(json, "connectionWaitMicros", operation.connectionWait, NANOS_PER_MICRO);
+            writeJson(json, "queryMicros", operation.queryTime, NANOS_PER_MICRO);
+            writeJson(json, "rows", operation.rows, 1);
+
+            json.endObject();
+        }
+
+        json.endArray().endObject();
+    }
+
+    /**
+     * Writes the metrics of every operation that has been called in the
+     * Prometheus text exposition format. Times are in seconds.
+     *
+     * @param writer The writer.
+     * @throws IOException
+     */
+    public static void writePrometheus(Writer writer) throws IOException {
+        List<Operation> operations = getOperations();
+
+        writeHeader(writer, "latency_seconds", "Time spent in the operation.");
+        for (Operation operation : operations) {
+            writePrometheus(writer, "latency_seconds", operation, operation.latency, FIRST_TIME_BUCKET, LAST_TIME_BUCKET, true);
+        }
+
+        writeHeader(writer, "connection_wait_seconds", "Time spent waiting for a database connection.");
+        for (Operation operation : operations) {
+            writePrometheus(writer, "connection_wait_seconds", operation, operation.connectionWait, FIRST_TIME_BUCKET, LAST_TIME_BUCKET, true);
+        }
+
+        writeHeader(writer, "query_seconds", "Time spent using the database connection.");
+        for (Operation operation : operations) {
+            writePrometheus(writer, "query_seconds", operation, operation.queryTime, FIRST_TIME_BUCKET, LAST_TIME_BUCKET, true);
+        }
+
+        writeHeader(writer, "rows", "Number of rows read or written by the operation.");
+        for (Operation operation : operations) {
+            writePrometheus(writer, "rows", operation, operation.rows, 0, LAST_ROWS_BUCKET, false);
+        }
+    }
+
+    /**
+     * Gets a copy of the registered operations.
+     *
+     * @return The operations.
+     */
+    private static synchronized List<Operation> getOperations() {
+        return new ArrayList<>(OPERATIONS.values());
+    }
+
+    /**
+     * Writes the summary of a histogram as a JSON property.
+     *
+     * @param json The writer.
+     * @param name The property name.
+     * @param histogram The histogram.
+     * @param divisor The divisor converting the recorded values to the reported unit.
+     * @throws IOException
+     */
+    private static void writeJson(JsonWriter json, String name, Histogram histogram, long divisor) throws IOException {
+        long count = histogram.getCount();
+        if (count == 0) {
+            return;
+        }
+
+        json.name(name).beginObject()
+            .name("count").value(count)
+            .name("mean").value(histogram.getSum() / count / divisor)
+            .name("p50").value(histogram.getQuantile(0.5) / divisor)
+            .name("p95").value(histogram.getQuantile(0.95) / divisor)
+            .name("p99").value(histogram.getQuantile(0.99) / divisor)
+            .name("max").value(histogram.getMax() / divisor)
+            .endObject();
+    }
+
+    /**
+     * Writes the HELP and TYPE lines of a Prometheus histogram.
+     *
+     * @param writer The writer.
+     * @param metric The metric name without the prefix.
+     * @param help The help text.
+     * @throws IOException
+     */
+    private static void writeHeader(Writer writer, String metric, String help) throws IOException {
+        writer.write("# HELP " + PREFIX + metric + " " + help + "\n");
+        writer.write("# TYPE " + PREFIX + metric + " histogram\n");
+    }
+
+    /**
+     * Writes the series of one histogram in the Prometheus format. Buckets
+     * below the first exported bucket are folded into it and buckets past
+     * the last one are only counted in +Inf.
+     *
+     * @param writer The writer.
+     * @param metric The metric name without the prefix.
+     * @param operation The operation.
+     * @param histogram The histogram.
+     * @param firstBucket The first bucket to export.
+     * @param lastBucket The last bucket to export.
+     * @param nanos True if the values are nanoseconds to be exported as seconds.
+     * @throws IOException
+     */
+    private static void writePrometheus(Writer writer, String metric, Operation operation, Histogram histogram,
+                                        int firstBucket, int lastBucket, boolean nanos) throws IOException {
+
+        long count = histogram.getCount();
+        if (count == 0) {
+            return;
+        }
+
+        String labels = "component=\"" + operation.component + "\",operation=\"" + operation.name + "\"";
+
+        long cumulative = 0;
+        for (int i = 0; i <= lastBucket; i++) {
+            cumulative += histogram.getBucketCount(i);
+            if (i < firstBucket) {
+                continue;
+            }
+
+            long bound = Histogram.getUpperBound(i);
+            String le = nanos ? Double.toString(bound / NANOS_PER_SECOND) : Long.toString(bound);
+
+            writer.write(PREFIX + metric + "_bucket{" + labels + ",le=\"" + le + "\"} " + cumulative + "\n");
+        }
+
+        writer.write(PREFIX + metric + "_bucket{" + labels + ",le=\"+Inf\"} " + count + "\n");
+
+        String sum = nanos ? Double.toString(histogram.getSum() / NANOS_PER_SECOND) : Long.toString(histogram.getSum());
+        writer.write(PREFIX + metric + "_sum{" + labels + "} " + sum + "\n");
+        writer.write(PREFIX + metric + "_count{" + labels + "} " + count + "\n");
+    }
+
+    /**
+     * Private constructor.
+     */
+    private TodoMetrics() {}
+
+}
+
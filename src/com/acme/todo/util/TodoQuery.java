@@ -8,16 +8,63 @@ package com.acme.todo.util;
  * @author Dustin Dobervich <dustin.dobervich@sailpoint.com>
  */
 public class TodoQuery {
+
+    /**
+     * The columns selected for a todo. These are listed explicitly rather than
+     * using * so that the indexes on the table can serve the queries.
+     */
+    public static final String TODO_COLUMNS = "id, user_id, name, estimate, notes, complete, created, completed_on";
+
+    /**
+     * The columns selected for a flagged user.
+     */
+    public static final String FLAGGED_USER_COLUMNS = "id, user_id, username, num_todos, created";
     
     /**
      * Query to get all todos.
      */
-    public static final String TODOS = "SELECT * FROM tp_todo_list WHERE user_id=? ORDER BY completed_on ASC, created ASC";
+    public static final String TODOS = "SELECT " + TODO_COLUMNS + " FROM tp_todo_list WHERE user_id=? ORDER BY completed_on ASC, created ASC";
+
+    /**
+     * Query to get the first page of open todos for a user.
+     */
+    public static final String OPEN_TODOS_FIRST_PAGE = "SELECT " + TODO_COLUMNS + " FROM tp_todo_list " +
+                                                       "WHERE user_id=? AND completed_on IS NULL " +
+                                                       "ORDER BY created ASC, id ASC";
+
+    /**
+     * Query to get the page of open todos for a user following the (created, id) cursor.
+     */
+    public static final String OPEN_TODOS_PAGE = "SELECT " + TODO_COLUMNS + " FROM tp_todo_list " +
+                                                 "WHERE user_id=? AND completed_on IS NULL " +
+                                                 "AND (created > ? OR (created = ? AND id > ?)) " +
+                                                 "ORDER BY created ASC, id ASC";
+
+    /**
+     * Query to get the first page of completed todos for a user.
+     */
+    public static final String COMPLETED_TODOS_FIRST_PAGE = "SELECT " + TODO_COLUMNS + " FROM tp_todo_list " +
+                                                            "WHERE user_id=? AND completed_on IS NOT NULL " +
+                                                            "ORDER BY completed_on ASC, created ASC, id ASC";
+
+    /**
+     * Query to get the page of completed todos for a user following the (completed_on, created, id) cursor.
+     */
+    public static final String COMPLETED_TODOS_PAGE = "SELECT " + TODO_COLUMNS + " FROM tp_todo_list " +
+                                                      "WHERE user_id=? AND completed_on IS NOT NULL " +
+                                                      "AND (completed_on > ? OR (completed_on = ? AND " +
+                                                      "(created > ? OR (created = ? AND id > ?)))) " +
+                                                      "ORDER BY completed_on ASC, created ASC, id ASC";
 
     /**
      * Query to select a single todo by id.
      */
-    public static final String TODO = "SELECT * FROM tp_todo_list WHERE id=?";
+    public static final String TODO = "SELECT " + TODO_COLUMNS + " FROM tp_todo_list WHERE id=?";
+
+    /**
+     * Query to select several todos by id. The %s is replaced by the id placeholders.
+     */
+    public static final String TODOS_BY_ID = "SELECT " + TODO_COLUMNS + " FROM tp_todo_list WHERE id IN (%s)";
 
     /**
      * Query to add a todo.
@@ -27,13 +74,23 @@ public class TodoQuery {
     /**
      * Query to complete a todo.
      */
-    public static final String COMPLETE = "UPDATE tp_todo_list SET complete=1, completed_on=? WHERE id=?";
+    public static final String COMPLETE = "UPDATE tp_todo_list SET complete=1, completed_on=? WHERE id=? AND complete=0";
 
     /**
      * Query to delete a todo.
      */
     public static final String DELETE = "DELETE FROM tp_todo_list WHERE id=?";
 
+    /**
+     * Query to delete a todo if it is open.
+     */
+    public static final String DELETE_OPEN = "DELETE FROM tp_todo_list WHERE id=? AND complete=0";
+
+    /**
+     * Query to delete a todo if it is completed.
+     */
+    public static final String DELETE_COMPLETED = "DELETE FROM tp_todo_list WHERE id=? AND complete=1";
+
     /**
      * Query to delete all todos for a user.
      */
@@ -45,24 +102,190 @@ public class TodoQuery {
     public static final String DELETE_ALL = "DELETE FROM tp_todo_list";
 
     /**
-     * Query to count all completed todos.
+     * Query to select the id and user id of completed todos, oldest first.
+     */
+    public static final String COMPLETED_TODO_IDS = "SELECT id, user_id FROM tp_todo_list WHERE complete=1 ORDER BY completed_on ASC";
+
+    /**
+     * Query to select the id and user id of todos completed within a time range, oldest first.
+     */
+    public static final String COMPLETED_TODO_IDS_BETWEEN = "SELECT id, user_id FROM tp_todo_list " +
+                                                            "WHERE complete=1 AND completed_on >= ? AND completed_on < ? " +
+                                                            "ORDER BY completed_on ASC";
+
+    /**
+     * Query to get the completion time of the oldest completed todo.
+     */
+    public static final String OLDEST_COMPLETED_ON = "SELECT MIN(completed_on) FROM tp_todo_list WHERE complete=1";
+
+    /**
+     * Query to copy completed todos into the archive. The %s is replaced by the id placeholders.
+     */
+    public static final String ARCHIVE_TODOS = "INSERT INTO tp_todo_archive (" + TODO_COLUMNS + ") " +
+                                               "SELECT " + TODO_COLUMNS + " FROM tp_todo_list WHERE complete=1 AND id IN (%s)";
+
+    /**
+     * Query to remove a todo from the archive.
+     */
+    public static final String DELETE_ARCHIVED = "DELETE FROM tp_todo_archive WHERE id=?";
+
+    /**
+     * Query to remove the archived todos of a user.
+     */
+    public static final String DELETE_USER_ARCHIVED = "DELETE FROM tp_todo_archive WHERE user_id=?";
+
+    /**
+     * Query to remove all archived todos.
      */
-    public static final String COUNT = "SELECT COUNT(id) AS total FROM tp_todo_list WHERE complete=1";
+    public static final String DELETE_ALL_ARCHIVED = "DELETE FROM tp_todo_archive";
 
     /**
-     * Query to delete all completed todos.
+     * Query to get the first page of archived todos for a user, most recently completed first.
      */
-    public static final String DELETE_COMPLETE = "DELETE FROM tp_todo_list WHERE complete=1";
+    public static final String ARCHIVED_TODOS_FIRST_PAGE = "SELECT " + TODO_COLUMNS + " FROM tp_todo_archive " +
+                                                           "WHERE user_id=? ORDER BY completed_on DESC, id DESC";
+
+    /**
+     * Query to get the page of archived todos for a user following the (completed_on, id) cursor.
+     */
+    public static final String ARCHIVED_TODOS_PAGE = "SELECT " + TODO_COLUMNS + " FROM tp_todo_archive " +
+                                                     "WHERE user_id=? AND (completed_on < ? OR (completed_on = ? AND id < ?)) " +
+                                                     "ORDER BY completed_on DESC, id DESC";
 
     /**
      * Query to select all users who have open todos.
      */
-    public static final String ACTIVE_TODO_USERS = "SELECT DISTINCT user_id FROM tp_todo_list WHERE complete=0";
+    public static final String ACTIVE_TODO_USERS = "SELECT user_id FROM tp_todo_user_stats WHERE open_count > 0";
 
     /**
      * Query to select the count of open todos for a user.
      */
-    public static final String ACTIVE_TODOS_COUNT = "SELECT COUNT(id) AS total FROM tp_todo_list WHERE user_id=? AND complete=0";
+    public static final String ACTIVE_TODOS_COUNT = "SELECT open_count AS total FROM tp_todo_user_stats WHERE user_id=?";
+
+    /**
+     * Query to select the version stamp of the todo list of a user.
+     */
+    public static final String TODO_LIST_VERSION = "SELECT list_version FROM tp_todo_user_stats WHERE user_id=?";
+
+    /**
+     * Query to select the open todo count of every user over a threshold.
+     */
+    public static final String USERS_OVER_OPEN_THRESHOLD = "SELECT user_id, open_count AS total FROM tp_todo_user_stats WHERE open_count > ?";
+
+    /**
+     * Query to apply a change to the counts of a user and bump the version of their todo list.
+     */
+    public static final String UPDATE_USER_STATS = "UPDATE tp_todo_user_stats SET open_count=open_count+?, " +
+                                                   "total_count=total_count+?, open_estimate=open_estimate+?, " +
+                                                   "list_version=list_version+1 WHERE user_id=?";
+
+    /**
+     * Query to insert the counts and todo list version of a user.
+     */
+    public static final String INSERT_USER_STATS = "INSERT INTO tp_todo_user_stats (user_id, open_count, total_count, open_estimate, list_version) " +
+                                                   "VALUES (?, ?, ?, ?, ?)";
+
+    /**
+     * Query to delete the counts of a user.
+     */
+    public static final String DELETE_USER_STATS = "DELETE FROM tp_todo_user_stats WHERE user_id=?";
+
+    /**
+     * Query to delete the counts of all users.
+     */
+    public static final String DELETE_ALL_USER_STATS = "DELETE FROM tp_todo_user_stats";
+
+    /**
+     * Query to select the users whose stored counts differ from the counts in the todo table.
+     */
+    public static final String USER_STATS_DRIFT = "SELECT a.user_id FROM " +
+                                                  "(SELECT user_id, SUM(CASE WHEN complete=0 THEN 1 ELSE 0 END) AS open_count, " +
+                                                  "COUNT(*) AS total_count, " +
+                                                  "SUM(CASE WHEN complete=0 THEN COALESCE(estimate, 0) ELSE 0 END) AS open_estimate " +
+                                                  "FROM tp_todo_list GROUP BY user_id) a " +
+                                                  "LEFT JOIN tp_todo_user_stats s ON s.user_id=a.user_id " +
+                                                  "WHERE s.user_id IS NULL OR s.open_count <> a.open_count " +
+                                                  "OR s.total_count <> a.total_count OR s.open_estimate <> a.open_estimate";
+
+    /**
+     * Query to recompute the stored counts of a user from the todo table.
+     */
+    public static final String REBUILD_USER_STATS = "UPDATE tp_todo_user_stats SET list_version=list_version+1, " +
+                                                    "open_count=(SELECT COUNT(*) FROM tp_todo_list t WHERE t.user_id=tp_todo_user_stats.user_id AND t.complete=0), " +
+                                                    "total_count=(SELECT COUNT(*) FROM tp_todo_list t WHERE t.user_id=tp_todo_user_stats.user_id), " +
+                                                    "open_estimate=(SELECT COALESCE(SUM(t.estimate), 0) FROM tp_todo_list t " +
+                                                    "WHERE t.user_id=tp_todo_user_stats.user_id AND t.complete=0) " +
+                                                    "WHERE user_id=?";
+
+    /**
+     * Query to insert the stored counts of a user computed from the todo table,
+     * seeding the version of the todo list with the current time. The version
+     * is cast as DB2 does not allow an untyped parameter in the select list.
+     */
+    public static final String INSERT_REBUILT_USER_STATS = "INSERT INTO tp_todo_user_stats (user_id, open_count, total_count, open_estimate, list_version) " +
+                                                           "SELECT user_id, SUM(CASE WHEN complete=0 THEN 1 ELSE 0 END), COUNT(*), " +
+                                                           "SUM(CASE WHEN complete=0 THEN COALESCE(estimate, 0) ELSE 0 END), CAST(? AS DECIMAL(19, 0)) " +
+                                                           "FROM tp_todo_list WHERE user_id=? GROUP BY user_id";
+
+    /**
+     * Query to delete the stored counts of users who no longer have any todos.
+     */
+    public static final String DELETE_ORPHANED_USER_STATS = "DELETE FROM tp_todo_user_stats WHERE NOT EXISTS " +
+                                                            "(SELECT t.id FROM tp_todo_list t WHERE t.user_id=tp_todo_user_stats.user_id)";
+
+    /**
+     * Query to append a change to the todo change log.
+     */
+    public static final String INSERT_CHANGE = "INSERT INTO tp_todo_change (todo_id, user_id, change_type, changed) VALUES (?, ?, ?, ?)";
+
+    /**
+     * Query to log the deletion of all todos of a user. The timestamp is cast
+     * as DB2 does not allow an untyped parameter in the select list, the
+     * change type is the name of TodoOperation.Type.DELETE.
+     */
+    public static final String INSERT_USER_DELETE_CHANGES = "INSERT INTO tp_todo_change (todo_id, user_id, change_type, changed) " +
+                                                            "SELECT id, user_id, 'DELETE', CAST(? AS DECIMAL(19, 0)) " +
+                                                            "FROM tp_todo_list WHERE user_id=?";
+
+    /**
+     * Query to log the deletion of all todos, with the timestamp cast like above.
+     */
+    public static final String INSERT_ALL_DELETE_CHANGES = "INSERT INTO tp_todo_change (todo_id, user_id, change_type, changed) " +
+                                                           "SELECT id, user_id, 'DELETE', CAST(? AS DECIMAL(19, 0)) FROM tp_todo_list";
+
+    /**
+     * Query to get the changes to the todos of a user after a position in the log
+     * along with the current state of each todo.
+     */
+    public static final String CHANGES = "SELECT c.seq, c.todo_id, c.change_type, c.changed, t.id, t.user_id, t.name, " +
+                                         "t.estimate, t.notes, t.complete, t.created, t.completed_on FROM tp_todo_change c " +
+                                         "LEFT JOIN tp_todo_list t ON t.id=c.todo_id " +
+                                         "WHERE c.user_id=? AND c.seq > ? ORDER BY c.seq ASC";
+
+    /**
+     * Query to get the position of the last change to the todos of a user.
+     */
+    public static final String LAST_USER_CHANGE_SEQ = "SELECT MAX(seq) AS seq FROM tp_todo_change WHERE user_id=?";
+
+    /**
+     * Query to get the position of the oldest change still in the log.
+     */
+    public static final String OLDEST_CHANGE_SEQ = "SELECT MIN(seq) AS seq FROM tp_todo_change";
+
+    /**
+     * Query to get the position of the newest change in the log.
+     */
+    public static final String NEWEST_CHANGE_SEQ = "SELECT MAX(seq) AS seq FROM tp_todo_change";
+
+    /**
+     * Query to select the oldest changes made before a timestamp, excluding the newest change.
+     */
+    public static final String EXPIRED_CHANGES = "SELECT seq FROM tp_todo_change WHERE seq < ? AND changed < ? ORDER BY seq ASC";
+
+    /**
+     * Query to delete the changes up to and including a position in the log.
+     */
+    public static final String DELETE_CHANGES = "DELETE FROM tp_todo_change WHERE seq <= ?";
 
     /**
      * Query to flag a user.
@@ -72,13 +295,33 @@ public class TodoQuery {
     /**
      * Query to get all flagged users.
      */
-    public static final String FLAGGED_USERS = "SELECT * FROM tp_flagged_user";
+    public static final String FLAGGED_USERS = "SELECT " + FLAGGED_USER_COLUMNS + " FROM tp_flagged_user";
+
+    /**
+     * Query to get the first page of flagged users.
+     */
+    public static final String FLAGGED_USERS_FIRST_PAGE = "SELECT " + FLAGGED_USER_COLUMNS + " FROM tp_flagged_user ORDER BY id ASC";
+
+    /**
+     * Query to get the page of flagged users following the id cursor.
+     */
+    public static final String FLAGGED_USERS_PAGE = "SELECT " + FLAGGED_USER_COLUMNS + " FROM tp_flagged_user WHERE id > ? ORDER BY id ASC";
 
     /**
      * Query to get data for a single flagged user.
      */
-    public static final String FLAGGED_USER = "SELECT * FROM tp_flagged_user WHERE id=?";
+    public static final String FLAGGED_USER = "SELECT " + FLAGGED_USER_COLUMNS + " FROM tp_flagged_user WHERE id=?";
     
+    /**
+     * Query to get the stored username of every flagged user.
+     */
+    public static final String FLAGGED_USERNAMES = "SELECT user_id, username FROM tp_flagged_user";
+
+    /**
+     * Query to update the stored username of a flagged user.
+     */
+    public static final String UPDATE_FLAGGED_USERNAME = "UPDATE tp_flagged_user SET username=? WHERE user_id=?";
+
     /**
      * Query to delete a flagged user.
      */
@@ -87,7 +330,313 @@ public class TodoQuery {
     /**
      * Query to count flags for a user.
      */
-    public static final String IS_USER_FLAGGED = "SELECT COUNT(id) AS total FROM tp_flagged_user WHERE user_id=?";
+    public static final String IS_USER_FLAGGED = "SELECT COUNT(*) AS total FROM tp_flagged_user WHERE user_id=?";
+
+    /**
+     * Query to select all users over the open todo threshold who have not been flagged yet.
+     */
+    public static final String FLAG_CANDIDATES = "SELECT s.user_id, s.open_count AS total FROM tp_todo_user_stats s " +
+                                                 "WHERE s.open_count > ? AND NOT EXISTS " +
+                                                 "(SELECT f.user_id FROM tp_flagged_user f WHERE f.user_id=s.user_id)";
+
+    /**
+     * Query to refresh the open todo count of any flagged user whose count has changed.
+     */
+    public static final String REFRESH_FLAGGED_COUNTS = "UPDATE tp_flagged_user SET num_todos=" +
+                                                        "COALESCE((SELECT s.open_count FROM tp_todo_user_stats s WHERE s.user_id=tp_flagged_user.user_id), 0) " +
+                                                        "WHERE num_todos <> " +
+                                                        "COALESCE((SELECT s.open_count FROM tp_todo_user_stats s WHERE s.user_id=tp_flagged_user.user_id), 0)";
+
+    /**
+     * Query to select flagged users who no longer have more open todos than the threshold.
+     */
+    public static final String PRUNE_CANDIDATES = "SELECT f.id FROM tp_flagged_user f WHERE NOT EXISTS " +
+                                                  "(SELECT s.user_id FROM tp_todo_user_stats s WHERE s.user_id=f.user_id AND s.open_count > ?)";
+
+    /**
+     * Query to delete a chunk of flagged users, rechecking that they are still below
+     * the threshold. The %s is replaced by the id placeholders.
+     */
+    public static final String PRUNE_FLAGGED_USERS = "DELETE FROM tp_flagged_user WHERE id IN (%s) AND NOT EXISTS " +
+                                                     "(SELECT s.user_id FROM tp_todo_user_stats s WHERE s.user_id=tp_flagged_user.user_id AND s.open_count > ?)";
+
+    /**
+     * Query to record that the open todo count of a user has changed.
+     */
+    public static final String MARK_USER_DIRTY = "UPDATE tp_todo_dirty_user SET dirty_version=dirty_version+1 WHERE user_id=?";
+
+    /**
+     * Query to insert a user whose open todo count has changed.
+     */
+    public static final String INSERT_DIRTY_USER = "INSERT INTO tp_todo_dirty_user (user_id, dirty_version) VALUES (?, 1)";
+
+    /**
+     * Query to record every flagged user as changed.
+     */
+    public static final String MARK_FLAGGED_USERS_DIRTY = "INSERT INTO tp_todo_dirty_user (user_id, dirty_version) " +
+                                                          "SELECT f.user_id, 1 FROM tp_flagged_user f WHERE NOT EXISTS " +
+                                                          "(SELECT d.user_id FROM tp_todo_dirty_user d WHERE d.user_id=f.user_id)";
+
+    /**
+     * Query to get the first page of changed users.
+     */
+    public static final String DIRTY_USERS_FIRST_PAGE = "SELECT user_id, dirty_version FROM tp_todo_dirty_user ORDER BY user_id ASC";
+
+    /**
+     * Query to get the page of changed users following the user id cursor.
+     */
+    public static final String DIRTY_USERS_PAGE = "SELECT user_id, dirty_version FROM tp_todo_dirty_user " +
+                                                  "WHERE user_id > ? ORDER BY user_id ASC";
+
+    /**
+     * Query to remove a changed user unless it changed again since it was read.
+     */
+    public static final String CLEAR_DIRTY_USER = "DELETE FROM tp_todo_dirty_user WHERE user_id=? AND dirty_version=?";
+
+    /**
+     * Query to delete the flags of the specified users who no longer have more open todos than the threshold.
+     */
+    public static final String PRUNE_FLAGGED_USER_IDS = "DELETE FROM tp_flagged_user WHERE user_id IN (%s) AND NOT EXISTS " +
+                                                        "(SELECT s.user_id FROM tp_todo_user_stats s WHERE s.user_id=tp_flagged_user.user_id AND s.open_count > ?)";
+
+    /**
+     * Query to refresh the open todo count of the specified flagged users.
+     */
+    public static final String REFRESH_FLAGGED_USER_ID_COUNTS = REFRESH_FLAGGED_COUNTS + " AND user_id IN (%s)";
+
+    /**
+     * Query to select the specified users over the open todo threshold who have not been flagged yet.
+     */
+    public static final String FLAG_CANDIDATE_IDS = FLAG_CANDIDATES + " AND s.user_id IN (%s)";
+
+    /**
+     * Query to extend the membership of a host in the flagging work.
+     */
+    public static final String RENEW_MEMBER = "UPDATE tp_flagging_member SET expires=? WHERE member_id=?";
+
+    /**
+     * Query to add a host to the flagging work.
+     */
+    public static final String INSERT_MEMBER = "INSERT INTO tp_flagging_member (member_id, expires) VALUES (?, ?)";
+
+    /**
+     * Query to remove hosts which stopped taking part in the flagging work.
+     */
+    public static final String DELETE_EXPIRED_MEMBERS = "DELETE FROM tp_flagging_member WHERE expires < ?";
+
+    /**
+     * Query to count the hosts taking part in the flagging work.
+     */
+    public static final String LIVE_MEMBER_COUNT = "SELECT COUNT(*) AS total FROM tp_flagging_member WHERE expires >= ?";
+
+    /**
+     * Query to select the lease of every bucket.
+     */
+    public static final String LEASES = "SELECT bucket, member_id, expires FROM tp_flagging_lease";
+
+    /**
+     * Query to add an unleased bucket.
+     */
+    public static final String INSERT_LEASE = "INSERT INTO tp_flagging_lease (bucket, member_id, expires) VALUES (?, NULL, 0)";
+
+    /**
+     * Query to extend every lease held by a host.
+     */
+    public static final String RENEW_LEASES = "UPDATE tp_flagging_lease SET expires=? WHERE member_id=?";
+
+    /**
+     * Query to lease a bucket if it is free or its lease has expired.
+     */
+    public static final String CLAIM_LEASE = "UPDATE tp_flagging_lease SET member_id=?, expires=? " +
+                                             "WHERE bucket=? AND (member_id IS NULL OR expires < ?)";
+
+    /**
+     * Query to give up the lease of a bucket held by a host.
+     */
+    public static final String RELEASE_LEASE = "UPDATE tp_flagging_lease SET member_id=NULL, expires=0 WHERE bucket=? AND member_id=?";
+
+    /**
+     * The activity counters kept for every hour in the rollup tables.
+     */
+    public static final String ROLLUP_COLUMNS = "created, completed, deleted, open_delta, created_estimate, completed_estimate, estimate_delta";
+
+    /**
+     * The activity counters of the user rollups summed over all users.
+     */
+    public static final String ROLLUP_SUMS = "SUM(created), SUM(completed), SUM(deleted), SUM(open_delta), " +
+                                             "SUM(created_estimate), SUM(completed_estimate), SUM(estimate_delta)";
+
+    /**
+     * Query to add to the activity of a user in an hour.
+     */
+    public static final String UPDATE_USER_ROLLUP = "UPDATE tp_todo_user_rollup SET created=created+?, completed=completed+?, " +
+                                                    "deleted=deleted+?, open_delta=open_delta+?, created_estimate=created_estimate+?, " +
+                                                    "completed_estimate=completed_estimate+?, estimate_delta=estimate_delta+? " +
+                                                    "WHERE user_id=? AND bucket=?";
+
+    /**
+     * Query to insert the activity of a user in an hour.
+     */
+    public static final String INSERT_USER_ROLLUP = "INSERT INTO tp_todo_user_rollup (user_id, bucket, " + ROLLUP_COLUMNS + ") " +
+                                                    "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    /**
+     * Query to get the hourly activity of a user from a time on.
+     */
+    public static final String USER_ROLLUPS = "SELECT bucket, " + ROLLUP_COLUMNS + " FROM tp_todo_user_rollup " +
+                                              "WHERE user_id=? AND bucket >= ?";
+
+    /**
+     * Query to get the folded hourly activity of all users within a time range.
+     */
+    public static final String ROLLUPS = "SELECT bucket, " + ROLLUP_COLUMNS + " FROM tp_todo_rollup WHERE bucket >= ? AND bucket < ?";
+
+    /**
+     * Query to sum the hourly activity of all users from a time on straight from the user rollups.
+     */
+    public static final String LIVE_ROLLUPS = "SELECT bucket, " + ROLLUP_SUMS + " FROM tp_todo_user_rollup " +
+                                              "WHERE bucket >= ? GROUP BY bucket";
+
+    /**
+     * Query to get the last hour folded into the rollups of all users.
+     */
+    public static final String LAST_ROLLUP_BUCKET = "SELECT MAX(bucket) FROM tp_todo_rollup";
+
+    /**
+     * Query to get the last hour folded into the rollups of all users and the open todos at its start.
+     */
+    public static final String LAST_ROLLUP = "SELECT bucket, open_count, open_estimate FROM tp_todo_rollup " +
+                                             "WHERE bucket=(SELECT MAX(bucket) FROM tp_todo_rollup)";
+
+    /**
+     * Query to sum the change in open todos and their estimate minutes of all users from a time on.
+     */
+    public static final String OPEN_DELTAS_FROM = "SELECT COALESCE(SUM(open_delta), 0), COALESCE(SUM(estimate_delta), 0) " +
+                                                  "FROM tp_todo_user_rollup WHERE bucket >= ?";
+
+    /**
+     * Query to store the open todos and their estimate minutes at the start of a folded hour.
+     */
+    public static final String SET_ROLLUP_OPEN = "UPDATE tp_todo_rollup SET open_count=?, open_estimate=? WHERE bucket=?";
+
+    /**
+     * Query to remove the rollups of users older than a time.
+     */
+    public static final String DELETE_USER_ROLLUPS_BEFORE = "DELETE FROM tp_todo_user_rollup WHERE bucket < ?";
+
+    /**
+     * Query to remove the folded activity of all users from a time on.
+     */
+    public static final String DELETE_ROLLUPS_FROM = "DELETE FROM tp_todo_rollup WHERE bucket >= ?";
+
+    /**
+     * Query to fold the user rollups from a time on into the rollups of all users.
+     */
+    public static final String FOLD_ROLLUPS = "INSERT INTO tp_todo_rollup (bucket, " + ROLLUP_COLUMNS + ", open_count, open_estimate) " +
+                                              "SELECT bucket, " + ROLLUP_SUMS + ", 0, 0 FROM tp_todo_user_rollup " +
+                                              "WHERE bucket >= ? GROUP BY bucket";
+
+    /**
+     * Query to remove the rollups of all users.
+     */
+    public static final String DELETE_ALL_USER_ROLLUPS = "DELETE FROM tp_todo_user_rollup";
+
+    /**
+     * Query to remove the folded rollups.
+     */
+    public static final String DELETE_ALL_ROLLUPS = "DELETE FROM tp_todo_rollup";
+
+    /**
+     * Query to get the stored counts of a user.
+     */
+    public static final String USER_STATS = "SELECT open_count, open_estimate, total_count FROM tp_todo_user_stats WHERE user_id=?";
+
+    /**
+     * Query to get the number of open todos and their estimate minutes over all users.
+     */
+    public static final String OPEN_TOTALS = "SELECT COALESCE(SUM(open_count), 0), COALESCE(SUM(open_estimate), 0) FROM tp_todo_user_stats";
+
+    /**
+     * Query to add a term of a todo to the search index.
+     */
+    public static final String INSERT_TERM = "INSERT INTO tp_todo_term (user_id, term, todo_id, weight) VALUES (?, ?, ?, ?)";
+
+    /**
+     * Query to remove the terms of a todo from the search index.
+     */
+    public static final String DELETE_TODO_TERMS = "DELETE FROM tp_todo_term WHERE todo_id=?";
+
+    /**
+     * Query to remove the terms of the todos of a user from the search index.
+     */
+    public static final String DELETE_USER_TERMS = "DELETE FROM tp_todo_term WHERE user_id=?";
+
+    /**
+     * Query to remove all terms from the search index.
+     */
+    public static final String DELETE_ALL_TERMS = "DELETE FROM tp_todo_term";
+
+    /**
+     * Query to remove the terms of todos which no longer exist from the search index.
+     */
+    public static final String DELETE_ORPHANED_TERMS = "DELETE FROM tp_todo_term WHERE NOT EXISTS " +
+                                                       "(SELECT t.id FROM tp_todo_list t WHERE t.id=tp_todo_term.todo_id)";
+
+    /**
+     * Query to get the indexed terms of a user starting with a prefix, the parameter being the prefix followed by %.
+     */
+    public static final String TERM_MATCHES = "SELECT todo_id, term, weight FROM tp_todo_term WHERE user_id=? AND term LIKE ?";
+
+    /**
+     * Query to get the first page of todos to add to the search index.
+     */
+    public static final String INDEX_TODOS_FIRST_PAGE = "SELECT id, user_id, name, notes FROM tp_todo_list ORDER BY id ASC";
+
+    /**
+     * Query to get the page of todos to add to the search index following the id cursor.
+     */
+    public static final String INDEX_TODOS_PAGE = "SELECT id, user_id, name, notes FROM tp_todo_list WHERE id > ? ORDER BY id ASC";
+
+    /**
+     * Query to get the todos of all users in no particular order, for streaming.
+     */
+    public static final String ALL_TODOS = "SELECT " + TODO_COLUMNS + " FROM tp_todo_list";
+
+    /**
+     * Query to get which of a list of todo ids are taken.
+     */
+    public static final String EXISTING_TODO_IDS = "SELECT id FROM tp_todo_list WHERE id IN (%s)";
+
+    /**
+     * Query to insert an imported todo with all of its columns.
+     */
+    public static final String IMPORT_TODO = "INSERT INTO tp_todo_list (" + TODO_COLUMNS + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+
+    /**
+     * Query to get a page of the todos of a user matching a filter. The
+     * first placeholder takes the filter conditions, the second the order.
+     */
+    public static final String FILTERED_TODOS = "SELECT " + TODO_COLUMNS + " FROM tp_todo_list WHERE user_id=?%s ORDER BY %s";
+
+    /**
+     * Expands the %s in a query into the specified number of parameter placeholders.
+     *
+     * @param query The query.
+     * @param count The number of placeholders.
+     * @return The query.
+     */
+    public static String withPlaceholders(String query, int count) {
+        StringBuilder placeholders = new StringBuilder(count * 3);
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                placeholders.append(", ");
+            }
+
+            placeholders.append("?");
+        }
+
+        return String.format(query, placeholders);
+    }
 
     /**
      * Private constructor.
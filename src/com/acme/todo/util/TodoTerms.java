@@ -0,0 +1,152 @@
+
+package com.acme.todo.util;
+
+import java.text.Normalizer;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Utility class which splits todo text into the terms stored in the
+ * search index. Text is lower cased and stripped of accents, then split
+ * on everything which is not a letter or digit, so the same rules apply
+ * to the indexed todos and to the search queries.
+ */
+public class TodoTerms {
+
+    /**
+     * The length terms are cut to so they fit the term column.
+     */
+    public static final int MAX_TERM_LENGTH = 64;
+
+    /**
+     * The shortest term that is indexed.
+     */
+    public static final int MIN_TERM_LENGTH = 2;
+
+    /**
+     * The weight of each occurrence of a term in the todo name.
+     */
+    private static final int NAME_WEIGHT = 3;
+
+    /**
+     * The weight of each occurrence of a term in the todo notes.
+     */
+    private static final int NOTES_WEIGHT = 1;
+
+    /**
+     * Splits text into normalized terms in the order they appear. Terms
+     * shorter than the indexed minimum are kept so a query can use them
+     * as a prefix.
+     *
+     * @param text The text, may be null.
+     * @return The terms.
+     */
+    public static List<String> tokenize(String text) {
+        List<String> terms = new ArrayList<>();
+        if (text == null) {
+            return terms;
+        }
+
+        String normalized = Normalizer.normalize(text, Normalizer.Form.NFKD).toLowerCase(Locale.ROOT);
+
+        StringBuilder term = new StringBuilder();
+        for (int i = 0; i < normalized.length(); i++) {
+            char c = normalized.charAt(i);
+            if (Character.getType(c) == Character.NON_SPACING_MARK) {
+                continue;
+            }
+
+            if (Character.isLetterOrDigit(c)) {
+                if (term.length() < MAX_TERM_LENGTH) {
+                    term.append(c);
+                }
+            } else if (term.length() > 0) {
+                terms.add(term.toString());
+                term.setLength(0);
+            }
+        }
+
+        if (term.length() > 0) {
+            terms.add(term.toString());
+        }
+
+        return terms;
+    }
+
+    /**
+     * Splits a search query into its distinct terms. Every term but the
+     * last has to match an indexed term exactly, so the ones shorter than
+     * the indexed minimum are dropped rather than matching nothing. The
+     * last term is kept whatever its length since it is matched as a prefix.
+     *
+     * @param query The query, may be null.
+     * @return The terms.
+     */
+    public static List<String> getQueryTerms(String query) {
+        List<String> tokens = tokenize(query);
+        if (tokens.isEmpty()) {
+            return tokens;
+        }
+
+        String last = tokens.get(tokens.size() - 1);
+
+        Set<String> terms = new LinkedHashSet<>();
+        for (String term : tokens.subList(0, tokens.size() - 1)) {
+            if (term.length() >= MIN_TERM_LENGTH && !term.equals(last)) {
+                terms.add(term);
+            }
+        }
+
+        terms.add(last);
+
+        return new ArrayList<>(terms);
+    }
+
+    /**
+     * Gets the weight of every indexed term of a todo. Terms found in the
+     * name weigh more than terms found in the notes and every occurrence
+     * adds to the weight.
+     *
+     * @param name The todo name.
+     * @param notes The todo notes.
+     * @return The weights keyed by term.
+     */
+    public static Map<String, Integer> getTermWeights(String name, String notes) {
+        Map<String, Integer> weights = new LinkedHashMap<>();
+        addTermWeights(weights, name, NAME_WEIGHT);
+        addTermWeights(weights, notes, NOTES_WEIGHT);
+
+        return weights;
+    }
+
+    /**
+     * Adds the weight of the terms in the text.
+     *
+     * @param weights The weights keyed by term.
+     * @param text The text.
+     * @param weight The weight of each occurrence.
+     */
+    private static void addTermWeights(Map<String, Integer> weights, String text, int weight) {
+        for (String term : tokenize(text)) {
+            if (term.length() < MIN_TERM_LENGTH) {
+                continue;
+            }
+
+            Integer current = weights.get(term);
+            weights.put(term, current == null ? weight : current + weight);
+        }
+    }
+
+    /**
+     * Private constructor.
+     */
+    private TodoTerms() {}
+
+}
+
@@ -1,6 +1,12 @@
 
 package com.acme.todo.util;
 
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
 import java.util.Date;
 
 /**
@@ -15,6 +21,22 @@ public class TodoUtil {
      */
     public static final String PLUGIN_NAME = "TodoPlugin";
 
+    /**
+     * The SQL state class for integrity constraint violations.
+     */
+    private static final String SQL_STATE_INTEGRITY_VIOLATION = "23";
+
+    /**
+     * The product name MySQL reports in the database metadata.
+     */
+    private static final String MYSQL_PRODUCT_NAME = "MySQL";
+
+    /**
+     * The MySQL Connector/J URL property which makes it honor the fetch size
+     * with a server side cursor.
+     */
+    private static final String MYSQL_CURSOR_FETCH = "useCursorFetch=true";
+
     /**
      * Timestamp for this moment in time.
      *
@@ -24,5 +46,124 @@ public class TodoUtil {
         return new Date().getTime();
     }
 
+    /**
+     * Determines if the exception was caused by a unique or primary key violation.
+     *
+     * @param e The exception.
+     * @return True if a duplicate key was inserted, false otherwise.
+     */
+    public static boolean isDuplicateKey(SQLException e) {
+        String sqlState = e.getSQLState();
+
+        return sqlState != null && sqlState.startsWith(SQL_STATE_INTEGRITY_VIOLATION);
+    }
+
+    /**
+     * Gets the bucket a user falls into when the users are split into the
+     * specified number of buckets. String hash codes are the same in every
+     * JVM so all hosts agree on the bucket of a user.
+     *
+     * @param userId The user id.
+     * @param numBuckets The number of buckets.
+     * @return The bucket, from zero to one less than the number of buckets.
+     */
+    public static int getBucket(String userId, int numBuckets) {
+        return (userId.hashCode() & Integer.MAX_VALUE) % numBuckets;
+    }
+
+    /**
+     * Prepares a forward only, read only query whose rows are fetched from
+     * the database in chunks as they are read rather than all at once.
+     *
+     * MySQL Connector/J ignores the fetch size and reads the whole result
+     * into memory unless the connection URL sets useCursorFetch=true. Without
+     * it the statement is given a fetch size of Integer.MIN_VALUE instead,
+     * which makes the driver stream the rows one at a time. The connection
+     * cannot run another statement until the result set is closed then, so
+     * a visitor of a streamed result must not use the same connection.
+     *
+     * @param connection The connection.
+     * @param query The query.
+     * @param fetchSize The number of rows fetched at a time.
+     * @param params The query parameters.
+     * @return The statement.
+     * @throws SQLException
+     */
+    public static PreparedStatement prepareStreamingStatement(Connection connection, String query, int fetchSize,
+                                                              Object... params) throws SQLException {
+
+        PreparedStatement statement = connection.prepareStatement(
+            query, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY
+        );
+
+        try {
+            for (int i = 0; i < params.length; i++) {
+                statement.setObject(i + 1, params[i]);
+            }
+
+            statement.setFetchSize(isMySqlWithoutCursorFetch(connection) ? Integer.MIN_VALUE : fetchSize);
+
+            return statement;
+        } catch (SQLException e) {
+            statement.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Determines if the connection is to MySQL and will ignore the fetch size.
+     *
+     * @param connection The connection.
+     * @return True if rows have to be streamed one at a time to avoid reading them all.
+     * @throws SQLException
+     */
+    private static boolean isMySqlWithoutCursorFetch(Connection connection) throws SQLException {
+        DatabaseMetaData metaData = connection.getMetaData();
+
+        if (!MYSQL_PRODUCT_NAME.equalsIgnoreCase(metaData.getDatabaseProductName())) {
+            return false;
+        }
+
+        String url = metaData.getURL();
+
+        return url == null || !url.contains(MYSQL_CURSOR_FETCH);
+    }
+
+    /**
+     * Rolls back the current transaction on the connection ignoring
+     * any error since this is only called when something already failed.
+     *
+     * @param connection The connection.
+     */
+    public static void rollbackQuietly(Connection connection) {
+        if (connection == null) {
+            return;
+        }
+
+        try {
+            connection.rollback();
+        } catch (SQLException e) {
+            // ignore, the original error is more interesting
+        }
+    }
+
+    /**
+     * Puts the connection back into auto commit mode before it is
+     * returned to the pool.
+     *
+     * @param connection The connection.
+     */
+    public static void restoreAutoCommit(Connection connection) {
+        if (connection == null) {
+            return;
+        }
+
+        try {
+            connection.setAutoCommit(true);
+        } catch (SQLException e) {
+            // ignore, the pool will discard a broken connection
+        }
+    }
+
 }
 
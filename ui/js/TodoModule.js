@@ -7,9 +7,12 @@ var todoModule = angular.module('TodoList', ['ui.bootstrap']);
 /**
  * Controller for the todo list.
  */
-todoModule.controller('TodoController', function(todoService, pageConfigService, $q, $uibModal) {
+todoModule.controller('TodoController', function(todoService, pageConfigService, $q, $uibModal, $scope, $window, $document) {
 
-    var me = this,
+    var PAGE_SIZE = 50,
+        SCROLL_THRESHOLD = 200,
+        me = this,
+        loading = false,
         promises;
 
     /**
@@ -17,6 +20,11 @@ todoModule.controller('TodoController', function(todoService, pageConfigService,
      */
     me.todos = [];
 
+    /**
+     * @property string The cursor for the next page of todos or null if all todos are loaded.
+     */
+    me.next = null;
+
     /**
      * @property string The todo name entered by the user.
      */
@@ -38,12 +46,14 @@ todoModule.controller('TodoController', function(todoService, pageConfigService,
     me.pageConfig = {};
 
     /**
-     * Fetches the todos from the server.
+     * Fetches a page of todos from the server.
      *
-     * @return Promise A promise that resolves with the array of todos.
+     * @param int The maximum number of todos to fetch.
+     * @param string The cursor for the page or undefined for the first page.
+     * @return Promise A promise that resolves with the page of todos.
      */
-    function fetchTodos() {
-        return todoService.getTodos();
+    function fetchTodos(limit, after) {
+        return todoService.getTodos(limit, after);
     }
 
     /**
@@ -56,14 +66,53 @@ todoModule.controller('TodoController', function(todoService, pageConfigService,
     }
 
     /**
-     * Gets the todos from the server and sets them on the controller.
+     * Sets a page of todos on the controller.
+     *
+     * @param Object The page.
+     * @param boolean True to append the todos to the ones already loaded.
+     */
+    function setPage(page, append) {
+        me.todos = append ? me.todos.concat(page.objects) : page.objects;
+        me.next = page.next;
+    }
+
+    /**
+     * Reloads the todos from the server, keeping as many todos as are
+     * currently loaded so the list does not shrink under the user.
      */
     me.getTodos = function() {
-        fetchTodos().then(function(objects) {
-            me.todos = objects;
+        fetchTodos(Math.max(PAGE_SIZE, me.todos.length)).then(function(page) {
+            setPage(page, false);
+        });
+    };
+
+    /**
+     * Loads the next page of todos if there is one.
+     */
+    me.loadMore = function() {
+        if (!me.next || loading) {
+            return;
+        }
+
+        loading = true;
+        fetchTodos(PAGE_SIZE, me.next).then(function(page) {
+            setPage(page, true);
+        }).finally(function() {
+            loading = false;
         });
     };
 
+    /**
+     * Loads the next page of todos when the user scrolls near the bottom of the page.
+     */
+    function onScroll() {
+        var bottom = $window.pageYOffset + $window.innerHeight;
+
+        if (bottom >= $document[0].body.offsetHeight - SCROLL_THRESHOLD) {
+            $scope.$apply(me.loadMore);
+        }
+    }
+
     /**
      * Adds a new todo using the data entered by the user.
      */
@@ -131,16 +180,21 @@ todoModule.controller('TodoController', function(todoService, pageConfigService,
     };
 
     promises = {
-        todos: fetchTodos(),
+        todos: fetchTodos(PAGE_SIZE),
         pageConfig: fetchPageConfig()
     };
 
-    // load the page config and the todos
+    // load the page config and the first page of todos
     $q.all(promises).then(function(result) {
-        me.todos = result.todos;
+        setPage(result.todos, false);
         me.pageConfig = result.pageConfig;
     });
 
+    angular.element($window).on('scroll', onScroll);
+    $scope.$on('$destroy', function() {
+        angular.element($window).off('scroll', onScroll);
+    });
+
 });
 
 /**
@@ -169,13 +223,19 @@ todoModule.controller('TodoNotesCtrl', function($uibModalInstance, notes) {
  */
 todoModule.controller('FlaggedUsersCtrl', function($uibModalInstance, flaggedUserService) {
 
-    var me = this;
+    var PAGE_SIZE = 50,
+        me = this;
 
     /**
      * @property Array The flagged users.
      */
     me.flaggedUsers = [];
 
+    /**
+     * @property string The cursor for the next page of flagged users or null if all are loaded.
+     */
+    me.next = null;
+
     /**
      * Closes the dialog.
      */
@@ -183,17 +243,25 @@ todoModule.controller('FlaggedUsersCtrl', function($uibModalInstance, flaggedUse
         $uibModalInstance.close();
     };
 
-    // load the flagged users
-    flaggedUserService.getFlaggedUsers().then(function(flaggedUsers) {
-        me.flaggedUsers = flaggedUsers;
-    });
+    /**
+     * Loads the next page of flagged users.
+     */
+    me.loadMore = function() {
+        flaggedUserService.getFlaggedUsers(PAGE_SIZE, me.next).then(function(page) {
+            me.flaggedUsers = me.flaggedUsers.concat(page.objects);
+            me.next = page.next;
+        });
+    };
+
+    // load the first page of flagged users
+    me.loadMore();
 
 });
 
 /**
  * Service that handles functionality around todos.
  */
-todoModule.service('todoService', function($http) {
+todoModule.service('todoService', function($http, $q) {
 
     var config = {
         headers: {
@@ -201,18 +269,46 @@ todoModule.service('todoService', function($http) {
         }
     };
 
+    /**
+     * The pages of todos already fetched along with their entity tags, keyed
+     * by the limit and cursor they were fetched with.
+     */
+    var pageCache = {};
+
     return {
 
         /**
-         * Gets todos for the logged in user.
+         * Gets a page of todos for the logged in user. A page fetched before is
+         * revalidated with its entity tag and reused if the todos have not changed.
          *
-         * @return Promise A promise that resolves with an array of todos.
+         * @param int The maximum number of todos in the page.
+         * @param string The cursor returned with the previous page or undefined for the first page.
+         * @return Promise A promise that resolves with the page, which has the todos in objects
+         *                 and the cursor for the next page in next.
          */
-        getTodos: function() {
-            var TODOS_URL = PluginHelper.getPluginRestUrl('TodoPlugin/todos');
+        getTodos: function(limit, after) {
+            var TODOS_URL = PluginHelper.getPluginRestUrl('TodoPlugin/todos'),
+                cacheKey = limit + ':' + (after || ''),
+                cached = pageCache[cacheKey],
+                pageConfig = angular.extend({}, config, { params: { limit: limit, after: after } });
+
+            if (cached) {
+                pageConfig.headers = angular.extend({}, config.headers, { 'If-None-Match': cached.etag });
+            }
 
-            return $http.get(TODOS_URL, config).then(function(response) {
-                return response.data.objects;
+            return $http.get(TODOS_URL, pageConfig).then(function(response) {
+                var etag = response.headers('ETag');
+                if (etag) {
+                    pageCache[cacheKey] = { etag: etag, page: response.data };
+                }
+
+                return response.data;
+            }, function(response) {
+                if (response.status === 304 && cached) {
+                    return cached.page;
+                }
+
+                return $q.reject(response);
             });
         },
 
@@ -297,15 +393,19 @@ todoModule.service('flaggedUserService', function($http) {
     return {
 
         /**
-         * Gets all flagged users.
+         * Gets a page of flagged users.
          *
-         * @return Promise A promise resolving with an array of flagged users.
+         * @param int The maximum number of flagged users in the page.
+         * @param string The cursor returned with the previous page or undefined for the first page.
+         * @return Promise A promise resolving with the page, which has the flagged users in objects
+         *                 and the cursor for the next page in next.
          */
-        getFlaggedUsers: function() {
-            var FLAGGED_USERS_URL = PluginHelper.getPluginRestUrl('TodoPlugin/flaggedUsers');
-            
-            return $http.get(FLAGGED_USERS_URL, config).then(function(response) {
-                return response.data.objects;
+        getFlaggedUsers: function(limit, after) {
+            var FLAGGED_USERS_URL = PluginHelper.getPluginRestUrl('TodoPlugin/flaggedUsers'),
+                pageConfig = angular.extend({ params: { limit: limit, after: after } }, config);
+
+            return $http.get(FLAGGED_USERS_URL, pageConfig).then(function(response) {
+                return response.data;
             });
         }
 